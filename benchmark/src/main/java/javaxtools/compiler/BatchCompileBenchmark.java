@@ -0,0 +1,59 @@
+package javaxtools.compiler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.Function;
+
+/**
+ * Throughput of {@link CharSequenceCompiler#compile(Map, javax.tools.DiagnosticCollector)}
+ * with batches of <var>batchSize</var> function classes. The score is in
+ * batches per second; multiply by the batch size for classes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchCompileBenchmark {
+    @Param({"1", "8", "64"})
+    public int batchSize;
+
+    private CharSequenceCompiler<Function> compiler;
+
+    private Map<String, CharSequence> batch;
+
+    @Setup
+    public void setUp() {
+        compiler = new CharSequenceCompiler<>(getClass().getClassLoader(), null);
+        compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.ISOLATED);
+        batch = new HashMap<>();
+        for (int i = 0; i < batchSize; i++)
+            batch.put(Sources.className(i), Sources.source(i, Sources.EXPRESSION + " + " + i));
+    }
+
+    @TearDown
+    public void tearDown() {
+        compiler.close();
+    }
+
+    @Benchmark
+    public Map<String, Class<Function>> compile() throws CharSequenceCompilerException {
+        return compiler.compile(batch, null);
+    }
+}
@@ -0,0 +1,104 @@
+package javaxtools.compiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.Function;
+import examples.plotter.FunctionCompiler;
+
+/**
+ * Points per microsecond of evaluating an <var>expression</var> over a large
+ * array, one {@link Function#f(double)} call per point versus one
+ * {@link Function#evaluate} call, for a function compiled by javac from the
+ * template and one translated directly to byte code. The plotter's default
+ * function spends most of its time in sin and cos; the polynomial shows the
+ * cost of the calls themselves.
+ * <p/>
+ * Both function classes are used first, so that the call sites are
+ * polymorphic, as they are in an application which plots many functions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkEvaluateBenchmark {
+    private static final int POINTS = 1 << 20;
+
+    private final double[] xs = new double[POINTS];
+
+    private final double[] ys = new double[POINTS];
+
+    @Param({Sources.EXPRESSION, "x * x - 3 * x + 1"})
+    public String expression;
+
+    private Function javac;
+
+    private Function emitted;
+
+    @Setup
+    public void setUp() throws Exception {
+        for (int i = 0; i < POINTS; i++)
+            xs[i] = -10.0 + 20.0 * i / POINTS;
+        final CharSequenceCompiler<Function> compiler = new CharSequenceCompiler<>(
+                getClass().getClassLoader(), null);
+        try {
+            final FunctionCompiler functions = new FunctionCompiler(compiler);
+            emitted = functions.compile(expression, null);
+            functions.setDirectEmit(false);
+            javac = functions.compile(expression, null);
+        } finally {
+            compiler.close();
+        }
+        // pollute the profiles of f and evaluate
+        for (Function function : new Function[]{javac, emitted}) {
+            scalar(function);
+            function.evaluate(xs, 0, ys, 0, POINTS);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double[] scalarJavac() {
+        return scalar(javac);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double[] bulkJavac() {
+        javac.evaluate(xs, 0, ys, 0, POINTS);
+        return ys;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double[] scalarEmitted() {
+        return scalar(emitted);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double[] bulkEmitted() {
+        emitted.evaluate(xs, 0, ys, 0, POINTS);
+        return ys;
+    }
+
+    private double[] scalar(final Function function) {
+        for (int i = 0; i < POINTS; i++)
+            ys[i] = function.f(xs[i]);
+        return ys;
+    }
+}
@@ -0,0 +1,63 @@
+package javaxtools.compiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.Function;
+
+/**
+ * Latency of compiling one function class.
+ * <p/>
+ * {@link #cold()} is the first compilation in a fresh JVM, which loads javac
+ * and reads the JDK; each fork measures it once. {@link #warm()} is a
+ * compilation by an instance which has compiled before. Classes are defined
+ * in {@link CharSequenceCompiler.DefinitionMode#ISOLATED} mode, so that they
+ * can be unloaded and metaspace does not grow during the run.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompileBenchmark {
+    private CharSequenceCompiler<Function> compiler;
+
+    @Setup
+    public void setUp() {
+        compiler = new CharSequenceCompiler<>(getClass().getClassLoader(), null);
+        compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.ISOLATED);
+    }
+
+    @TearDown
+    public void tearDown() {
+        compiler.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public Class<Function> cold() throws CharSequenceCompilerException {
+        return compiler.compile(Sources.className(0), Sources.source(0, Sources.EXPRESSION),
+                null, Function.class);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 5, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public Class<Function> warm() throws CharSequenceCompilerException {
+        return compiler.compile(Sources.className(0), Sources.source(0, Sources.EXPRESSION),
+                null, Function.class);
+    }
+}
@@ -0,0 +1,52 @@
+package javaxtools.compiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.Function;
+
+/**
+ * Cost of defining a compiled class: {@link ClassLoaderImpl#findClass(String)}
+ * in a new class loader, from byte code compiled once in setup. javac is not
+ * involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DefineBenchmark {
+    private static final String NAME = Sources.className(0);
+
+    private byte[] byteCode;
+
+    @Setup
+    public void setUp() throws CharSequenceCompilerException {
+        final CharSequenceCompiler<Function> compiler = new CharSequenceCompiler<>(
+                getClass().getClassLoader(), null);
+        try {
+            compiler.compile(NAME, Sources.source(0, Sources.EXPRESSION), null, Function.class);
+            byteCode = ((ClassLoaderImpl) compiler.getClassLoader()).file(NAME).getByteCode();
+        } finally {
+            compiler.close();
+        }
+    }
+
+    @Benchmark
+    public Class<?> define() throws ClassNotFoundException {
+        final ClassLoaderImpl loader = new ClassLoaderImpl(getClass().getClassLoader());
+        loader.add(NAME, new JavaFileObjectImpl(NAME, byteCode));
+        return loader.findClass(NAME);
+    }
+}
@@ -0,0 +1,83 @@
+package javaxtools.compiler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.Function;
+
+/**
+ * Time to compile a set of 500 related function classes again after one of
+ * them has changed, with and without
+ * {@link CharSequenceCompiler#setIncremental(boolean) incremental}
+ * compilation. Each function calls another one, so that the classes form a
+ * binary tree; the changed one is a leaf, which no other class refers to.
+ * Without incremental compilation, the classes are defined in
+ * {@link CharSequenceCompiler.DefinitionMode#ISOLATED} mode, as they could not
+ * be defined again otherwise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IncrementalCompileBenchmark {
+    private static final int CLASSES = 500;
+
+    @Param({"false", "true"})
+    public boolean incremental;
+
+    private CharSequenceCompiler<Function> compiler;
+
+    private Map<String, CharSequence> classes;
+
+    private int version;
+
+    @Setup
+    public void setUp() throws CharSequenceCompilerException {
+        compiler = new CharSequenceCompiler<>(getClass().getClassLoader(), null);
+        if (incremental)
+            compiler.setIncremental(true);
+        else
+            compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.ISOLATED);
+        classes = new HashMap<>();
+        for (int i = 0; i < CLASSES; i++)
+            classes.put(Sources.className(i), Sources.source(i, expression(i, 0)));
+        compiler.compile(classes, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        compiler.close();
+    }
+
+    @Benchmark
+    public Map<String, Class<Function>> compileOneChange() throws CharSequenceCompilerException {
+        final int leaf = CLASSES - 1;
+        classes.put(Sources.className(leaf), Sources.source(leaf, expression(leaf, ++version)));
+        return compiler.compile(classes, null);
+    }
+
+    /**
+     * @return the expression of the <var>index</var>th function, which calls
+     * its parent in the tree
+     */
+    private static String expression(final int index, final int version) {
+        return index == 0 ? Sources.EXPRESSION
+                : "new Function" + (index - 1) / 2 + "().f(x) + " + version;
+    }
+}
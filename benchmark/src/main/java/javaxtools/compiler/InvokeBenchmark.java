@@ -0,0 +1,71 @@
+package javaxtools.compiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.Function;
+
+/**
+ * Throughput of evaluating the plotter's default function over a plot's
+ * worth of points, compiled from the template versus written as a lambda.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokeBenchmark {
+    private static final int POINTS = 1000;
+
+    private final double[] xs = new double[POINTS];
+
+    private Function compiled;
+
+    private Function lambda;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException, CharSequenceCompilerException {
+        for (int i = 0; i < POINTS; i++)
+            xs[i] = -10.0 + 20.0 * i / POINTS;
+        final CharSequenceCompiler<Function> compiler = new CharSequenceCompiler<>(
+                getClass().getClassLoader(), null);
+        try {
+            compiled = compiler.compile(Sources.className(0),
+                    Sources.source(0, Sources.EXPRESSION), null, Function.class).newInstance();
+        } finally {
+            compiler.close();
+        }
+        lambda = x -> x * (Math.sin(x) + Math.cos(x));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double compiled() {
+        return sum(compiled);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double lambda() {
+        return sum(lambda);
+    }
+
+    private double sum(final Function function) {
+        double sum = 0;
+        for (double x : xs)
+            sum += function.f(x);
+        return sum;
+    }
+}
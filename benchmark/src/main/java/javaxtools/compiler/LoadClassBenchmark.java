@@ -0,0 +1,106 @@
+package javaxtools.compiler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.Function;
+
+/**
+ * Throughput of resolving classes through a compiler's class loader from
+ * several threads: classes it has compiled and defined already, classes of
+ * its parent, and compiled classes while another thread keeps compiling new
+ * classes into the same loader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadClassBenchmark {
+    private static final int CLASSES = 256;
+
+    private static final String[] PARENT_CLASSES = {"java.lang.String", "java.util.ArrayList",
+            "examples.plotter.Function", "javaxtools.compiler.CharSequenceCompiler"};
+
+    private CharSequenceCompiler<Function> compiler;
+
+    private ClassLoader loader;
+
+    private final String[] names = new String[CLASSES];
+
+    // the classes compiled by compile()
+    private int compiled;
+
+    /**
+     * The next class a thread loads.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setUp() throws CharSequenceCompilerException, ClassNotFoundException {
+        compiler = new CharSequenceCompiler<>(getClass().getClassLoader(), null);
+        final Map<String, CharSequence> classes = new HashMap<>();
+        for (int i = 0; i < CLASSES; i++) {
+            names[i] = Sources.className(i);
+            classes.put(names[i], Sources.source(i, Sources.EXPRESSION));
+        }
+        compiler.compile(classes, null);
+        loader = compiler.getClassLoader();
+        // define them all
+        for (String name : names)
+            loader.loadClass(name);
+    }
+
+    @TearDown
+    public void tearDown() {
+        compiler.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Class<?> loadCompiled(final Cursor cursor) throws ClassNotFoundException {
+        return loader.loadClass(names[cursor.next++ & (CLASSES - 1)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Class<?> loadParent(final Cursor cursor) throws ClassNotFoundException {
+        return loader.loadClass(PARENT_CLASSES[cursor.next++ & (PARENT_CLASSES.length - 1)]);
+    }
+
+    @Benchmark
+    @Group("whileCompiling")
+    @GroupThreads(3)
+    public Class<?> load(final Cursor cursor) throws ClassNotFoundException {
+        return loader.loadClass(names[cursor.next++ & (CLASSES - 1)]);
+    }
+
+    @Benchmark
+    @Group("whileCompiling")
+    @GroupThreads(1)
+    public Class<Function> compile() throws CharSequenceCompilerException {
+        final int index = CLASSES + compiled++;
+        return compiler.compile(Sources.className(index), Sources.source(index,
+                Sources.EXPRESSION), null, Function.class);
+    }
+}
@@ -0,0 +1,79 @@
+package javaxtools.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.Function;
+import examples.plotter.FunctionPacker;
+
+/**
+ * Time to compile, define and instantiate 256 functions: packed into one
+ * class by {@link FunctionPacker}, against a class each, all compiled in
+ * one call as {@link BatchCompileBenchmark} does. Classes are defined in
+ * {@link CharSequenceCompiler.DefinitionMode#ISOLATED} mode, so that they
+ * can be unloaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PackBenchmark {
+    private static final int FUNCTIONS = FunctionPacker.MAX_FUNCTIONS_PER_CLASS;
+
+    private CharSequenceCompiler<Function> compiler;
+
+    private FunctionPacker packer;
+
+    private List<String> expressions;
+
+    @Setup
+    public void setUp() {
+        compiler = new CharSequenceCompiler<>(getClass().getClassLoader(), null);
+        compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.ISOLATED);
+        packer = new FunctionPacker(compiler);
+        expressions = new ArrayList<>();
+        for (int i = 0; i < FUNCTIONS; i++)
+            expressions.add(Sources.EXPRESSION + " + " + i);
+    }
+
+    @TearDown
+    public void tearDown() {
+        compiler.close();
+    }
+
+    @Benchmark
+    public List<Function> packed() throws CharSequenceCompilerException,
+            ReflectiveOperationException {
+        return packer.pack(expressions, null);
+    }
+
+    @Benchmark
+    public List<Function> classes() throws CharSequenceCompilerException,
+            ReflectiveOperationException {
+        final Map<String, CharSequence> sources = new HashMap<>();
+        for (int i = 0; i < FUNCTIONS; i++)
+            sources.put(Sources.className(i), Sources.source(i, expressions.get(i)));
+        final Map<String, Class<Function>> classes = compiler.compile(sources, null);
+        final List<Function> functions = new ArrayList<>();
+        for (int i = 0; i < FUNCTIONS; i++)
+            functions.add(classes.get(Sources.className(i)).getConstructor().newInstance());
+        return functions;
+    }
+}
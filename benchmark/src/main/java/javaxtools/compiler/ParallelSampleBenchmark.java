@@ -0,0 +1,81 @@
+package javaxtools.compiler;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAccumulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.Function;
+import examples.plotter.FunctionCompiler;
+import examples.plotter.FunctionSampler;
+
+/**
+ * Points per microsecond of sampling the plotter's default function over ten
+ * million points with a {@link FunctionSampler}, with pools of
+ * <var>parallelism</var> workers. The consumer keeps only the maximum of each
+ * chunk, so the sampling, not the consumer, is measured. Compare the scores
+ * of the parallelisms up to the number of cores to see how the sampling
+ * scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelSampleBenchmark {
+    private static final int POINTS = 10_000_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private ForkJoinPool pool;
+
+    private FunctionSampler sampler;
+
+    private Function function;
+
+    @Setup
+    public void setUp() throws Exception {
+        final CharSequenceCompiler<Function> compiler = new CharSequenceCompiler<>(
+                getClass().getClassLoader(), null);
+        try {
+            function = new FunctionCompiler(compiler).compile(Sources.EXPRESSION, null);
+        } finally {
+            compiler.close();
+        }
+        pool = new ForkJoinPool(parallelism);
+        sampler = new FunctionSampler(pool, FunctionSampler.DEFAULT_CHUNK_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double sample() {
+        final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+        sampler.sampleAndWait(function, -1000.0, 1000.0, POINTS, (index, x, y, length) -> {
+            double chunkMax = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < length; i++)
+                chunkMax = Math.max(chunkMax, y[i]);
+            max.accumulate(chunkMax);
+        });
+        return max.get();
+    }
+}
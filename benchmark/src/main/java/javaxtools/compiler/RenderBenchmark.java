@@ -0,0 +1,83 @@
+package javaxtools.compiler;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.ChartRenderer;
+
+/**
+ * Time and allocation of rendering an 800x500 chart of <var>points</var>
+ * points the way the plotter used to, with a new {@link XYSeries}, chart and
+ * image each time, versus with a {@link ChartRenderer}, which reuses them.
+ * The GC profiler's gc.alloc.rate.norm is the allocation per chart. 3,200
+ * points is what the plotter draws after decimation to four points per pixel
+ * column.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    private static final int WIDTH = 800;
+
+    private static final int HEIGHT = 500;
+
+    @Param({"3200", "100000"})
+    public int points;
+
+    private double[] xs;
+
+    private double[] ys;
+
+    private ChartRenderer renderer;
+
+    @Setup
+    public void setUp() {
+        xs = new double[points];
+        ys = new double[points];
+        for (int i = 0; i < points; i++) {
+            xs[i] = -10.0 + 20.0 * i / (points - 1);
+            ys[i] = xs[i] * (Math.sin(xs[i]) + Math.cos(xs[i]));
+        }
+        renderer = new ChartRenderer();
+    }
+
+    @Benchmark
+    public BufferedImage newSeriesAndChart() {
+        final XYSeries series = new XYSeries(Sources.EXPRESSION);
+        for (int i = 0; i < points; i++)
+            series.add(xs[i], ys[i], false);
+        final JFreeChart chart = ChartFactory.createXYLineChart("f(x)=" + Sources.EXPRESSION, "x",
+                "f(x)", new XYSeriesCollection(series), PlotOrientation.VERTICAL, false, false,
+                false);
+        return chart.createBufferedImage(WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public BufferedImage reusedChart() {
+        final BufferedImage image = renderer.render("f(x)=" + Sources.EXPRESSION, xs, ys, WIDTH,
+                HEIGHT);
+        // the plotter recycles the image it replaces
+        renderer.recycle(image);
+        return image;
+    }
+}
@@ -0,0 +1,56 @@
+package javaxtools.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Sources for the benchmarks: classes implementing
+ * {@link examples.plotter.Function}, generated from the plotter's template.
+ */
+final class Sources {
+    static final String PACKAGE_NAME = "javaxtools.compiler.bench";
+
+    // the plotter's default function
+    static final String EXPRESSION = "x * (sin(x) + cos(x))";
+
+    private static final String TEMPLATE = readTemplate();
+
+    private Sources() {
+    }
+
+    /**
+     * @return the qualified name of the <var>index</var>th function class
+     */
+    static String className(final int index) {
+        return PACKAGE_NAME + ".Function" + index;
+    }
+
+    /**
+     * @return the source of the class {@link #className(int) className(index)}
+     * which computes <var>expression</var>
+     */
+    static String source(final int index, final String expression) {
+        return TEMPLATE.replace("$packageName", PACKAGE_NAME)
+                .replace("$className", "Function" + index)
+                .replace("$expression", expression);
+    }
+
+    private static String readTemplate() {
+        try (InputStream is = examples.plotter.Function.class.getResourceAsStream(
+                "Function.java.template")) {
+            if (is == null)
+                throw new IllegalStateException("template not found!");
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            for (int n; (n = is.read(buffer)) != -1; )
+                bytes.write(buffer, 0, n);
+            return new String(bytes.toByteArray(), UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
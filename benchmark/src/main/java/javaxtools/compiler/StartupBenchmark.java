@@ -0,0 +1,166 @@
+package javaxtools.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Time to start a JVM which gets 100 function classes ready and calls each
+ * once, by {@link #main(String[]) mode}:
+ * <ul>
+ * <li><code>compile</code> compiles them, as a fresh start does;
+ * <li><code>jar</code> loads them from a jar exported by
+ * {@link CharSequenceCompiler#exportJar(Path)}, with
+ * {@link ExportedClasses#newClassLoader(Path, ClassLoader)};
+ * <li><code>cds</code> loads them from the same jar on the class path, with a
+ * dynamic AppCDS archive of the previous run. The archive holds the other
+ * classes the run loads, too, as it would in an application.
+ * </ul>
+ * Each invocation starts a new JVM on the class path of this one, so this
+ * needs Java 13 or later for the <code>cds</code> mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+    private static final int CLASSES = 100;
+
+    @Param({"compile", "jar", "cds"})
+    public String mode;
+
+    private Path directory;
+
+    private List<String> command;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("startup");
+        final Path jar = directory.resolve("functions.jar");
+        final CharSequenceCompiler<Function> compiler = new CharSequenceCompiler<>(
+                getClass().getClassLoader(), null);
+        try {
+            compiler.compile(sources(), null);
+            compiler.exportJar(jar);
+        } catch (CharSequenceCompilerException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            compiler.close();
+        }
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final String classPath = System.getProperty("java.class.path");
+        if ("cds".equals(mode)) {
+            final Path archive = directory.resolve("functions.jsa");
+            final String cdsClassPath = classPath + File.pathSeparator + jar;
+            run(Arrays.asList(java, "-XX:ArchiveClassesAtExit=" + archive, "-cp", cdsClassPath,
+                    StartupBenchmark.class.getName(), mode, jar.toString()));
+            if (!Files.exists(archive))
+                throw new IllegalStateException("no archive written; Java 13 or later is needed");
+            command = Arrays.asList(java, "-XX:SharedArchiveFile=" + archive, "-Xshare:on",
+                    "-cp", cdsClassPath, StartupBenchmark.class.getName(), mode, jar.toString());
+        } else {
+            command = Arrays.asList(java, "-cp", classPath, StartupBenchmark.class.getName(), mode,
+                    jar.toString());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public int start() throws IOException, InterruptedException {
+        return run(command);
+    }
+
+    /**
+     * Run <var>command</var> to the end.
+     *
+     * @return the exit code, 0
+     * @throws IllegalStateException if the command fails
+     */
+    private static int run(final List<String> command) throws IOException, InterruptedException {
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            final byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) != -1; )
+                output.write(buffer, 0, n);
+        }
+        final int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IllegalStateException(command + " exited with " + exitCode + ":\n"
+                    + new String(output.toByteArray(), UTF_8));
+        }
+        return exitCode;
+    }
+
+    private static Map<String, CharSequence> sources() {
+        final Map<String, CharSequence> sources = new HashMap<>();
+        for (int i = 0; i < CLASSES; i++)
+            sources.put(Sources.className(i), Sources.source(i, Sources.EXPRESSION + " + " + i));
+        return sources;
+    }
+
+    /**
+     * The started JVM: get the function classes ready in the given mode and
+     * call each once.
+     *
+     * @param args the mode, and the exported jar
+     */
+    public static void main(String[] args) throws Exception {
+        final ClassLoader parent = StartupBenchmark.class.getClassLoader();
+        final List<Class<?>> classes = new ArrayList<>();
+        if ("compile".equals(args[0])) {
+            final CharSequenceCompiler<Function> compiler = new CharSequenceCompiler<>(parent,
+                    null);
+            classes.addAll(compiler.compile(sources(), null).values());
+        } else {
+            final ClassLoader loader = ExportedClasses.newClassLoader(Paths.get(args[1]), parent);
+            if ("cds".equals(args[0]) && loader != parent)
+                throw new IllegalStateException("the jar is not on the class path");
+            for (String name : ExportedClasses.classNames(Paths.get(args[1])))
+                classes.add(loader.loadClass(name));
+        }
+        double sum = 0;
+        for (Class<?> c : classes)
+            sum += ((Function) c.getConstructor().newInstance()).f(1);
+        if (classes.size() != CLASSES || Double.isNaN(sum))
+            throw new IllegalStateException(classes.size() + " classes, sum " + sum);
+    }
+}
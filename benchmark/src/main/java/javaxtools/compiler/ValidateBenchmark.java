@@ -0,0 +1,67 @@
+package javaxtools.compiler;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import examples.plotter.Function;
+
+/**
+ * Latency of {@link CharSequenceCompiler#validate(String, CharSequence)
+ * validating} one function class, which stops after attribution, against
+ * compiling and loading it. {@link #validateIncomplete()} validates an
+ * expression which is still being typed, so it does not parse. Classes are
+ * compiled in
+ * {@link CharSequenceCompiler.DefinitionMode#ISOLATED} mode, as in
+ * {@link CompileBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidateBenchmark {
+    private CharSequenceCompiler<Function> compiler;
+
+    @Setup
+    public void setUp() {
+        compiler = new CharSequenceCompiler<>(getClass().getClassLoader(), null);
+        compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.ISOLATED);
+    }
+
+    @TearDown
+    public void tearDown() {
+        compiler.close();
+    }
+
+    @Benchmark
+    public Class<Function> compile() throws CharSequenceCompilerException {
+        return compiler.compile(Sources.className(0), Sources.source(0, Sources.EXPRESSION),
+                null, Function.class);
+    }
+
+    @Benchmark
+    public DiagnosticCollector<JavaFileObject> validate() throws CharSequenceCompilerException {
+        return compiler.validate(Sources.className(0), Sources.source(0, Sources.EXPRESSION));
+    }
+
+    @Benchmark
+    public DiagnosticCollector<JavaFileObject> validateIncomplete()
+            throws CharSequenceCompilerException {
+        return compiler.validate(Sources.className(0), Sources.source(0, "x * (sin(x) + "));
+    }
+}
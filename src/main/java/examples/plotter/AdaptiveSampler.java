@@ -0,0 +1,157 @@
+package examples.plotter;
+
+import java.util.Arrays;
+
+/**
+ * Samples a {@link Function} for a plot of a given size in pixels, densely
+ * where the curve bends and sparsely where it is nearly straight.
+ * <p/>
+ * Sampling starts with a point every few pixels. Then each interval whose
+ * midpoint is more than half a pixel off the straight line between its ends
+ * is halved, and so on, until every interval is straight to within half a
+ * pixel, is a fraction of a pixel wide, or the budget of points is spent.
+ * A jump into or out of NaN or infinity counts as a bend, so poles and the
+ * edges of a domain are sampled closely. Each round evaluates all its new
+ * points with one {@link Function#evaluate} call.
+ * <p/>
+ * Thread safety: this class is immutable.
+ */
+public final class AdaptiveSampler {
+    /**
+     * The default number of points per pixel which sampling may not exceed.
+     */
+    public static final int DEFAULT_POINTS_PER_PIXEL = 8;
+
+    // pixels between the initial points
+    private static final int INITIAL_SPACING = 4;
+
+    // the narrowest interval which is halved, in pixels
+    private static final double MIN_SPACING = 0.25;
+
+    private final int pointsPerPixel;
+
+    /**
+     * Create a sampler which takes at most {@link #DEFAULT_POINTS_PER_PIXEL}
+     * points per pixel.
+     */
+    public AdaptiveSampler() {
+        this(DEFAULT_POINTS_PER_PIXEL);
+    }
+
+    /**
+     * @param pointsPerPixel the budget of points per pixel of width
+     * @throws IllegalArgumentException if <var>pointsPerPixel</var> is not
+     *                                  positive
+     */
+    public AdaptiveSampler(int pointsPerPixel) {
+        if (pointsPerPixel <= 0)
+            throw new IllegalArgumentException("pointsPerPixel must be positive: " + pointsPerPixel);
+        this.pointsPerPixel = pointsPerPixel;
+    }
+
+    /**
+     * Sample a function from <var>from</var> to <var>to</var>, both included.
+     *
+     * @param function the function to sample
+     * @param from     the x at the left edge of the plot
+     * @param to       the x at the right edge of the plot
+     * @param width    the width of the plot, in pixels
+     * @param height   the height of the plot, in pixels; the range of y which
+     *                 it shows is taken to be that of the initial points
+     * @return the x values and the y values of the points, in the order of x
+     * @throws IllegalArgumentException if a size is not positive, or the
+     *                                  range is empty or not finite
+     */
+    public double[][] sample(Function function, double from, double to, int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("bad size: " + width + "x" + height);
+        if (!(from < to) || Double.isInfinite(to - from))
+            throw new IllegalArgumentException("bad range: " + from + ", " + to);
+        final int budget = pointsPerPixel * width + 1;
+        int n = Math.max(2, width / INITIAL_SPACING + 1);
+        double[] xs = new double[n];
+        for (int i = 0; i < n; i++)
+            xs[i] = i == n - 1 ? to : from + i * (to - from) / (n - 1);
+        double[] ys = new double[n];
+        function.evaluate(xs, 0, ys, 0, n);
+
+        final double tolerance = 0.5 * yRange(ys, n) / height;
+        final double minInterval = MIN_SPACING * (to - from) / width;
+        // whether each interval is to be halved; all of them at first
+        boolean[] split = new boolean[n - 1];
+        Arrays.fill(split, true);
+        double[] midX = new double[n - 1];
+        double[] midY = new double[n - 1];
+        while (true) {
+            // the midpoints of the intervals to halve, up to the budget
+            int m = 0;
+            for (int i = 0; i < n - 1; i++) {
+                if (split[i] && n + m < budget && xs[i + 1] - xs[i] > minInterval)
+                    midX[m++] = xs[i] + 0.5 * (xs[i + 1] - xs[i]);
+                else
+                    split[i] = false;
+            }
+            if (m == 0)
+                break;
+            function.evaluate(midX, 0, midY, 0, m);
+
+            // merge the midpoints, and mark the halves of bent intervals
+            final double[] newXs = new double[n + m];
+            final double[] newYs = new double[n + m];
+            final boolean[] newSplit = new boolean[n + m - 1];
+            int k = 0;
+            int j = 0;
+            for (int i = 0; i < n - 1; i++) {
+                newXs[k] = xs[i];
+                newYs[k] = ys[i];
+                if (split[i]) {
+                    final boolean bent = isBent(ys[i], midY[j], ys[i + 1], tolerance);
+                    newXs[k + 1] = midX[j];
+                    newYs[k + 1] = midY[j];
+                    newSplit[k] = newSplit[k + 1] = bent;
+                    j++;
+                    k += 2;
+                } else {
+                    k++;
+                }
+            }
+            newXs[k] = xs[n - 1];
+            newYs[k] = ys[n - 1];
+            n += m;
+            xs = newXs;
+            ys = newYs;
+            split = newSplit;
+            midX = new double[n - 1];
+            midY = new double[n - 1];
+        }
+        return new double[][]{xs, ys};
+    }
+
+    /**
+     * @return whether <var>middle</var> is off the line from <var>left</var>
+     * to <var>right</var> by more than <var>tolerance</var>
+     */
+    private static boolean isBent(final double left, final double middle, final double right,
+                                  final double tolerance) {
+        if (isFinite(left) && isFinite(middle) && isFinite(right))
+            return Math.abs(middle - 0.5 * (left + right)) > tolerance;
+        // a pole or the edge of the domain if some of the values are finite
+        return isFinite(left) || isFinite(middle) || isFinite(right);
+    }
+
+    private static double yRange(final double[] ys, final int n) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            if (isFinite(ys[i])) {
+                min = Math.min(min, ys[i]);
+                max = Math.max(max, ys[i]);
+            }
+        }
+        return max > min ? max - min : 1.0;
+    }
+
+    private static boolean isFinite(final double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+}
@@ -0,0 +1,431 @@
+package examples.plotter;
+
+import org.jfree.chart.ChartUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import javaxtools.compiler.CharSequenceCompiler;
+import javaxtools.compiler.CharSequenceCompilerException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A command line application which plots many functions into PNG files,
+ * without a display. See {@link #main(String[])} for the arguments.
+ * <p/>
+ * The expressions are compiled in batches, each with one
+ * {@link CharSequenceCompiler#compile(Map, DiagnosticCollector)} call, so
+ * that javac's fixed cost per compilation is shared. By default the
+ * expressions of a batch are packed into few classes by a
+ * {@link FunctionPacker}; with <code>-m classes</code> each is filled into
+ * Function.java.template and compiled into a class of its own. An expression
+ * which does not compile is dropped from its batch, and the rest of the
+ * batch is compiled again. The batches are compiled by a pool of workers,
+ * which also sample and render the functions of each batch as soon as it is
+ * compiled, the same way as {@link PlotterPanel} does.
+ * <p/>
+ * When all are done, the throughput and the time spent in each stage, summed
+ * over the workers, are reported on standard output, and the expressions
+ * which could not be plotted on standard error.
+ */
+public final class BatchPlotter {
+    private static final String USAGE = "usage: BatchPlotter [-o directory] [-w width] [-h height]"
+            + " [-x from,to] [-b batch-size] [-t threads] [-m packed|classes] expressions-file\n"
+            + "Plots each expression in the file, one per line, into directory/plot-<line>.png,"
+            + " where <line> is the line number padded with zeros to five digits, as in"
+            + " plot-00007.png."
+            + " Blank lines and lines starting with # are skipped.";
+
+    // package name of a batch; the batch number is appended
+    private static final String PACKAGE_NAME = "examples.plotter.batch";
+
+    /**
+     * An expression, and what has become of it.
+     */
+    private static final class Plot {
+        final int line;
+        final String expression;
+        // set once compiled
+        volatile Function function;
+        // set if the expression cannot be plotted
+        volatile String error;
+
+        Plot(final int line, final String expression) {
+            this.line = line;
+            this.expression = expression;
+        }
+    }
+
+    private final CharSequenceCompiler<Function> compiler;
+
+    // packs the expressions of each batch; null to compile a class each
+    private final FunctionPacker packer;
+
+    private final ExecutorService workers;
+
+    private final File directory;
+
+    private final int width;
+
+    private final int height;
+
+    private final double from;
+
+    private final double to;
+
+    private final AdaptiveSampler sampler = new AdaptiveSampler();
+
+    // a chart renderer must be used by one thread at a time
+    private final ThreadLocal<ChartRenderer> renderers = ThreadLocal.withInitial(ChartRenderer::new);
+
+    // for unique package names
+    private final AtomicInteger batches = new AtomicInteger();
+
+    // the nanoseconds spent in each stage, by all workers together
+    private final LongAdder compileNanos = new LongAdder();
+    private final LongAdder sampleNanos = new LongAdder();
+    private final LongAdder renderNanos = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+
+    private BatchPlotter(final int threads, final boolean packed, final File directory,
+                         final int width, final int height, final double from, final double to) {
+        compiler = new CharSequenceCompiler<>(getClass().getClassLoader(), new ArrayList<>(),
+                threads);
+        // the classes of a batch can be unloaded once it is plotted
+        compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.ISOLATED);
+        packer = packed ? new FunctionPacker(compiler) : null;
+        workers = Executors.newFixedThreadPool(threads);
+        this.directory = directory;
+        this.width = width;
+        this.height = height;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Plot the expressions of a file.
+     * <p/>
+     * Arguments, all but the last optional:
+     * <dl>
+     * <dt>-o <var>directory</var></dt><dd>where to write the images; the current directory by default.
+     * The image of the expression on line <var>n</var> of the file is named
+     * <code>plot-</code><var>n</var><code>.png</code>, with <var>n</var> padded with zeros to
+     * five digits, for example <code>plot-00007.png</code></dd>
+     * <dt>-w <var>width</var></dt><dd>the width of the images; 800 by default</dd>
+     * <dt>-h <var>height</var></dt><dd>the height of the images; 500 by default</dd>
+     * <dt>-x <var>from</var>,<var>to</var></dt><dd>the range of x; -10,10 by default</dd>
+     * <dt>-b <var>batch-size</var></dt><dd>the number of expressions compiled together; 64 by default</dd>
+     * <dt>-t <var>threads</var></dt><dd>the number of workers; the number of processors by default</dd>
+     * <dt>-m packed|classes</dt><dd>whether the expressions of a batch are packed into few classes, the
+     * default, or compiled into a class each</dd>
+     * <dt><var>expressions-file</var></dt><dd>a UTF-8 file with one expression per line</dd>
+     * </dl>
+     * The exit status is 0 if every expression was plotted, 1 if some were
+     * not, and 2 if the arguments are wrong or the file cannot be read.
+     */
+    public static void main(final String[] args) {
+        // before any AWT class is loaded
+        System.setProperty("java.awt.headless", "true");
+        File directory = new File(".");
+        int width = 800;
+        int height = 500;
+        double from = -10.0;
+        double to = 10.0;
+        int batchSize = 64;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean packed = true;
+        File input = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                final String arg = args[i];
+                if (i == args.length - 1 && !arg.startsWith("-")) {
+                    input = new File(arg);
+                    break;
+                }
+                if (i == args.length - 1)
+                    throw new IllegalArgumentException("missing value of " + arg);
+                final String value = args[++i];
+                switch (arg) {
+                    case "-o":
+                        directory = new File(value);
+                        break;
+                    case "-w":
+                        width = Integer.parseInt(value);
+                        break;
+                    case "-h":
+                        height = Integer.parseInt(value);
+                        break;
+                    case "-x": {
+                        final String[] range = value.split(",");
+                        if (range.length != 2)
+                            throw new IllegalArgumentException("bad range: " + value);
+                        from = Double.parseDouble(range[0]);
+                        to = Double.parseDouble(range[1]);
+                        break;
+                    }
+                    case "-b":
+                        batchSize = Integer.parseInt(value);
+                        break;
+                    case "-t":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "-m":
+                        if (!value.equals("packed") && !value.equals("classes"))
+                            throw new IllegalArgumentException("unknown mode: " + value);
+                        packed = value.equals("packed");
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option: " + arg);
+                }
+            }
+            if (input == null)
+                throw new IllegalArgumentException("no expressions file");
+            if (width <= 0 || height <= 0 || batchSize <= 0 || threads <= 0 || !(from < to))
+                throw new IllegalArgumentException("sizes must be positive, and from less than to");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        final List<Plot> plots = new ArrayList<>();
+        try {
+            final List<String> lines = Files.readAllLines(input.toPath(), UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                final String expression = lines.get(i).trim();
+                if (!expression.isEmpty() && !expression.startsWith("#"))
+                    plots.add(new Plot(i + 1, expression));
+            }
+            Files.createDirectories(directory.toPath());
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(2);
+            return;
+        }
+        final BatchPlotter plotter = new BatchPlotter(threads, packed, directory, width, height,
+                from, to);
+        final boolean allPlotted;
+        try {
+            allPlotted = plotter.plot(plots, batchSize);
+        } finally {
+            plotter.close();
+        }
+        System.exit(allPlotted ? 0 : 1);
+    }
+
+    /**
+     * Plot the expressions and report on them.
+     *
+     * @return whether all of them were plotted
+     */
+    private boolean plot(final List<Plot> plots, final int batchSize) {
+        final long start = System.nanoTime();
+        final List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (int i = 0; i < plots.size(); i += batchSize) {
+            final List<Plot> batch = plots.subList(i, Math.min(i + batchSize, plots.size()));
+            done.add(CompletableFuture.runAsync(() -> compile(batch), workers)
+                    .thenCompose(compiled -> {
+                        final List<CompletableFuture<Void>> plotted = new ArrayList<>();
+                        for (Plot plot : batch) {
+                            if (plot.function != null)
+                                plotted.add(CompletableFuture.runAsync(() -> render(plot), workers));
+                        }
+                        return CompletableFuture.allOf(plotted.toArray(new CompletableFuture<?>[0]));
+                    }));
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+        final long nanos = System.nanoTime() - start;
+
+        int failed = 0;
+        for (Plot plot : plots) {
+            if (plot.error != null) {
+                failed++;
+                System.err.println("line " + plot.line + ": " + plot.expression + ": " + plot.error);
+            }
+        }
+        final int plotted = plots.size() - failed;
+        System.out.printf("plotted %d of %d expressions in %.3f s, %.1f plots/s%n", plotted,
+                plots.size(), nanos / 1e9, plotted / (nanos / 1e9));
+        System.out.printf("  compile %10.1f ms in %d batches%n", compileNanos.sum() / 1e6,
+                batches.get());
+        System.out.printf("  sample  %10.1f ms%n", sampleNanos.sum() / 1e6);
+        System.out.printf("  render  %10.1f ms%n", renderNanos.sum() / 1e6);
+        System.out.printf("  write   %10.1f ms%n", writeNanos.sum() / 1e6);
+        return failed == 0;
+    }
+
+    /**
+     * Compile a batch of expressions, and set the function or the error of
+     * each.
+     */
+    private void compile(final List<Plot> batch) {
+        final long start = System.nanoTime();
+        try {
+            if (packer != null)
+                pack(batch);
+            else
+                compileClasses(batch);
+        } finally {
+            compileNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Compile a batch of expressions into few classes with the packer.
+     */
+    private void pack(final List<Plot> batch) {
+        batches.getAndIncrement();
+        final List<String> expressions = new ArrayList<>();
+        for (Plot plot : batch)
+            expressions.add(plot.expression);
+        try {
+            final Map<Integer, Diagnostic<? extends JavaFileObject>> errors = new HashMap<>();
+            final List<Function> functions = packer.pack(expressions, errors);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).function = functions.get(i);
+                if (errors.containsKey(i))
+                    batch.get(i).error = firstLine(errors.get(i));
+            }
+        } catch (CharSequenceCompilerException e) {
+            for (Plot plot : batch)
+                plot.error = e.getMessage();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            for (Plot plot : batch)
+                plot.error = e.toString();
+        }
+    }
+
+    /**
+     * Compile a batch of expressions into a class each.
+     */
+    private void compileClasses(final List<Plot> batch) {
+        final String packageName = PACKAGE_NAME + batches.getAndIncrement();
+        // the expressions still to compile, by simple class name
+        final Map<String, Plot> pending = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++)
+            pending.put("Fx_" + i, batch.get(i));
+        try {
+            while (!pending.isEmpty()) {
+                final Map<String, CharSequence> sources = new HashMap<>();
+                for (Map.Entry<String, Plot> entry : pending.entrySet()) {
+                    sources.put(packageName + '.' + entry.getKey(), FunctionTemplate.fill(
+                            packageName, entry.getKey(), entry.getValue().expression));
+                }
+                final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+                try {
+                    final Map<String, Class<Function>> classes = compiler.compile(sources,
+                            diagnostics);
+                    for (Map.Entry<String, Plot> entry : pending.entrySet()) {
+                        entry.getValue().function = classes.get(packageName + '.' + entry.getKey())
+                                .getConstructor().newInstance();
+                    }
+                    return;
+                } catch (CharSequenceCompilerException e) {
+                    // drop the expressions with errors, and compile the others
+                    // again
+                    if (!drop(pending, diagnostics)) {
+                        for (Plot plot : pending.values())
+                            plot.error = e.getMessage();
+                        return;
+                    }
+                }
+            }
+        } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+            for (Plot plot : pending.values())
+                plot.error = e.toString();
+        }
+    }
+
+    /**
+     * Remove the expressions with errors from <var>pending</var>, and set
+     * their errors.
+     *
+     * @return whether any expression was removed
+     */
+    private static boolean drop(final Map<String, Plot> pending,
+                                final DiagnosticCollector<JavaFileObject> diagnostics) {
+        boolean dropped = false;
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() != Diagnostic.Kind.ERROR || diagnostic.getSource() == null)
+                continue;
+            final String fileName = diagnostic.getSource().getName();
+            final String className = fileName.substring(fileName.lastIndexOf('/') + 1,
+                    fileName.length() - ".java".length());
+            final Plot plot = pending.remove(className);
+            if (plot != null) {
+                plot.error = firstLine(diagnostic);
+                dropped = true;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * @return the first line of the message of <var>diagnostic</var>; the
+     * others locate the error in the generated source
+     */
+    private static String firstLine(final Diagnostic<? extends JavaFileObject> diagnostic) {
+        return diagnostic.getMessage(null).split("\n", 2)[0];
+    }
+
+    /**
+     * Sample and render a compiled function, and write the image.
+     */
+    private void render(final Plot plot) {
+        final ChartRenderer renderer = renderers.get();
+        BufferedImage image = null;
+        try {
+            long start = System.nanoTime();
+            final double[][] samples = sampler.sample(plot.function, from, to, width, height);
+            final double[][] points = PixelDecimator.decimate(samples[0], samples[1], from, to,
+                    width);
+            long end = System.nanoTime();
+            sampleNanos.add(end - start);
+
+            start = end;
+            image = renderer.render("f(x)=" + plot.expression, points[0], points[1], width,
+                    height);
+            end = System.nanoTime();
+            renderNanos.add(end - start);
+
+            start = end;
+            final File file = new File(directory, String.format("plot-%05d.png", plot.line));
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+                ChartUtils.writeBufferedImageAsPNG(out, image);
+            }
+            writeNanos.add(System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            // for example, an ArithmeticException from the function
+            plot.error = e.toString();
+        } finally {
+            // the function is not needed any more; let its class be unloaded
+            plot.function = null;
+            if (image != null)
+                renderer.recycle(image);
+        }
+    }
+
+    private void close() {
+        workers.shutdown();
+        compiler.close();
+    }
+}
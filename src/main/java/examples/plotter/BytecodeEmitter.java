@@ -0,0 +1,700 @@
+package examples.plotter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import examples.plotter.Expression.Binary;
+import examples.plotter.Expression.Call;
+import examples.plotter.Expression.Conditional;
+import examples.plotter.Expression.Convert;
+import examples.plotter.Expression.Literal;
+import examples.plotter.Expression.Operator;
+import examples.plotter.Expression.Type;
+import examples.plotter.Expression.Unary;
+import examples.plotter.Expression.Variable;
+
+/**
+ * Write the class file of a {@link Function} whose <code>f(double x)</code>
+ * returns the value of an {@link Expression}, the code javac would generate
+ * for <code>Function.java.template</code>, without running javac. The bulk
+ * {@link Function#evaluate} is a loop with the expression inlined.
+ * <p/>
+ * The class file has version 49 (Java 5), the last version whose methods need
+ * no StackMapTable attribute; the JVM verifies them by type inference instead.
+ * <p/>
+ * Thread safety: an instance writes one class; the static
+ * {@link #emit(String, Expression)} is thread safe.
+ */
+final class BytecodeEmitter {
+    private static final int MAJOR_VERSION = 49;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int LCONST_0 = 0x09;
+    private static final int FCONST_0 = 0x0b;
+    private static final int DCONST_0 = 0x0e;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ILOAD = 0x15;
+    private static final int DLOAD = 0x18;
+    private static final int ILOAD_2 = 0x1c;
+    private static final int DLOAD_1 = 0x27;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int DALOAD = 0x31;
+    private static final int ISTORE = 0x36;
+    private static final int DSTORE = 0x39;
+    private static final int DASTORE = 0x52;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int IDIV = 0x6c;
+    private static final int IREM = 0x70;
+    private static final int INEG = 0x74;
+    private static final int IINC = 0x84;
+    private static final int LCMP = 0x94;
+    private static final int FCMPL = 0x95;
+    private static final int FCMPG = 0x96;
+    private static final int DCMPL = 0x97;
+    private static final int DCMPG = 0x98;
+    private static final int IFEQ = 0x99;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int GOTO = 0xa7;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    // the conversion opcodes, [from][to] for INT, LONG, FLOAT, DOUBLE; 0 for none
+    private static final int[][] CONVERSIONS = {
+            {0, 0x85, 0x86, 0x87},
+            {0x88, 0, 0x89, 0x8a},
+            {0x8b, 0x8c, 0, 0x8d},
+            {0x8e, 0x8f, 0x90, 0}};
+
+    private final ConstantPool constants = new ConstantPool();
+
+    // evaluate(double[] xs, int xOffset, double[] ys, int yOffset, int length)
+    // keeps i and x in these local variables
+    private static final int EVALUATE_I = 6;
+    private static final int EVALUATE_X = 7;
+
+    private final Code code = new Code();
+
+    // the local variable which holds x
+    private int xSlot;
+
+    // the operand stack depth at the current instruction, and its maximum
+    private int stack;
+    private int maxStack;
+
+    // whether a jump is too far for its 16 bit offset
+    private boolean jumpTooFar;
+
+    private BytecodeEmitter() {
+    }
+
+    /**
+     * @param className  the binary name of the class
+     * @param expression the expression f(x) computes; must have type double
+     * @return the class file of a public class implementing {@link Function}
+     * with a public no-argument constructor
+     * @throws ExpressionParser.UnsupportedException if the method would be too
+     *                                               large for a class file
+     */
+    static byte[] emit(final String className, final Expression expression)
+            throws ExpressionParser.UnsupportedException {
+        if (expression.type != Type.DOUBLE)
+            throw new IllegalArgumentException("expression must have type double");
+        final BytecodeEmitter emitter = new BytecodeEmitter();
+        // public double f(double x) { return (expression); }
+        emitter.xSlot = 1;
+        emitter.value(expression);
+        emitter.op(DRETURN, -2);
+        final int fMaxStack = emitter.maxStack;
+        final byte[] f = emitter.finish();
+        // public void evaluate(double[] xs, int xOffset, double[] ys, int yOffset,
+        //                      int length) {
+        //     for (int i = 0; i < length; i++) {
+        //         double x = xs[xOffset + i];
+        //         ys[yOffset + i] = (expression);
+        //     }
+        // }
+        emitter.xSlot = EVALUATE_X;
+        emitter.op(ICONST_0, 1);
+        emitter.local(ISTORE, EVALUATE_I, -1);
+        final Label loop = new Label();
+        final Label end = new Label();
+        emitter.place(loop);
+        emitter.local(ILOAD, EVALUATE_I, 1);
+        emitter.local(ILOAD, 5, 1);
+        emitter.jump(IF_ICMPGE, -2, end);
+        emitter.op(ALOAD_1, 1);
+        emitter.op(ILOAD_2, 1);
+        emitter.local(ILOAD, EVALUATE_I, 1);
+        emitter.op(IADD, -1);
+        emitter.op(DALOAD, 0);
+        emitter.local(DSTORE, EVALUATE_X, -2);
+        emitter.op(ALOAD_3, 1);
+        emitter.local(ILOAD, 4, 1);
+        emitter.local(ILOAD, EVALUATE_I, 1);
+        emitter.op(IADD, -1);
+        emitter.value(expression);
+        emitter.op(DASTORE, -4);
+        emitter.op(IINC, 0);
+        emitter.code.write(EVALUATE_I);
+        emitter.code.write(1);
+        emitter.jump(GOTO, 0, loop);
+        emitter.place(end);
+        emitter.op(RETURN, 0);
+        final int evaluateMaxStack = emitter.maxStack;
+        final byte[] evaluate = emitter.finish();
+        return emitter.classFile(className.replace('.', '/'), f, fMaxStack, evaluate,
+                evaluateMaxStack);
+    }
+
+    /**
+     * @return the code of the method just emitted; the next method starts
+     * with empty code and stack
+     */
+    private byte[] finish() throws ExpressionParser.UnsupportedException {
+        if (code.size() > 0xffff || jumpTooFar)
+            throw new ExpressionParser.UnsupportedException("code too large");
+        final byte[] result = code.toByteArray();
+        code.reset();
+        stack = 0;
+        maxStack = 0;
+        return result;
+    }
+
+    private byte[] classFile(final String internalName, final byte[] f, final int fMaxStack,
+                             final byte[] evaluate, final int evaluateMaxStack) {
+        final int thisClass = constants.classRef(internalName);
+        final int superClass = constants.classRef("java/lang/Object");
+        final int function = constants.classRef(Function.class.getName().replace('.', '/'));
+        final int codeName = constants.utf8("Code");
+        final int initName = constants.utf8("<init>");
+        final int initDescriptor = constants.utf8("()V");
+        final int objectInit = constants.methodRef("java/lang/Object", "<init>", "()V");
+        final int fName = constants.utf8("f");
+        final int fDescriptor = constants.utf8("(D)D");
+        final int evaluateName = constants.utf8("evaluate");
+        final int evaluateDescriptor = constants.utf8("([DI[DII)V");
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + code.size());
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            constants.write(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(function);
+            out.writeShort(0); // fields
+            out.writeShort(3); // methods
+            // public <init>() { super(); }
+            final byte[] init = {ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8),
+                    (byte) objectInit, (byte) RETURN};
+            writeMethod(out, initName, initDescriptor, codeName, 1, 1, init);
+            // public double f(double x) { return (expression); }
+            writeMethod(out, fName, fDescriptor, codeName, fMaxStack, 3, f);
+            writeMethod(out, evaluateName, evaluateDescriptor, codeName, evaluateMaxStack,
+                    EVALUATE_X + 2, evaluate);
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeMethod(final DataOutputStream out, final int name,
+                                    final int descriptor, final int codeName, final int maxStack,
+                                    final int maxLocals, final byte[] code) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    /**
+     * Emit code which pushes the value of <var>expression</var>; a boolean
+     * is pushed as 0 or 1.
+     */
+    private void value(final Expression expression) {
+        if (expression.type == Type.BOOLEAN && !(expression instanceof Literal)) {
+            final Label isFalse = new Label();
+            final Label end = new Label();
+            branch(expression, false, isFalse);
+            op(ICONST_0 + 1, 1);
+            jump(GOTO, 0, end);
+            place(isFalse);
+            stack -= 1;
+            op(ICONST_0, 1);
+            place(end);
+        } else if (expression instanceof Literal) {
+            literal((Literal) expression);
+        } else if (expression instanceof Variable) {
+            if (xSlot == 1) {
+                op(DLOAD_1, 2);
+            } else {
+                local(DLOAD, xSlot, 2);
+            }
+        } else if (expression instanceof Unary) {
+            final Unary unary = (Unary) expression;
+            value(unary.operand);
+            op(INEG + typeOffset(unary.type), 0);
+        } else if (expression instanceof Binary) {
+            final Binary binary = (Binary) expression;
+            value(binary.left);
+            value(binary.right);
+            op(arithmetic(binary.operator) + typeOffset(binary.type), -binary.type.size);
+        } else if (expression instanceof Conditional) {
+            final Conditional conditional = (Conditional) expression;
+            final Label isFalse = new Label();
+            final Label end = new Label();
+            branch(conditional.test, false, isFalse);
+            value(conditional.ifTrue);
+            jump(GOTO, 0, end);
+            place(isFalse);
+            stack -= conditional.type.size;
+            value(conditional.ifFalse);
+            place(end);
+        } else if (expression instanceof Call) {
+            final Call call = (Call) expression;
+            int size = 0;
+            for (Expression argument : call.arguments) {
+                value(argument);
+                size += argument.type.size;
+            }
+            final Method method = call.method;
+            final int ref = constants.methodRef(
+                    method.getDeclaringClass().getName().replace('.', '/'), method.getName(),
+                    descriptor(method));
+            op(INVOKESTATIC, call.type.size - size);
+            u2(ref);
+        } else if (expression instanceof Convert) {
+            final Convert convert = (Convert) expression;
+            value(convert.operand);
+            final int opcode = CONVERSIONS[convert.operand.type.ordinal()][convert.type.ordinal()];
+            if (opcode != 0)
+                op(opcode, convert.type.size - convert.operand.type.size);
+        } else {
+            throw new IllegalArgumentException(expression.getClass().getName());
+        }
+    }
+
+    private void literal(final Literal literal) {
+        final Object value = literal.value;
+        switch (literal.type) {
+            case BOOLEAN:
+                op((Boolean) value ? ICONST_0 + 1 : ICONST_0, 1);
+                break;
+            case INT:
+                final int i = (Integer) value;
+                if (i >= -1 && i <= 5) {
+                    op(ICONST_0 + i, 1);
+                } else if (i == (byte) i) {
+                    op(BIPUSH, 1);
+                    code.write(i);
+                } else if (i == (short) i) {
+                    op(SIPUSH, 1);
+                    u2(i);
+                } else {
+                    op(LDC_W, 1);
+                    u2(constants.integer(i));
+                }
+                break;
+            case LONG:
+                final long l = (Long) value;
+                if (l == 0 || l == 1) {
+                    op(LCONST_0 + (int) l, 2);
+                } else {
+                    op(LDC2_W, 2);
+                    u2(constants.longValue(l));
+                }
+                break;
+            case FLOAT:
+                final float f = (Float) value;
+                // compare bits, so that -0.0f is not pushed as 0.0f
+                if (Float.floatToIntBits(f) == Float.floatToIntBits(0f)
+                        || f == 1f || f == 2f) {
+                    op(FCONST_0 + (int) f, 1);
+                } else {
+                    op(LDC_W, 1);
+                    u2(constants.floatValue(f));
+                }
+                break;
+            case DOUBLE:
+                final double d = (Double) value;
+                if (Double.doubleToLongBits(d) == Double.doubleToLongBits(0d) || d == 1d) {
+                    op(DCONST_0 + (int) d, 2);
+                } else {
+                    op(LDC2_W, 2);
+                    u2(constants.doubleValue(d));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(literal.type.name());
+        }
+    }
+
+    /**
+     * Emit code which jumps to <var>target</var> if the boolean
+     * <var>expression</var> is <var>jumpIf</var>, and otherwise falls
+     * through. The stack is left as it was.
+     */
+    private void branch(final Expression expression, final boolean jumpIf, final Label target) {
+        if (expression instanceof Literal) {
+            if ((Boolean) ((Literal) expression).value == jumpIf)
+                jump(GOTO, 0, target);
+        } else if (expression instanceof Unary) {
+            // NOT
+            branch(((Unary) expression).operand, !jumpIf, target);
+        } else if (expression instanceof Conditional) {
+            final Conditional conditional = (Conditional) expression;
+            final Label isFalse = new Label();
+            final Label end = new Label();
+            branch(conditional.test, false, isFalse);
+            branch(conditional.ifTrue, jumpIf, target);
+            jump(GOTO, 0, end);
+            place(isFalse);
+            branch(conditional.ifFalse, jumpIf, target);
+            place(end);
+        } else if (expression instanceof Binary) {
+            final Binary binary = (Binary) expression;
+            if (binary.operator == Operator.AND || binary.operator == Operator.OR) {
+                // jump early when the left operand decides the result
+                final boolean decisive = binary.operator == Operator.OR;
+                if (decisive == jumpIf) {
+                    branch(binary.left, jumpIf, target);
+                    branch(binary.right, jumpIf, target);
+                } else {
+                    final Label end = new Label();
+                    branch(binary.left, decisive, end);
+                    branch(binary.right, jumpIf, target);
+                    place(end);
+                }
+            } else {
+                compare(binary, jumpIf, target);
+            }
+        } else {
+            throw new IllegalArgumentException(expression.getClass().getName());
+        }
+    }
+
+    /**
+     * Emit a comparison which jumps if its result is <var>jumpIf</var>, the
+     * way javac does, so that comparisons with NaN are false.
+     */
+    private void compare(final Binary comparison, final boolean jumpIf, final Label target) {
+        final Operator operator = jumpIf ? comparison.operator : comparison.operator.negate();
+        final Type type = comparison.left.type;
+        value(comparison.left);
+        value(comparison.right);
+        final int size = type.size;
+        switch (type) {
+            case INT:
+            case BOOLEAN:
+                jump(IF_ICMPEQ + condition(operator), -2, target);
+                return;
+            case LONG:
+                op(LCMP, 1 - 2 * size);
+                break;
+            case FLOAT:
+            case DOUBLE:
+                // NaN compares as greater (cmpg) for < and <=, and as less
+                // (cmpl) otherwise, so that the comparison does not hold
+                final boolean less = comparison.operator == Operator.LT
+                        || comparison.operator == Operator.LE;
+                op(type == Type.FLOAT ? (less ? FCMPG : FCMPL) : (less ? DCMPG : DCMPL),
+                        1 - 2 * size);
+                break;
+            default:
+                throw new IllegalArgumentException(type.name());
+        }
+        jump(IFEQ + condition(operator), -1, target);
+    }
+
+    /**
+     * @return the offset of the jump for a comparison from IFEQ or IF_ICMPEQ
+     */
+    private static int condition(final Operator operator) {
+        switch (operator) {
+            case EQ:
+                return 0;
+            case NE:
+                return 1;
+            case LT:
+                return 2;
+            case GE:
+                return 3;
+            case GT:
+                return 4;
+            case LE:
+                return 5;
+            default:
+                throw new IllegalArgumentException(operator.name());
+        }
+    }
+
+    private static int arithmetic(final Operator operator) {
+        switch (operator) {
+            case ADD:
+                return IADD;
+            case SUB:
+                return ISUB;
+            case MUL:
+                return IMUL;
+            case DIV:
+                return IDIV;
+            case REM:
+                return IREM;
+            default:
+                throw new IllegalArgumentException(operator.name());
+        }
+    }
+
+    /**
+     * @return the offset of the opcode of a typed arithmetic instruction
+     * from the int instruction
+     */
+    private static int typeOffset(final Type type) {
+        return type.ordinal() - Type.INT.ordinal();
+    }
+
+    private static String descriptor(final Method method) {
+        final StringBuilder result = new StringBuilder("(");
+        for (Class<?> parameter : method.getParameterTypes())
+            result.append(descriptor(parameter));
+        return result.append(')').append(descriptor(method.getReturnType())).toString();
+    }
+
+    private static char descriptor(final Class<?> primitive) {
+        if (primitive == int.class)
+            return 'I';
+        if (primitive == long.class)
+            return 'J';
+        if (primitive == float.class)
+            return 'F';
+        if (primitive == double.class)
+            return 'D';
+        if (primitive == boolean.class)
+            return 'Z';
+        throw new IllegalArgumentException(primitive.getName());
+    }
+
+    private void op(final int opcode, final int stackChange) {
+        code.write(opcode);
+        stack += stackChange;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    /**
+     * Emit a load or store of a local variable below 256.
+     */
+    private void local(final int opcode, final int slot, final int stackChange) {
+        op(opcode, stackChange);
+        code.write(slot);
+    }
+
+    private void u2(final int value) {
+        code.write(value >> 8);
+        code.write(value);
+    }
+
+    private void jump(final int opcode, final int stackChange, final Label target) {
+        final int at = code.size();
+        op(opcode, stackChange);
+        u2(0);
+        if (target.position == -1) {
+            target.references.add(at);
+        } else {
+            patch(at, target.position);
+        }
+    }
+
+    /**
+     * Place <var>label</var> at the current position, patching the jumps to
+     * it.
+     */
+    private void place(final Label label) {
+        label.position = code.size();
+        for (int at : label.references)
+            patch(at, label.position);
+    }
+
+    /**
+     * Set the offset of the jump at <var>at</var> to <var>position</var>.
+     */
+    private void patch(final int at, final int position) {
+        final int offset = position - at;
+        jumpTooFar |= offset != (short) offset;
+        code.patch(at + 1, offset);
+    }
+
+    /**
+     * The code of the method being written.
+     */
+    private static final class Code extends ByteArrayOutputStream {
+        /**
+         * Overwrite the u2 at <var>at</var>.
+         */
+        void patch(final int at, final int value) {
+            buf[at] = (byte) (value >> 8);
+            buf[at + 1] = (byte) value;
+        }
+    }
+
+    /**
+     * A position in the code which jumps refer to before it is placed.
+     */
+    private static final class Label {
+        // the positions of the jump instructions to this label, before it is
+        // placed
+        final List<Integer> references = new ArrayList<>();
+
+        // the position of this label, or -1 if it is not placed yet
+        int position = -1;
+    }
+
+    /**
+     * The constant pool of the class file being written.
+     */
+    private static final class ConstantPool {
+        private static final int UTF8 = 1;
+        private static final int INTEGER = 3;
+        private static final int FLOAT = 4;
+        private static final int LONG = 5;
+        private static final int DOUBLE = 6;
+        private static final int CLASS = 7;
+        private static final int METHOD_REF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        // entry description -> index, so that each entry is written once
+        private final Map<String, Integer> indexes = new HashMap<>();
+
+        private int count = 1;
+
+        int utf8(final String value) {
+            Integer index = indexes.get("U" + value);
+            if (index == null) {
+                index = add("U" + value, 1);
+                try {
+                    out.writeByte(UTF8);
+                    out.writeUTF(value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return index;
+        }
+
+        int classRef(final String internalName) {
+            final int name = utf8(internalName);
+            return entry("C" + internalName, CLASS, name, -1);
+        }
+
+        int methodRef(final String owner, final String name, final String descriptor) {
+            final int ownerIndex = classRef(owner);
+            final int nameAndType = entry("N" + name + ' ' + descriptor, NAME_AND_TYPE,
+                    utf8(name), utf8(descriptor));
+            return entry("M" + owner + ' ' + name + ' ' + descriptor, METHOD_REF, ownerIndex,
+                    nameAndType);
+        }
+
+        int integer(final int value) {
+            return number("I" + value, INTEGER, value, 1);
+        }
+
+        int floatValue(final float value) {
+            return number("F" + Float.floatToIntBits(value), FLOAT, Float.floatToIntBits(value),
+                    1);
+        }
+
+        int longValue(final long value) {
+            return number("J" + value, LONG, value, 2);
+        }
+
+        int doubleValue(final double value) {
+            return number("D" + Double.doubleToLongBits(value), DOUBLE,
+                    Double.doubleToLongBits(value), 2);
+        }
+
+        private int number(final String key, final int tag, final long bits, final int slots) {
+            Integer index = indexes.get(key);
+            if (index == null) {
+                index = add(key, slots);
+                try {
+                    out.writeByte(tag);
+                    if (slots == 2)
+                        out.writeLong(bits);
+                    else
+                        out.writeInt((int) bits);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return index;
+        }
+
+        /**
+         * @return the index of an entry of two u2 (or one, if the second is
+         * -1) references
+         */
+        private int entry(final String key, final int tag, final int first, final int second) {
+            Integer index = indexes.get(key);
+            if (index == null) {
+                index = add(key, 1);
+                try {
+                    out.writeByte(tag);
+                    out.writeShort(first);
+                    if (second != -1)
+                        out.writeShort(second);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return index;
+        }
+
+        private int add(final String key, final int slots) {
+            final int index = count;
+            count += slots;
+            indexes.put(key, index);
+            return index;
+        }
+
+        void write(final DataOutputStream classFile) throws IOException {
+            classFile.writeShort(count);
+            classFile.write(bytes.toByteArray());
+        }
+    }
+}
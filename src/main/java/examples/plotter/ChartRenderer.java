@@ -0,0 +1,87 @@
+package examples.plotter;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.xy.DefaultXYDataset;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders line charts of functions into images, reusing one chart, one data
+ * set and the images which are no longer shown. The data set is a
+ * {@link DefaultXYDataset}, which holds the <code>double[]</code> arrays of
+ * the points themselves, so no object is created per point; rendering a new
+ * function replaces the arrays and the title of the chart, and draws it into
+ * a recycled image of the same size if there is one.
+ * <p/>
+ * Thread safety: {@link #render} must be called by one thread at a time, for
+ * example a single renderer thread; {@link #recycle} may be called by any
+ * thread.
+ */
+public final class ChartRenderer {
+    // the key of the only series of the data set
+    private static final String SERIES_KEY = "f(x)";
+
+    private final DefaultXYDataset dataset = new DefaultXYDataset();
+
+    private final JFreeChart chart;
+
+    // an image which is no longer shown, to draw the next chart into
+    private final AtomicReference<BufferedImage> spare = new AtomicReference<>();
+
+    public ChartRenderer() {
+        boolean legend = false;
+        boolean tooltips = false;
+        boolean urls = false;
+        chart = ChartFactory.createXYLineChart( //
+                null, // Title
+                "x", // X-Axis label
+                "f(x)", // Y-Axis label
+                dataset, PlotOrientation.VERTICAL, legend, tooltips, urls);
+    }
+
+    /**
+     * Render a chart of a function.
+     *
+     * @param title  the title of the chart
+     * @param x      the x values of the points, in order
+     * @param y      the y values of the points; the data set keeps both
+     *               arrays until the next rendering, so they must not be
+     *               changed meanwhile
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @return the image, which is a recycled one if one of the right size is
+     * available; pass it to {@link #recycle} once it is no longer shown
+     */
+    public BufferedImage render(String title, double[] x, double[] y, int width, int height) {
+        // one change event for both changes
+        chart.setNotify(false);
+        chart.setTitle(title);
+        dataset.addSeries(SERIES_KEY, new double[][]{x, y});
+        chart.setNotify(true);
+
+        BufferedImage image = spare.getAndSet(null);
+        if (image == null || image.getWidth() != width || image.getHeight() != height)
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g2 = image.createGraphics();
+        try {
+            // the chart paints its background over the whole image
+            chart.draw(g2, new Rectangle2D.Double(0, 0, width, height), null, null);
+        } finally {
+            g2.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Offer an image returned by {@link #render} for reuse, once it is no
+     * longer shown.
+     */
+    public void recycle(BufferedImage image) {
+        spare.set(image);
+    }
+}
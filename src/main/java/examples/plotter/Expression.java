@@ -0,0 +1,252 @@
+package examples.plotter;
+
+import java.lang.reflect.Method;
+
+/**
+ * A typed syntax tree of a {@link Function} expression, as built by
+ * {@link ExpressionParser}. Types follow the Java rules, and every implicit
+ * conversion (numeric promotion, widening of method arguments and of the
+ * result to double) is an explicit {@link Convert} node, so a node's operands
+ * always have the types its operation expects.
+ */
+abstract class Expression {
+    /**
+     * The types an expression may have.
+     */
+    enum Type {
+        // numeric types in the order of widening primitive conversion
+        INT(int.class, 1), LONG(long.class, 2), FLOAT(float.class, 1), DOUBLE(double.class, 2),
+        BOOLEAN(boolean.class, 1);
+
+        final Class<?> javaType;
+
+        // the number of operand stack slots of a value
+        final int size;
+
+        Type(final Class<?> javaType, final int size) {
+            this.javaType = javaType;
+            this.size = size;
+        }
+
+        boolean isNumeric() {
+            return this != BOOLEAN;
+        }
+
+        /**
+         * @return whether a value of this type may be passed where
+         * <var>type</var> is expected, without a cast
+         */
+        boolean widensTo(final Type type) {
+            return this == type || isNumeric() && type.isNumeric() && ordinal() < type.ordinal();
+        }
+
+        /**
+         * @return the type of a Java primitive class, or null if it has none
+         */
+        static Type of(final Class<?> javaType) {
+            for (Type type : values()) {
+                if (type.javaType == javaType)
+                    return type;
+            }
+            return null;
+        }
+
+        /**
+         * @return the type of binary numeric promotion of two numeric types
+         */
+        static Type promote(final Type a, final Type b) {
+            return a.ordinal() >= b.ordinal() ? a : b;
+        }
+    }
+
+    /**
+     * The operators of unary and binary expressions.
+     */
+    enum Operator {
+        ADD("+"), SUB("-"), MUL("*"), DIV("/"), REM("%"), NEG("-"),
+        LT("<"), LE("<="), GT(">"), GE(">="), EQ("=="), NE("!="),
+        AND("&&"), OR("||"), NOT("!");
+
+        final String symbol;
+
+        Operator(final String symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean isComparison() {
+            return compareTo(LT) >= 0 && compareTo(NE) <= 0;
+        }
+
+        /**
+         * @return the comparison which holds exactly when this one does not,
+         * for operands which are not NaN
+         */
+        Operator negate() {
+            switch (this) {
+                case LT:
+                    return GE;
+                case LE:
+                    return GT;
+                case GT:
+                    return LE;
+                case GE:
+                    return LT;
+                case EQ:
+                    return NE;
+                case NE:
+                    return EQ;
+                default:
+                    throw new IllegalStateException(name());
+            }
+        }
+    }
+
+    final Type type;
+
+    // the number of nodes on the longest path from this one to a leaf
+    final int depth;
+
+    Expression(final Type type, final Expression... operands) {
+        this.type = type;
+        int max = 0;
+        for (Expression operand : operands)
+            max = Math.max(max, operand.depth);
+        depth = max + 1;
+    }
+
+    /**
+     * A literal: an Integer, Long, Float, Double or Boolean.
+     */
+    static final class Literal extends Expression {
+        final Object value;
+
+        Literal(final Type type, final Object value) {
+            super(type);
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * The argument, <code>double x</code>.
+     */
+    static final class Variable extends Expression {
+        Variable() {
+            super(Type.DOUBLE);
+        }
+
+        @Override
+        public String toString() {
+            return "x";
+        }
+    }
+
+    /**
+     * {@link Operator#NEG} of a number, or {@link Operator#NOT} of a boolean.
+     */
+    static final class Unary extends Expression {
+        final Operator operator;
+        final Expression operand;
+
+        Unary(final Operator operator, final Expression operand) {
+            super(operand.type, operand);
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Override
+        public String toString() {
+            return operator.symbol + operand;
+        }
+    }
+
+    /**
+     * An arithmetic operation, whose operands have its type; a comparison,
+     * whose operands have the same type; or a conditional and or or.
+     */
+    static final class Binary extends Expression {
+        final Operator operator;
+        final Expression left;
+        final Expression right;
+
+        Binary(final Type type, final Operator operator, final Expression left,
+               final Expression right) {
+            super(type, left, right);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " " + operator.symbol + " " + right + ")";
+        }
+    }
+
+    /**
+     * <code>test ? ifTrue : ifFalse</code>, where both branches have the
+     * type of the expression.
+     */
+    static final class Conditional extends Expression {
+        final Expression test;
+        final Expression ifTrue;
+        final Expression ifFalse;
+
+        Conditional(final Expression test, final Expression ifTrue, final Expression ifFalse) {
+            super(ifTrue.type, test, ifTrue, ifFalse);
+            this.test = test;
+            this.ifTrue = ifTrue;
+            this.ifFalse = ifFalse;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + test + " ? " + ifTrue + " : " + ifFalse + ")";
+        }
+    }
+
+    /**
+     * A call of a static {@link Math} method, whose arguments have the
+     * method's parameter types.
+     */
+    static final class Call extends Expression {
+        final Method method;
+        final Expression[] arguments;
+
+        Call(final Method method, final Expression[] arguments) {
+            super(Type.of(method.getReturnType()), arguments);
+            this.method = method;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder result = new StringBuilder(method.getName()).append('(');
+            for (int i = 0; i < arguments.length; i++)
+                result.append(i == 0 ? "" : ", ").append(arguments[i]);
+            return result.append(')').toString();
+        }
+    }
+
+    /**
+     * A primitive conversion of a numeric operand to the expression's type,
+     * either written as a cast or implied.
+     */
+    static final class Convert extends Expression {
+        final Expression operand;
+
+        Convert(final Type type, final Expression operand) {
+            super(type, operand);
+            this.operand = operand;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + type.javaType + ") " + operand;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package examples.plotter;
+
+import java.lang.reflect.InvocationTargetException;
+
+import examples.plotter.Expression.Binary;
+import examples.plotter.Expression.Call;
+import examples.plotter.Expression.Conditional;
+import examples.plotter.Expression.Convert;
+import examples.plotter.Expression.Literal;
+import examples.plotter.Expression.Type;
+import examples.plotter.Expression.Unary;
+import examples.plotter.Expression.Variable;
+
+/**
+ * A {@link Function} which evaluates an {@link Expression} tree directly,
+ * without generating a class. It is available as soon as the expression is
+ * parsed, but each evaluation walks the tree, so it is much slower than a
+ * compiled function.
+ * <p/>
+ * Each node is evaluated with Java operators of its own type, so the results
+ * are identical to those of the compiled expression, down to integer
+ * overflow, division by zero and NaN comparisons.
+ * <p/>
+ * Thread safety: this class is immutable.
+ */
+final class ExpressionInterpreter implements Function {
+    private final Expression expression;
+
+    /**
+     * @param expression an expression of type double, as returned by
+     *                   {@link ExpressionParser#parse(String)}
+     */
+    ExpressionInterpreter(final Expression expression) {
+        if (expression.type != Type.DOUBLE)
+            throw new IllegalArgumentException("expression must have type double");
+        this.expression = expression;
+    }
+
+    @Override
+    public double f(final double x) {
+        return doubleValue(expression, x);
+    }
+
+    /**
+     * @return the boxed value of an expression which does not use x
+     */
+    static Object value(final Expression e) {
+        switch (e.type) {
+            case INT:
+                return intValue(e, 0);
+            case LONG:
+                return longValue(e, 0);
+            case FLOAT:
+                return floatValue(e, 0);
+            case DOUBLE:
+                return doubleValue(e, 0);
+            default:
+                return booleanValue(e, 0);
+        }
+    }
+
+    private static double doubleValue(final Expression e, final double x) {
+        if (e instanceof Variable)
+            return x;
+        if (e instanceof Literal)
+            return (Double) ((Literal) e).value;
+        if (e instanceof Convert) {
+            final Expression operand = ((Convert) e).operand;
+            switch (operand.type) {
+                case INT:
+                    return intValue(operand, x);
+                case LONG:
+                    return longValue(operand, x);
+                case FLOAT:
+                    return floatValue(operand, x);
+                default:
+                    return doubleValue(operand, x);
+            }
+        }
+        if (e instanceof Unary)
+            return -doubleValue(((Unary) e).operand, x);
+        if (e instanceof Binary) {
+            final Binary b = (Binary) e;
+            final double left = doubleValue(b.left, x);
+            final double right = doubleValue(b.right, x);
+            switch (b.operator) {
+                case ADD:
+                    return left + right;
+                case SUB:
+                    return left - right;
+                case MUL:
+                    return left * right;
+                case DIV:
+                    return left / right;
+                default:
+                    return left % right;
+            }
+        }
+        if (e instanceof Conditional) {
+            final Conditional c = (Conditional) e;
+            return booleanValue(c.test, x) ? doubleValue(c.ifTrue, x) : doubleValue(c.ifFalse, x);
+        }
+        return ((Number) call((Call) e, x)).doubleValue();
+    }
+
+    private static float floatValue(final Expression e, final double x) {
+        if (e instanceof Literal)
+            return (Float) ((Literal) e).value;
+        if (e instanceof Convert) {
+            final Expression operand = ((Convert) e).operand;
+            switch (operand.type) {
+                case INT:
+                    return intValue(operand, x);
+                case LONG:
+                    return longValue(operand, x);
+                case FLOAT:
+                    return floatValue(operand, x);
+                default:
+                    return (float) doubleValue(operand, x);
+            }
+        }
+        if (e instanceof Unary)
+            return -floatValue(((Unary) e).operand, x);
+        if (e instanceof Binary) {
+            final Binary b = (Binary) e;
+            final float left = floatValue(b.left, x);
+            final float right = floatValue(b.right, x);
+            switch (b.operator) {
+                case ADD:
+                    return left + right;
+                case SUB:
+                    return left - right;
+                case MUL:
+                    return left * right;
+                case DIV:
+                    return left / right;
+                default:
+                    return left % right;
+            }
+        }
+        if (e instanceof Conditional) {
+            final Conditional c = (Conditional) e;
+            return booleanValue(c.test, x) ? floatValue(c.ifTrue, x) : floatValue(c.ifFalse, x);
+        }
+        return ((Number) call((Call) e, x)).floatValue();
+    }
+
+    private static long longValue(final Expression e, final double x) {
+        if (e instanceof Literal)
+            return (Long) ((Literal) e).value;
+        if (e instanceof Convert) {
+            final Expression operand = ((Convert) e).operand;
+            switch (operand.type) {
+                case INT:
+                    return intValue(operand, x);
+                case LONG:
+                    return longValue(operand, x);
+                case FLOAT:
+                    return (long) floatValue(operand, x);
+                default:
+                    return (long) doubleValue(operand, x);
+            }
+        }
+        if (e instanceof Unary)
+            return -longValue(((Unary) e).operand, x);
+        if (e instanceof Binary) {
+            final Binary b = (Binary) e;
+            final long left = longValue(b.left, x);
+            final long right = longValue(b.right, x);
+            switch (b.operator) {
+                case ADD:
+                    return left + right;
+                case SUB:
+                    return left - right;
+                case MUL:
+                    return left * right;
+                case DIV:
+                    return left / right;
+                default:
+                    return left % right;
+            }
+        }
+        if (e instanceof Conditional) {
+            final Conditional c = (Conditional) e;
+            return booleanValue(c.test, x) ? longValue(c.ifTrue, x) : longValue(c.ifFalse, x);
+        }
+        return ((Number) call((Call) e, x)).longValue();
+    }
+
+    private static int intValue(final Expression e, final double x) {
+        if (e instanceof Literal)
+            return (Integer) ((Literal) e).value;
+        if (e instanceof Convert) {
+            final Expression operand = ((Convert) e).operand;
+            switch (operand.type) {
+                case INT:
+                    return intValue(operand, x);
+                case LONG:
+                    return (int) longValue(operand, x);
+                case FLOAT:
+                    return (int) floatValue(operand, x);
+                default:
+                    return (int) doubleValue(operand, x);
+            }
+        }
+        if (e instanceof Unary)
+            return -intValue(((Unary) e).operand, x);
+        if (e instanceof Binary) {
+            final Binary b = (Binary) e;
+            final int left = intValue(b.left, x);
+            final int right = intValue(b.right, x);
+            switch (b.operator) {
+                case ADD:
+                    return left + right;
+                case SUB:
+                    return left - right;
+                case MUL:
+                    return left * right;
+                case DIV:
+                    return left / right;
+                default:
+                    return left % right;
+            }
+        }
+        if (e instanceof Conditional) {
+            final Conditional c = (Conditional) e;
+            return booleanValue(c.test, x) ? intValue(c.ifTrue, x) : intValue(c.ifFalse, x);
+        }
+        return ((Number) call((Call) e, x)).intValue();
+    }
+
+    private static boolean booleanValue(final Expression e, final double x) {
+        if (e instanceof Literal)
+            return (Boolean) ((Literal) e).value;
+        if (e instanceof Unary)
+            return !booleanValue(((Unary) e).operand, x);
+        if (e instanceof Conditional) {
+            final Conditional c = (Conditional) e;
+            return booleanValue(c.test, x) ? booleanValue(c.ifTrue, x)
+                    : booleanValue(c.ifFalse, x);
+        }
+        final Binary b = (Binary) e;
+        switch (b.operator) {
+            case AND:
+                return booleanValue(b.left, x) && booleanValue(b.right, x);
+            case OR:
+                return booleanValue(b.left, x) || booleanValue(b.right, x);
+            default:
+                return compare(b, x);
+        }
+    }
+
+    private static boolean compare(final Binary b, final double x) {
+        switch (b.left.type) {
+            case BOOLEAN: {
+                final boolean left = booleanValue(b.left, x);
+                final boolean right = booleanValue(b.right, x);
+                return b.operator == Expression.Operator.EQ ? left == right : left != right;
+            }
+            case INT: {
+                final int left = intValue(b.left, x);
+                final int right = intValue(b.right, x);
+                switch (b.operator) {
+                    case LT:
+                        return left < right;
+                    case LE:
+                        return left <= right;
+                    case GT:
+                        return left > right;
+                    case GE:
+                        return left >= right;
+                    case EQ:
+                        return left == right;
+                    default:
+                        return left != right;
+                }
+            }
+            case LONG: {
+                final long left = longValue(b.left, x);
+                final long right = longValue(b.right, x);
+                switch (b.operator) {
+                    case LT:
+                        return left < right;
+                    case LE:
+                        return left <= right;
+                    case GT:
+                        return left > right;
+                    case GE:
+                        return left >= right;
+                    case EQ:
+                        return left == right;
+                    default:
+                        return left != right;
+                }
+            }
+            case FLOAT: {
+                final float left = floatValue(b.left, x);
+                final float right = floatValue(b.right, x);
+                switch (b.operator) {
+                    case LT:
+                        return left < right;
+                    case LE:
+                        return left <= right;
+                    case GT:
+                        return left > right;
+                    case GE:
+                        return left >= right;
+                    case EQ:
+                        return left == right;
+                    default:
+                        return left != right;
+                }
+            }
+            default: {
+                final double left = doubleValue(b.left, x);
+                final double right = doubleValue(b.right, x);
+                switch (b.operator) {
+                    case LT:
+                        return left < right;
+                    case LE:
+                        return left <= right;
+                    case GT:
+                        return left > right;
+                    case GE:
+                        return left >= right;
+                    case EQ:
+                        return left == right;
+                    default:
+                        return left != right;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the boxed result of a Math method call
+     */
+    private static Object call(final Call call, final double x) {
+        final Object[] arguments = new Object[call.arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            final Expression argument = call.arguments[i];
+            switch (argument.type) {
+                case INT:
+                    arguments[i] = intValue(argument, x);
+                    break;
+                case LONG:
+                    arguments[i] = longValue(argument, x);
+                    break;
+                case FLOAT:
+                    arguments[i] = floatValue(argument, x);
+                    break;
+                default:
+                    arguments[i] = doubleValue(argument, x);
+                    break;
+            }
+        }
+        try {
+            return call.method.invoke(null, arguments);
+        } catch (InvocationTargetException e) {
+            // for example, ArithmeticException from Math.addExact
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "f(x)=" + expression;
+    }
+}
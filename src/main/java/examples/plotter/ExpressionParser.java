@@ -0,0 +1,594 @@
+package examples.plotter;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import examples.plotter.Expression.Binary;
+import examples.plotter.Expression.Call;
+import examples.plotter.Expression.Conditional;
+import examples.plotter.Expression.Convert;
+import examples.plotter.Expression.Literal;
+import examples.plotter.Expression.Operator;
+import examples.plotter.Expression.Type;
+import examples.plotter.Expression.Unary;
+import examples.plotter.Expression.Variable;
+
+/**
+ * Parse the <code>$expression</code> of <code>Function.java.template</code>
+ * into a typed {@link Expression}, for the common subset of Java which such
+ * expressions use:
+ * <ul>
+ * <li>int, long, float and double literals in decimal, and true and false;
+ * <li>the argument x, and the constants PI and E;
+ * <li>calls of static {@link Math} methods, qualified by <code>Math.</code>
+ * or not, with the overload javac would choose;
+ * <li>the arithmetic operators <code>+ - * / %</code>, the comparisons,
+ * <code>&amp;&amp; || !</code>, <code>? :</code> and casts to primitive
+ * types.
+ * </ul>
+ * Anything else, including expressions which javac would reject, raises an
+ * {@link UnsupportedException}, and the caller should compile the
+ * template with javac instead. Within the subset, the tree has the same types
+ * and conversions as javac's, and its constant expressions are folded into
+ * literals as javac folds them, so evaluating it gives identical results.
+ * That includes the sign of zero, and the bits of a constant NaN, which the
+ * class file holds in canonical form. The sign of a NaN computed at run time
+ * is not specified by Java, and may differ between two runs of the same
+ * code.
+ * <p/>
+ * Thread safety: an instance parses one expression; the static
+ * {@link #parse(String)} is thread safe.
+ */
+final class ExpressionParser {
+    /**
+     * Thrown when an expression is outside the supported subset of Java.
+     */
+    static final class UnsupportedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedException(final String message) {
+            super(message);
+        }
+    }
+
+    // the Java operators of more than one character, which javac reads as
+    // one token when a shorter operator is a prefix
+    private static final String[] LONG_OPERATORS = {">>>=", "<<=", ">>=", ">>>", "...", "->",
+            "::", "++", "--", "&&", "||", "==", "!=", "<=", ">=", "+=", "-=", "*=", "/=", "&=",
+            "|=", "^=", "%=", "<<", ">>"};
+
+    // the deepest nesting of the source, and of the tree, which is
+    // translated; the parser, fold and the code which walks the tree recurse
+    // that deep, and javac handles anything deeper
+    static final int MAX_DEPTH = 256;
+
+    private final String text;
+
+    // the position of the next token
+    private int pos;
+
+    // the number of expression() and unary() calls in progress
+    private int nesting;
+
+    private ExpressionParser(final String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parse an expression and convert it to double, as the template's return
+     * statement does.
+     *
+     * @throws UnsupportedException if the expression is outside the subset,
+     *                              or nested deeper than {@link #MAX_DEPTH}
+     */
+    static Expression parse(final String text) throws UnsupportedException {
+        final ExpressionParser parser = new ExpressionParser(text);
+        final Expression expression = convert(parser.expression(), Type.DOUBLE);
+        parser.skipSpace();
+        if (parser.pos != text.length())
+            throw parser.unsupported("unexpected text");
+        // a long chain of operators is as deep as it is long
+        if (expression.depth > MAX_DEPTH)
+            throw new UnsupportedException("expression too deep");
+        return fold(expression);
+    }
+
+    /**
+     * Replace the constant expressions in <var>e</var>, those of literals,
+     * PI and E, operators and casts (JLS 15.29), by literals of their
+     * values.
+     */
+    private static Expression fold(final Expression e) {
+        if (e instanceof Unary) {
+            final Unary u = (Unary) e;
+            final Expression operand = fold(u.operand);
+            return constant(new Unary(u.operator, operand), operand);
+        }
+        if (e instanceof Binary) {
+            final Binary b = (Binary) e;
+            final Expression left = fold(b.left);
+            final Expression right = fold(b.right);
+            final Binary folded = new Binary(b.type, b.operator, left, right);
+            // javac does not fold an integer division by zero, which throws
+            // at run time
+            if ((b.operator == Operator.DIV || b.operator == Operator.REM)
+                    && (b.type == Type.INT || b.type == Type.LONG) && right instanceof Literal
+                    && ((Number) ((Literal) right).value).longValue() == 0)
+                return folded;
+            return constant(folded, left, right);
+        }
+        if (e instanceof Conditional) {
+            final Conditional c = (Conditional) e;
+            final Expression test = fold(c.test);
+            final Expression ifTrue = fold(c.ifTrue);
+            final Expression ifFalse = fold(c.ifFalse);
+            return constant(new Conditional(test, ifTrue, ifFalse), test, ifTrue, ifFalse);
+        }
+        if (e instanceof Convert) {
+            final Convert c = (Convert) e;
+            final Expression operand = fold(c.operand);
+            return constant(new Convert(c.type, operand), operand);
+        }
+        if (e instanceof Call) {
+            // method calls are never constant, but their arguments may be
+            final Call c = (Call) e;
+            final Expression[] arguments = new Expression[c.arguments.length];
+            for (int i = 0; i < arguments.length; i++)
+                arguments[i] = fold(c.arguments[i]);
+            return new Call(c.method, arguments);
+        }
+        return e;
+    }
+
+    /**
+     * @return a literal of the value of <var>e</var> if its
+     * <var>operands</var> are literals, else <var>e</var>
+     */
+    private static Expression constant(final Expression e, final Expression... operands) {
+        for (Expression operand : operands) {
+            if (!(operand instanceof Literal))
+                return e;
+        }
+        Object value = ExpressionInterpreter.value(e);
+        // the class file holds the canonical NaN, whatever the arithmetic
+        // gave
+        if (value instanceof Double && ((Double) value).isNaN())
+            value = Double.NaN;
+        else if (value instanceof Float && ((Float) value).isNaN())
+            value = Float.NaN;
+        return new Literal(e.type, value);
+    }
+
+    private Expression expression() throws UnsupportedException {
+        enter();
+        final Expression expression = conditional();
+        nesting--;
+        return expression;
+    }
+
+    // conditional := or ('?' expression ':' expression)?
+    private Expression conditional() throws UnsupportedException {
+        final Expression test = or();
+        if (!accept("?"))
+            return test;
+        final Expression ifTrue = expression();
+        expect(":");
+        final Expression ifFalse = expression();
+        requireType(test, Type.BOOLEAN);
+        if (ifTrue.type == Type.BOOLEAN && ifFalse.type == Type.BOOLEAN)
+            return new Conditional(test, ifTrue, ifFalse);
+        if (!ifTrue.type.isNumeric() || !ifFalse.type.isNumeric())
+            throw unsupported("incompatible types in ?:");
+        final Type type = Type.promote(ifTrue.type, ifFalse.type);
+        return new Conditional(test, convert(ifTrue, type), convert(ifFalse, type));
+    }
+
+    // or := and ('||' and)*
+    private Expression or() throws UnsupportedException {
+        Expression left = and();
+        while (accept("||"))
+            left = logical(Operator.OR, left, and());
+        return left;
+    }
+
+    // and := equality ('&&' equality)*
+    private Expression and() throws UnsupportedException {
+        Expression left = equality();
+        while (accept("&&"))
+            left = logical(Operator.AND, left, equality());
+        return left;
+    }
+
+    // equality := relational (('==' | '!=') relational)*
+    private Expression equality() throws UnsupportedException {
+        Expression left = relational();
+        while (true) {
+            if (accept("=="))
+                left = comparison(Operator.EQ, left, relational());
+            else if (accept("!="))
+                left = comparison(Operator.NE, left, relational());
+            else
+                return left;
+        }
+    }
+
+    // relational := additive (('<' | '<=' | '>' | '>=') additive)*
+    private Expression relational() throws UnsupportedException {
+        Expression left = additive();
+        while (true) {
+            if (accept("<="))
+                left = comparison(Operator.LE, left, additive());
+            else if (accept(">="))
+                left = comparison(Operator.GE, left, additive());
+            else if (accept("<"))
+                left = comparison(Operator.LT, left, additive());
+            else if (accept(">"))
+                left = comparison(Operator.GT, left, additive());
+            else
+                return left;
+        }
+    }
+
+    // additive := multiplicative (('+' | '-') multiplicative)*
+    private Expression additive() throws UnsupportedException {
+        Expression left = multiplicative();
+        while (true) {
+            if (accept("+"))
+                left = arithmetic(Operator.ADD, left, multiplicative());
+            else if (accept("-"))
+                left = arithmetic(Operator.SUB, left, multiplicative());
+            else
+                return left;
+        }
+    }
+
+    // multiplicative := unary (('*' | '/' | '%') unary)*
+    private Expression multiplicative() throws UnsupportedException {
+        Expression left = unary();
+        while (true) {
+            if (accept("*"))
+                left = arithmetic(Operator.MUL, left, unary());
+            else if (accept("/"))
+                left = arithmetic(Operator.DIV, left, unary());
+            else if (accept("%"))
+                left = arithmetic(Operator.REM, left, unary());
+            else
+                return left;
+        }
+    }
+
+    private Expression unary() throws UnsupportedException {
+        enter();
+        final Expression expression = prefixed();
+        nesting--;
+        return expression;
+    }
+
+    // unary := ('+' | '-' | '!') unary | '(' primitive ')' unary | primary
+    private Expression prefixed() throws UnsupportedException {
+        if (accept("+")) {
+            final Expression operand = unary();
+            requireNumeric(operand);
+            return operand;
+        }
+        if (accept("-")) {
+            final Expression operand = unary();
+            requireNumeric(operand);
+            return new Unary(Operator.NEG, operand);
+        }
+        if (accept("!")) {
+            final Expression operand = unary();
+            requireType(operand, Type.BOOLEAN);
+            return new Unary(Operator.NOT, operand);
+        }
+        final int start = pos;
+        if (accept("(")) {
+            final Type type = primitiveType(identifier());
+            if (type != null && accept(")")) {
+                final Expression operand = unary();
+                if (type == Type.BOOLEAN ? operand.type != Type.BOOLEAN
+                        : !operand.type.isNumeric())
+                    throw unsupported("invalid cast");
+                return type == operand.type ? operand : new Convert(type, operand);
+            }
+            pos = start;
+        }
+        return primary();
+    }
+
+    // primary := number | 'true' | 'false' | 'x' | 'PI' | 'E'
+    //          | ('Math' '.')? identifier '(' arguments ')' | '(' expression ')'
+    private Expression primary() throws UnsupportedException {
+        if (accept("(")) {
+            final Expression expression = expression();
+            expect(")");
+            return expression;
+        }
+        skipSpace();
+        if (pos < text.length() && (Character.isDigit(text.charAt(pos))
+                || text.charAt(pos) == '.'))
+            return number();
+        String name = identifier();
+        if (name == null)
+            throw unsupported("expression expected");
+        if (name.equals("Math")) {
+            expect(".");
+            name = identifier();
+            if (name == null)
+                throw unsupported("member of Math expected");
+        } else if (name.equals("x")) {
+            return new Variable();
+        } else if (name.equals("true") || name.equals("false")) {
+            return new Literal(Type.BOOLEAN, Boolean.valueOf(name));
+        }
+        if (!accept("(")) {
+            // the constant fields of Math, which javac inlines
+            if (name.equals("PI"))
+                return new Literal(Type.DOUBLE, Math.PI);
+            if (name.equals("E"))
+                return new Literal(Type.DOUBLE, Math.E);
+            throw unsupported("unknown name " + name);
+        }
+        final List<Expression> arguments = new ArrayList<>();
+        if (!accept(")")) {
+            do {
+                arguments.add(expression());
+            } while (accept(","));
+            expect(")");
+        }
+        return call(name, arguments);
+    }
+
+    /**
+     * @return a call of the Math method which javac would choose: the most
+     * specific of those applicable by widening primitive conversion
+     */
+    private Expression call(final String name, final List<Expression> arguments)
+            throws UnsupportedException {
+        final List<Method> applicable = new ArrayList<>();
+        for (Method method : Math.class.getMethods()) {
+            if (method.getName().equals(name) && isApplicable(method, arguments))
+                applicable.add(method);
+        }
+        Method chosen = null;
+        for (Method method : applicable) {
+            boolean mostSpecific = true;
+            for (Method other : applicable)
+                mostSpecific &= isMoreSpecific(method, other);
+            if (mostSpecific)
+                chosen = method;
+        }
+        if (chosen == null)
+            throw unsupported("no unique method Math." + name);
+        final Class<?>[] parameters = chosen.getParameterTypes();
+        final Expression[] converted = new Expression[parameters.length];
+        for (int i = 0; i < parameters.length; i++)
+            converted[i] = convert(arguments.get(i), Type.of(parameters[i]));
+        return new Call(chosen, converted);
+    }
+
+    private static boolean isApplicable(final Method method, final List<Expression> arguments) {
+        if (!Modifier.isStatic(method.getModifiers()) || method.isVarArgs()
+                || Type.of(method.getReturnType()) == null)
+            return false;
+        final Class<?>[] parameters = method.getParameterTypes();
+        if (parameters.length != arguments.size())
+            return false;
+        for (int i = 0; i < parameters.length; i++) {
+            final Type parameter = Type.of(parameters[i]);
+            if (parameter == null || !arguments.get(i).type.widensTo(parameter))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isMoreSpecific(final Method m1, final Method m2) {
+        final Class<?>[] p1 = m1.getParameterTypes();
+        final Class<?>[] p2 = m2.getParameterTypes();
+        for (int i = 0; i < p1.length; i++) {
+            if (!Type.of(p1[i]).widensTo(Type.of(p2[i])))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse a decimal literal the way javac does, rejecting the forms it
+     * would reject or read differently (octal, hex, underscores).
+     */
+    private Expression number() throws UnsupportedException {
+        final int start = pos;
+        while (pos < text.length() && Character.isDigit(text.charAt(pos)))
+            pos++;
+        boolean floating = false;
+        if (pos < text.length() && text.charAt(pos) == '.') {
+            floating = true;
+            pos++;
+            while (pos < text.length() && Character.isDigit(text.charAt(pos)))
+                pos++;
+        }
+        if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+            floating = true;
+            pos++;
+            if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-'))
+                pos++;
+            final int digits = pos;
+            while (pos < text.length() && Character.isDigit(text.charAt(pos)))
+                pos++;
+            if (pos == digits)
+                throw unsupported("malformed number");
+        }
+        final String digits = text.substring(start, pos);
+        if (digits.equals("."))
+            throw unsupported("malformed number");
+        final char suffix = pos < text.length() ? Character.toLowerCase(text.charAt(pos)) : 0;
+        if (suffix == 'l' || suffix == 'f' || suffix == 'd')
+            pos++;
+        if (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos)))
+            throw unsupported("malformed number");
+        try {
+            if (suffix == 'f') {
+                final float value = Float.parseFloat(digits);
+                checkRange(digits, Float.isInfinite(value), value == 0);
+                return new Literal(Type.FLOAT, value);
+            }
+            if (floating || suffix == 'd') {
+                final double value = Double.parseDouble(digits);
+                checkRange(digits, Double.isInfinite(value), value == 0);
+                return new Literal(Type.DOUBLE, value);
+            }
+            if (digits.length() > 1 && digits.charAt(0) == '0')
+                throw unsupported("octal literal");
+            if (suffix == 'l')
+                return new Literal(Type.LONG, Long.parseLong(digits));
+            // 2147483648 is only allowed after a minus sign; leave it to javac
+            return new Literal(Type.INT, Integer.parseInt(digits));
+        } catch (NumberFormatException e) {
+            throw unsupported("number out of range");
+        }
+    }
+
+    /**
+     * Reject floating point literals which javac reports as too large or too
+     * small.
+     */
+    private void checkRange(final String digits, final boolean infinite, final boolean zero)
+            throws UnsupportedException {
+        if (infinite)
+            throw unsupported("number too large");
+        if (zero) {
+            final int exponent = digits.toLowerCase().indexOf('e');
+            final String mantissa = exponent == -1 ? digits : digits.substring(0, exponent);
+            for (int i = 0; i < mantissa.length(); i++) {
+                if (mantissa.charAt(i) >= '1' && mantissa.charAt(i) <= '9')
+                    throw unsupported("number too small");
+            }
+        }
+    }
+
+    private Expression arithmetic(final Operator operator, final Expression left,
+                                  final Expression right) throws UnsupportedException {
+        requireNumeric(left);
+        requireNumeric(right);
+        final Type type = Type.promote(left.type, right.type);
+        return new Binary(type, operator, convert(left, type), convert(right, type));
+    }
+
+    private Expression comparison(final Operator operator, final Expression left,
+                                  final Expression right) throws UnsupportedException {
+        if (left.type == Type.BOOLEAN && right.type == Type.BOOLEAN
+                && (operator == Operator.EQ || operator == Operator.NE))
+            return new Binary(Type.BOOLEAN, operator, left, right);
+        requireNumeric(left);
+        requireNumeric(right);
+        final Type type = Type.promote(left.type, right.type);
+        return new Binary(Type.BOOLEAN, operator, convert(left, type), convert(right, type));
+    }
+
+    private Expression logical(final Operator operator, final Expression left,
+                               final Expression right) throws UnsupportedException {
+        requireType(left, Type.BOOLEAN);
+        requireType(right, Type.BOOLEAN);
+        return new Binary(Type.BOOLEAN, operator, left, right);
+    }
+
+    /**
+     * @return <var>expression</var> widened to <var>type</var>
+     */
+    private static Expression convert(final Expression expression, final Type type)
+            throws UnsupportedException {
+        if (expression.type == type)
+            return expression;
+        if (!expression.type.widensTo(type))
+            throw new UnsupportedException(expression.type + " is not convertible to " + type);
+        return new Convert(type, expression);
+    }
+
+    private void requireNumeric(final Expression expression) throws UnsupportedException {
+        if (!expression.type.isNumeric())
+            throw unsupported("numeric operand expected");
+    }
+
+    private void requireType(final Expression expression, final Type type)
+            throws UnsupportedException {
+        if (expression.type != type)
+            throw unsupported(type + " operand expected");
+    }
+
+    private static Type primitiveType(final String name) {
+        if (name == null)
+            return null;
+        switch (name) {
+            case "int":
+                return Type.INT;
+            case "long":
+                return Type.LONG;
+            case "float":
+                return Type.FLOAT;
+            case "double":
+                return Type.DOUBLE;
+            case "boolean":
+                return Type.BOOLEAN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the next token if it is a Java identifier, else null
+     */
+    private String identifier() throws UnsupportedException {
+        skipSpace();
+        if (pos == text.length() || !Character.isJavaIdentifierStart(text.charAt(pos)))
+            return null;
+        final int start = pos;
+        while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos)))
+            pos++;
+        return text.substring(start, pos);
+    }
+
+    /**
+     * Consume the operator or punctuation <var>token</var> if it is next. An
+     * operator which is the prefix of a longer one (like <code>&lt;</code> of
+     * <code>&lt;=</code> or <code>&lt;&lt;</code>) is not matched.
+     */
+    private boolean accept(final String token) throws UnsupportedException {
+        skipSpace();
+        if (!text.startsWith(token, pos))
+            return false;
+        for (String operator : LONG_OPERATORS) {
+            if (operator.length() > token.length() && text.startsWith(operator, pos))
+                return false;
+        }
+        pos += token.length();
+        return true;
+    }
+
+    private void expect(final String token) throws UnsupportedException {
+        if (!accept(token))
+            throw unsupported("'" + token + "' expected");
+    }
+
+    private void skipSpace() throws UnsupportedException {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+            pos++;
+        // comments are rare in expressions; leave them to javac
+        if (text.startsWith("//", pos) || text.startsWith("/*", pos))
+            throw unsupported("comment");
+    }
+
+    /**
+     * Count a recursive call of the parser. There is no need to count it off
+     * when the parse fails, which is the end of it.
+     */
+    private void enter() throws UnsupportedException {
+        if (++nesting > MAX_DEPTH)
+            throw unsupported("expression too deeply nested");
+    }
+
+    private UnsupportedException unsupported(final String message) {
+        return new UnsupportedException(message + " at " + pos);
+    }
+}
@@ -18,4 +18,30 @@ public interface Function {
      * @return the result of a mathematical function f(x)
      */
     double f(double x);
+
+    /**
+     * Compute {@code y[yOffset + i] = f(x[xOffset + i])} for each i from 0 to
+     * <var>length</var> - 1, in that order. Generated functions implement this
+     * with a loop of their own, into which the JIT compiler can inline the
+     * expression; this saves a call per point where the call site of
+     * {@link #f(double)} is polymorphic.
+     * <p/>
+     * <var>y</var> may be <var>x</var>, and the two ranges may overlap as
+     * long as <var>yOffset</var> is not greater than <var>xOffset</var>: each
+     * input is then read before a result overwrites it. If the ranges overlap
+     * and <var>yOffset</var> is greater, the results are unspecified.
+     *
+     * @param x       the input values
+     * @param xOffset the index of the first input value
+     * @param y       receives the results; may be <var>x</var>, as above
+     * @param yOffset the index of the first result
+     * @param length  the number of values
+     * @throws IndexOutOfBoundsException if a range is outside its array; the
+     *                                   results before the bad index may
+     *                                   have been stored
+     */
+    default void evaluate(double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++)
+            y[yOffset + i] = f(x[xOffset + i]);
+    }
 }
@@ -0,0 +1,133 @@
+package examples.plotter;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import javaxtools.compiler.CharSequenceCompiler;
+import javaxtools.compiler.CharSequenceCompilerException;
+
+/**
+ * Compile the expression of a {@link Function}, <code>f(x)=expression</code>.
+ * <p/>
+ * Expressions within the subset of Java which {@link ExpressionParser}
+ * understands (arithmetic, comparisons, <code>?:</code> and {@link Math}
+ * calls) are translated directly to byte code, in well under a millisecond.
+ * Other expressions, including invalid ones, are filled into
+ * Function.java.template and compiled with a {@link CharSequenceCompiler},
+ * which reports the diagnostics. Both ways give a function with identical
+ * results, apart from the sign of NaN results, which Java leaves open.
+ * <p/>
+ * Each directly translated function is defined in a class loader of its own,
+ * so it can be unloaded as soon as it is no longer used.
+ * <p/>
+ * Thread safety: this class is thread safe.
+ */
+public final class FunctionCompiler {
+    // package name; a random number is appended
+    private static final String PACKAGE_NAME = "examples.plotter.runtime";
+
+    // for secure package name
+    private static final Random random = new Random();
+
+    private final CharSequenceCompiler<Function> compiler;
+
+    // for unique class names
+    private final AtomicLong classNameSuffix = new AtomicLong();
+
+    private volatile boolean directEmit = true;
+
+    /**
+     * @param compiler the compiler of the expressions which are not translated
+     *                 directly
+     */
+    public FunctionCompiler(CharSequenceCompiler<Function> compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Set whether expressions are translated directly to byte code when
+     * possible. This is the default; turn it off to compile every expression
+     * with javac, for example to compare the results.
+     *
+     * @param directEmit true to translate directly when possible
+     */
+    public void setDirectEmit(boolean directEmit) {
+        this.directEmit = directEmit;
+    }
+
+    /**
+     * @return whether expressions are translated directly when possible
+     */
+    public boolean isDirectEmit() {
+        return directEmit;
+    }
+
+    /**
+     * @return the compiler of the expressions which are not translated directly
+     */
+    public CharSequenceCompiler<Function> getCompiler() {
+        return compiler;
+    }
+
+    /**
+     * Compile an expression into a Function.
+     *
+     * @param expression  a Java expression of type double in x, in which the
+     *                    members of {@link Math} may be used unqualified
+     * @param diagnostics receives the diagnostics of javac, if it is run; may
+     *                    be null
+     * @return a new Function which computes the expression
+     * @throws CharSequenceCompilerException if the expression does not compile
+     * @throws ReflectiveOperationException  if the function cannot be
+     *                                       instantiated
+     * @throws IOException                   if the source template cannot be
+     *                                       read
+     */
+    public Function compile(String expression, DiagnosticCollector<JavaFileObject> diagnostics)
+            throws CharSequenceCompilerException, ReflectiveOperationException, IOException {
+        // generate semi-secure unique package and class names
+        final String packageName = PACKAGE_NAME + digits();
+        final String className = "Fx_" + classNameSuffix.getAndIncrement() + digits();
+        final String qName = packageName + '.' + className;
+        if (directEmit) {
+            try {
+                final byte[] classFile = BytecodeEmitter.emit(qName,
+                        ExpressionParser.parse(expression));
+                return new FunctionLoader().define(qName, classFile).getConstructor()
+                        .newInstance();
+            } catch (ExpressionParser.UnsupportedException e) {
+                // outside the subset; javac knows best
+            }
+        }
+        // generate the source class as String
+        final String source = FunctionTemplate.fill(packageName, className, expression);
+        // compile the generated Java source
+        final Class<Function> compiledFunction = compiler.compile(qName, source, diagnostics,
+                Function.class);
+        return compiledFunction.getConstructor().newInstance();
+    }
+
+    /**
+     * @return random hex digits with a '_' prefix
+     */
+    private static String digits() {
+        return '_' + Long.toHexString(random.nextLong());
+    }
+
+    /**
+     * The class loader of one directly translated function.
+     */
+    private static final class FunctionLoader extends ClassLoader {
+        FunctionLoader() {
+            super(Function.class.getClassLoader());
+        }
+
+        Class<? extends Function> define(final String name, final byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length).asSubclass(Function.class);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package examples.plotter;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import javaxtools.compiler.CharSequenceCompiler;
+import javaxtools.compiler.CharSequenceCompilerException;
+
+/**
+ * Compile many expressions into few classes. Each expression becomes a pair
+ * of static methods of a host class, <code>f$i(x)</code> and a loop
+ * <code>e$i(...)</code> for {@link Function#evaluate}, and each
+ * {@link Function} is an instance of the host class which holds the index of
+ * its expression and dispatches to its methods with a switch. Up to
+ * {@link #MAX_FUNCTIONS_PER_CLASS} expressions share a class, and all the
+ * host classes of a call are compiled in one
+ * {@link CharSequenceCompiler#compile(Map, DiagnosticCollector)} call.
+ * <p/>
+ * Compared with a class per expression, as {@link FunctionCompiler} compiles
+ * them, this saves javac's cost per class, a constant pool and the
+ * class metadata per expression, and the definition of a class.
+ * The price is the switch of each call of {@link Function#f(double)}, which
+ * is also too large to be inlined into its callers; {@link Function#evaluate}
+ * switches once per call, and its loops inline the expression as those of
+ * Function.java.template do.
+ * <p/>
+ * An expression which does not compile is located by the line of its error,
+ * and the others are compiled again without it.
+ * <p/>
+ * Thread safety: this class is thread safe.
+ */
+public final class FunctionPacker {
+    /**
+     * The most expressions in one class. It keeps the dispatching methods
+     * below the size the JIT compiler refuses to compile.
+     */
+    public static final int MAX_FUNCTIONS_PER_CLASS = 256;
+
+    // package name; a random number is appended
+    private static final String PACKAGE_NAME = "examples.plotter.packed";
+
+    // for secure package name
+    private static final Random random = new Random();
+
+    // the lines of the source before the first expression's methods, and of
+    // the methods of each expression; see source()
+    private static final int HEADER_LINES = 5;
+    private static final int LINES_PER_FUNCTION = 8;
+    // the line of the expression among those of its methods
+    private static final int EXPRESSION_LINE = 1;
+
+    private final CharSequenceCompiler<Function> compiler;
+
+    // for unique class names
+    private final AtomicLong classNameSuffix = new AtomicLong();
+
+    /**
+     * @param compiler the compiler of the host classes
+     */
+    public FunctionPacker(CharSequenceCompiler<Function> compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Compile expressions into functions.
+     *
+     * @param expressions Java expressions of type double in x, in which the
+     *                    members of {@link Math} may be used unqualified; line
+     *                    breaks in them are read as spaces
+     * @param errors      receives, by the index of the expression, the first
+     *                    error of each expression which does not compile; may
+     *                    be null
+     * @return the functions, in the order of the <var>expressions</var>; null
+     * for those which do not compile
+     * @throws CharSequenceCompilerException if an error cannot be traced to an
+     *                                       expression
+     * @throws ReflectiveOperationException  if the functions cannot be
+     *                                       instantiated
+     */
+    public List<Function> pack(List<String> expressions,
+                               Map<Integer, Diagnostic<? extends JavaFileObject>> errors)
+            throws CharSequenceCompilerException, ReflectiveOperationException {
+        final Function[] functions = new Function[expressions.size()];
+        // the indexes of the expressions still to compile
+        final List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < expressions.size(); i++)
+            pending.add(i);
+        while (!pending.isEmpty()) {
+            final String packageName = PACKAGE_NAME + digits();
+            // the host classes, and the indexes of the expressions of each by
+            // simple class name
+            final Map<String, CharSequence> sources = new HashMap<>();
+            final Map<String, List<Integer>> hosts = new HashMap<>();
+            for (int from = 0; from < pending.size(); from += MAX_FUNCTIONS_PER_CLASS) {
+                final List<Integer> indexes = new ArrayList<>(pending.subList(from,
+                        Math.min(from + MAX_FUNCTIONS_PER_CLASS, pending.size())));
+                final String className = "Fx_" + classNameSuffix.getAndIncrement() + digits();
+                sources.put(packageName + '.' + className, source(packageName, className,
+                        expressions, indexes));
+                hosts.put(className, indexes);
+            }
+            final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            final Map<String, Class<Function>> classes;
+            try {
+                classes = compiler.compile(sources, diagnostics);
+            } catch (CharSequenceCompilerException e) {
+                // drop the expressions with errors, and compile the others
+                // again
+                final List<Integer> failed = failed(hosts, diagnostics, errors);
+                if (failed.isEmpty())
+                    throw e;
+                pending.removeAll(failed);
+                continue;
+            }
+            for (Map.Entry<String, List<Integer>> host : hosts.entrySet()) {
+                final Constructor<Function> constructor = classes.get(packageName + '.'
+                        + host.getKey()).getConstructor(int.class);
+                final List<Integer> indexes = host.getValue();
+                for (int i = 0; i < indexes.size(); i++)
+                    functions[indexes.get(i)] = constructor.newInstance(i);
+            }
+            break;
+        }
+        return Arrays.asList(functions);
+    }
+
+    /**
+     * Find the expressions which have errors. An error which leaves an
+     * expression, for example a missing parenthesis, may cause errors further
+     * down, so only the errors in the lines of the expressions themselves are
+     * counted, unless there are none.
+     *
+     * @param hosts  the indexes of the expressions of each host class, by
+     *               simple class name
+     * @param errors receives the first error of each; may be null
+     * @return the indexes of the expressions
+     */
+    private static List<Integer> failed(final Map<String, List<Integer>> hosts,
+                                        final DiagnosticCollector<JavaFileObject> diagnostics,
+                                        final Map<Integer, Diagnostic<? extends JavaFileObject>> errors) {
+        final Map<Integer, Diagnostic<? extends JavaFileObject>> inExpressions = new LinkedHashMap<>();
+        final Map<Integer, Diagnostic<? extends JavaFileObject>> inMethods = new LinkedHashMap<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() != Diagnostic.Kind.ERROR || diagnostic.getSource() == null)
+                continue;
+            final String fileName = diagnostic.getSource().getName();
+            final List<Integer> indexes = hosts.get(fileName.substring(
+                    fileName.lastIndexOf('/') + 1, fileName.length() - ".java".length()));
+            final long offset = diagnostic.getLineNumber() - HEADER_LINES - 1;
+            if (indexes == null || offset < 0 || offset >= (long) indexes.size() * LINES_PER_FUNCTION)
+                continue;
+            final Integer index = indexes.get((int) (offset / LINES_PER_FUNCTION));
+            inMethods.putIfAbsent(index, diagnostic);
+            if (offset % LINES_PER_FUNCTION == EXPRESSION_LINE)
+                inExpressions.putIfAbsent(index, diagnostic);
+        }
+        final Map<Integer, Diagnostic<? extends JavaFileObject>> failed = inExpressions.isEmpty()
+                ? inMethods : inExpressions;
+        if (errors != null)
+            errors.putAll(failed);
+        return new ArrayList<>(failed.keySet());
+    }
+
+    /**
+     * Generate the source of a host class. The expressions' methods come
+     * first, each taking {@link #LINES_PER_FUNCTION} lines, so that the line
+     * of an error gives its expression.
+     */
+    private static String source(final String packageName, final String className,
+                                 final List<String> expressions, final List<Integer> indexes) {
+        final StringBuilder source = new StringBuilder();
+        // HEADER_LINES lines
+        source.append("package ").append(packageName).append(";\n")
+                .append("import static java.lang.Math.*;\n")
+                .append('\n')
+                .append("public final class ").append(className)
+                .append(" implements examples.plotter.Function {\n")
+                .append('\n');
+        // LINES_PER_FUNCTION lines each
+        for (int i = 0; i < indexes.size(); i++) {
+            final String expression = expressions.get(indexes.get(i)).replace('\n', ' ')
+                    .replace('\r', ' ');
+            source.append("   static double f$").append(i).append("(double x) {\n")
+                    .append("      return (").append(expression).append(") ;\n")
+                    .append("   }\n")
+                    .append("   static void e$").append(i)
+                    .append("(double[] xs, int xOffset, double[] ys, int yOffset, int length) {\n")
+                    .append("      for (int i = 0; i < length; i++)\n")
+                    .append("         ys[yOffset + i] = f$").append(i).append("(xs[xOffset + i]);\n")
+                    .append("   }\n")
+                    .append('\n');
+        }
+        source.append("   private final int index;\n")
+                .append("   public ").append(className).append("(int index) {\n")
+                .append("      this.index = index;\n")
+                .append("   }\n")
+                .append("   public double f(double x) {\n")
+                .append("      switch (index) {\n");
+        for (int i = 0; i < indexes.size(); i++)
+            source.append("         case ").append(i).append(": return f$").append(i).append("(x);\n");
+        source.append("         default: throw new IllegalStateException();\n")
+                .append("      }\n")
+                .append("   }\n")
+                .append("   public void evaluate(double[] xs, int xOffset, double[] ys, int yOffset, int length) {\n")
+                .append("      switch (index) {\n");
+        for (int i = 0; i < indexes.size(); i++) {
+            source.append("         case ").append(i).append(": e$").append(i)
+                    .append("(xs, xOffset, ys, yOffset, length); return;\n");
+        }
+        source.append("         default: throw new IllegalStateException();\n")
+                .append("      }\n")
+                .append("   }\n")
+                .append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * @return random hex digits with a '_' prefix
+     */
+    private static String digits() {
+        return '_' + Long.toHexString(random.nextLong());
+    }
+}
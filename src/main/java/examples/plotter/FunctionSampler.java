@@ -0,0 +1,255 @@
+package examples.plotter;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Samples a {@link Function} at evenly spaced points of a range, in parallel.
+ * The points are divided into chunks of <var>chunkSize</var> points, which the
+ * tasks of a {@link ForkJoinPool} evaluate with
+ * {@link Function#evaluate(double[], int, double[], int, int)} and pass to a
+ * {@link ChunkConsumer} as soon as each is done. The tasks split the chunks
+ * in halves recursively, so idle workers steal large ranges of work, and the
+ * sampling scales with the number of workers as long as the function does
+ * not synchronize.
+ * <p/>
+ * No array of all the points is ever allocated, so ranges of many millions of
+ * points may be sampled in little memory, as long as the consumer keeps only
+ * what it needs of each chunk.
+ * <p/>
+ * Thread safety: this class is thread safe; the function and the consumer
+ * are called by several threads at once.
+ */
+public final class FunctionSampler {
+    /**
+     * The default number of points of a chunk: enough that the cost of a
+     * task is negligible, few enough that a range of a million points keeps
+     * every core busy.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 14;
+
+    /**
+     * Receives the points of a sampling, one chunk at a time.
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        /**
+         * Accept a chunk of points. Chunks are passed in the order in which
+         * they are done, which is not the order of x, and by several threads
+         * at once.
+         *
+         * @param index  the index of the first point of the chunk in the
+         *               sampling
+         * @param x      the x values of the chunk; the consumer may keep the
+         *               array
+         * @param y      the corresponding values of the function; the consumer
+         *               may keep the array
+         * @param length the number of points, which is the length of the
+         *               arrays
+         */
+        void accept(long index, double[] x, double[] y, int length);
+    }
+
+    private final ForkJoinPool pool;
+
+    private final int chunkSize;
+
+    /**
+     * Create a sampler which runs in the common pool, with chunks of
+     * {@link #DEFAULT_CHUNK_SIZE} points.
+     */
+    public FunctionSampler() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param pool      runs the sampling tasks
+     * @param chunkSize the number of points of a chunk
+     * @throws IllegalArgumentException if <var>chunkSize</var> is not positive
+     */
+    public FunctionSampler(ForkJoinPool pool, int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the number of points of a chunk
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Start sampling a function at <var>points</var> evenly spaced points from
+     * <var>from</var> to <var>to</var>, both included. The i-th point is
+     * <code>x = from + i * (to - from) / (points - 1)</code>, so the chunks do
+     * not accumulate rounding errors.
+     *
+     * @param function the function to sample
+     * @param from     the first x
+     * @param to       the last x; may be less than <var>from</var>
+     * @param points   the number of points
+     * @param consumer receives the chunks
+     * @return the sampling, which is done when every chunk has been consumed;
+     * it completes exceptionally with the first exception thrown by the
+     * function or the consumer, after which no more chunks are started
+     * @throws IllegalArgumentException if <var>points</var> is less than 2, or
+     *                                  a bound is not finite
+     */
+    public Sampling sample(Function function, double from, double to, long points,
+                           ChunkConsumer consumer) {
+        if (points < 2)
+            throw new IllegalArgumentException("points must be at least 2: " + points);
+        if (Double.isNaN(from - to) || Double.isInfinite(from - to))
+            throw new IllegalArgumentException("bounds must be finite: " + from + ", " + to);
+        final Sampling sampling = new Sampling(function, from, to, points, consumer);
+        sampling.task = new ChunkTask(sampling, 0, (points - 1) / chunkSize + 1);
+        pool.execute(sampling.task);
+        return sampling;
+    }
+
+    /**
+     * Sample a function as {@link #sample} does, and wait until it is done.
+     *
+     * @throws CancellationException if the sampling is cancelled
+     * @throws RuntimeException      the first exception thrown by the function
+     *                               or the consumer
+     */
+    public void sampleAndWait(Function function, double from, double to, long points,
+                              ChunkConsumer consumer) {
+        sample(function, from, to, points, consumer).join();
+    }
+
+    /**
+     * A sampling in progress. Cancelling it stops the chunks which have not
+     * started; those being evaluated are still passed to the consumer.
+     */
+    public final class Sampling implements Future<Void> {
+        private final Function function;
+
+        private final double from;
+
+        private final double to;
+
+        private final long points;
+
+        private final ChunkConsumer consumer;
+
+        // the root task; set before it is started
+        private ChunkTask task;
+
+        // checked by each chunk before it starts
+        private volatile boolean stopped;
+
+        Sampling(final Function function, final double from, final double to, final long points,
+                 final ChunkConsumer consumer) {
+            this.function = function;
+            this.from = from;
+            this.to = to;
+            this.points = points;
+            this.consumer = consumer;
+        }
+
+        /**
+         * @return the number of points of the sampling
+         */
+        public long getPoints() {
+            return points;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            stopped = true;
+            return task.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            return task.get();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            return task.get(timeout, unit);
+        }
+
+        /**
+         * Wait until the sampling is done.
+         *
+         * @throws CancellationException if the sampling has been cancelled
+         * @throws RuntimeException      the first exception thrown by the
+         *                               function or the consumer
+         */
+        public void join() {
+            task.join();
+        }
+
+        double x(final long index) {
+            return index == points - 1 ? to : from + index * (to - from) / (points - 1);
+        }
+    }
+
+    /**
+     * Samples the chunks from <var>first</var> to <var>end</var> - 1.
+     */
+    private final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Sampling sampling;
+
+        private final long first;
+
+        private final long end;
+
+        ChunkTask(final Sampling sampling, final long first, final long end) {
+            this.sampling = sampling;
+            this.first = first;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - first > 1) {
+                final long middle = (first + end) >>> 1;
+                ForkJoinTask.invokeAll(new ChunkTask(sampling, first, middle),
+                        new ChunkTask(sampling, middle, end));
+                return;
+            }
+            if (sampling.stopped)
+                return;
+            final long index = first * chunkSize;
+            final int length = (int) Math.min(chunkSize, sampling.points - index);
+            final double[] x = new double[length];
+            for (int i = 0; i < length; i++)
+                x[i] = sampling.x(index + i);
+            final double[] y = new double[length];
+            try {
+                sampling.function.evaluate(x, 0, y, 0, length);
+                sampling.consumer.accept(index, x, y, length);
+            } catch (RuntimeException | Error e) {
+                // no point in sampling the rest
+                sampling.stopped = true;
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package examples.plotter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The Java source template of a {@link Function}, Function.java.template,
+ * with <code>$packageName</code>, <code>$className</code> and
+ * <code>$expression</code> placeholders.
+ * <p/>
+ * Thread safety: this class is thread safe.
+ */
+final class FunctionTemplate {
+    // the template text; read on first use
+    private static volatile String template;
+
+    private FunctionTemplate() {
+    }
+
+    /**
+     * Return the Plotter function Java source, substituting the given package
+     * name, class name, and double expression
+     *
+     * @param packageName a valid Java package name
+     * @param className   a valid Java class name
+     * @param expression  text for a double expression, using double x
+     * @return source for the new class implementing Function interface using the
+     * expression
+     * @throws IOException if the template cannot be read
+     */
+    static String fill(String packageName, String className, String expression)
+            throws IOException {
+        String text = template;
+        if (text == null)
+            template = text = read();
+        // simplest "template processor":
+        return text.replace("$packageName", packageName)//
+                .replace("$className", className)//
+                .replace("$expression", expression);
+    }
+
+    /**
+     * Read the Function source template
+     *
+     * @return a source template
+     * @throws IOException if the template is missing
+     */
+    private static String read() throws IOException {
+        try (InputStream is = FunctionTemplate.class.getResourceAsStream("Function.java.template")) {
+            if (is == null) {
+                throw new IOException("template not found!");
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            for (int n; (n = is.read(buffer)) != -1; )
+                bytes.write(buffer, 0, n);
+            return new String(bytes.toByteArray(), UTF_8);
+        }
+    }
+}
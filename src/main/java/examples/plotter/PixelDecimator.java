@@ -0,0 +1,210 @@
+package examples.plotter;
+
+import java.util.Arrays;
+
+/**
+ * Reduces samples of a function to at most four points per pixel column of a
+ * plot: the first, the last, the lowest and the highest point of each column.
+ * A line through the reduced points covers the same pixels as a line through
+ * all of them, so the plot looks the same, but the cost of drawing it
+ * depends only on the width of the plot, however many points were sampled.
+ * <p/>
+ * Points may be added in any order, so a decimator can be the consumer of a
+ * {@link FunctionSampler}; the points of a column are kept in the order of x.
+ * Points outside the range of x are ignored.
+ * <p/>
+ * A point whose y is not finite is a gap in the function. The reduced points
+ * keep it as a point whose y is NaN, which a line chart does not join
+ * across, so a line through them does not bridge the gap. The gaps of a
+ * column are kept as the range from the first to the last of them: if finite
+ * points lie between two gaps of one column, they are not joined to each
+ * other either.
+ * <p/>
+ * Thread safety: this class is thread safe.
+ */
+public final class PixelDecimator implements FunctionSampler.ChunkConsumer {
+    private final double from;
+
+    private final double to;
+
+    private final int width;
+
+    // the number of points added to each column
+    private final long[] counts;
+
+    // the first, last, lowest and highest point of each column
+    private final double[] firstX, firstY, lastX, lastY, minX, minY, maxX, maxY;
+
+    // the number of points of each column whose y is not finite
+    private final long[] gapCounts;
+
+    // the first and the last x of those points
+    private final double[] gapFrom, gapTo;
+
+    /**
+     * @param from  the x at the left edge of the plot
+     * @param to    the x at the right edge of the plot
+     * @param width the width of the plot, in pixels
+     * @throws IllegalArgumentException if <var>width</var> is not positive,
+     *                                  or the range is empty or not finite
+     */
+    public PixelDecimator(double from, double to, int width) {
+        if (width <= 0)
+            throw new IllegalArgumentException("width must be positive: " + width);
+        if (!(from < to) || Double.isInfinite(to - from))
+            throw new IllegalArgumentException("bad range: " + from + ", " + to);
+        this.from = from;
+        this.to = to;
+        this.width = width;
+        counts = new long[width];
+        firstX = new double[width];
+        firstY = new double[width];
+        lastX = new double[width];
+        lastY = new double[width];
+        minX = new double[width];
+        minY = new double[width];
+        maxX = new double[width];
+        maxY = new double[width];
+        gapCounts = new long[width];
+        gapFrom = new double[width];
+        gapTo = new double[width];
+    }
+
+    /**
+     * Reduce a data set to at most four points per pixel column.
+     *
+     * @param x     the x values, in any order
+     * @param y     the corresponding y values
+     * @param from  the x at the left edge of the plot
+     * @param to    the x at the right edge of the plot
+     * @param width the width of the plot, in pixels
+     * @return the x values and the y values of the reduced points, in the
+     * order of x
+     */
+    public static double[][] decimate(double[] x, double[] y, double from, double to, int width) {
+        final PixelDecimator decimator = new PixelDecimator(from, to, width);
+        decimator.add(x, y, 0, x.length);
+        return decimator.toArrays();
+    }
+
+    @Override
+    public void accept(long index, double[] x, double[] y, int length) {
+        add(x, y, 0, length);
+    }
+
+    /**
+     * Add the points <code>(x[offset + i], y[offset + i])</code> for each i
+     * from 0 to <var>length</var> - 1.
+     */
+    public synchronized void add(double[] x, double[] y, int offset, int length) {
+        final double scale = width / (to - from);
+        for (int i = offset; i < offset + length; i++) {
+            final double px = x[i];
+            final double py = y[i];
+            if (!(px >= from && px <= to))
+                continue;
+            final int column = Math.min((int) ((px - from) * scale), width - 1);
+            if (Double.isNaN(py) || Double.isInfinite(py)) {
+                if (gapCounts[column]++ == 0) {
+                    gapFrom[column] = gapTo[column] = px;
+                } else {
+                    gapFrom[column] = Math.min(gapFrom[column], px);
+                    gapTo[column] = Math.max(gapTo[column], px);
+                }
+                continue;
+            }
+            if (counts[column]++ == 0) {
+                firstX[column] = lastX[column] = minX[column] = maxX[column] = px;
+                firstY[column] = lastY[column] = minY[column] = maxY[column] = py;
+                continue;
+            }
+            if (px < firstX[column]) {
+                firstX[column] = px;
+                firstY[column] = py;
+            }
+            if (px > lastX[column]) {
+                lastX[column] = px;
+                lastY[column] = py;
+            }
+            if (py < minY[column]) {
+                minX[column] = px;
+                minY[column] = py;
+            }
+            if (py > maxY[column]) {
+                maxX[column] = px;
+                maxY[column] = py;
+            }
+        }
+    }
+
+    /**
+     * @return the x values and the y values of the reduced points, in the
+     * order of x; a y of NaN marks a gap
+     */
+    public synchronized double[][] toArrays() {
+        // four points per column, and a gap before, between and after them
+        final double[] xs = new double[9 * width];
+        final double[] ys = new double[9 * width];
+        final double[] columnX = new double[4];
+        final double[] columnY = new double[4];
+        int n = 0;
+        for (int column = 0; column < width; column++) {
+            final boolean gaps = gapCounts[column] != 0;
+            if (counts[column] == 0) {
+                if (gaps)
+                    n = addGap(xs, ys, n, gapFrom[column]);
+                continue;
+            }
+            columnX[0] = firstX[column];
+            columnY[0] = firstY[column];
+            columnX[1] = minX[column];
+            columnY[1] = minY[column];
+            columnX[2] = maxX[column];
+            columnY[2] = maxY[column];
+            columnX[3] = lastX[column];
+            columnY[3] = lastY[column];
+            // the first point comes first and the last one last; order the
+            // lowest and the highest, and drop duplicates
+            if (columnX[2] < columnX[1]) {
+                swap(columnX, 1, 2);
+                swap(columnY, 1, 2);
+            }
+            double previousX = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < 4; i++) {
+                if (n > 0 && xs[n - 1] == columnX[i] && ys[n - 1] == columnY[i])
+                    continue;
+                // break the line if the gaps may lie between this point and
+                // the previous one of the column
+                if (gaps && gapFrom[column] < columnX[i] && gapTo[column] > previousX)
+                    n = addGap(xs, ys, n, Math.max(gapFrom[column], previousX));
+                xs[n] = columnX[i];
+                ys[n] = columnY[i];
+                previousX = columnX[i];
+                n++;
+            }
+            if (gaps && gapTo[column] > previousX)
+                n = addGap(xs, ys, n, gapTo[column]);
+        }
+        return new double[][]{Arrays.copyOf(xs, n), Arrays.copyOf(ys, n)};
+    }
+
+    /**
+     * Add a gap at <var>x</var> after the first <var>n</var> points, unless
+     * the last of them is a gap already.
+     *
+     * @return the new number of points
+     */
+    private static int addGap(final double[] xs, final double[] ys, final int n, final double x) {
+        if (n > 0 && Double.isNaN(ys[n - 1]))
+            return n;
+        xs[n] = x;
+        ys[n] = Double.NaN;
+        return n + 1;
+    }
+
+    private static void swap(final double[] values, final int i, final int j) {
+        final double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -4,33 +4,29 @@
 
 package examples.plotter;
 
-import org.jfree.chart.ChartFactory;
-import org.jfree.chart.JFreeChart;
-import org.jfree.chart.plot.PlotOrientation;
-import org.jfree.data.xy.XYDataset;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
-
 import java.awt.*;
 import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.tools.Diagnostic;
 import javax.tools.DiagnosticCollector;
 import javax.tools.JavaFileObject;
 
 import javaxtools.compiler.CharSequenceCompiler;
 import javaxtools.compiler.CharSequenceCompilerException;
+import javaxtools.compiler.CompiledClassCache;
+import javaxtools.compiler.Validator;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static javax.swing.SpringLayout.EAST;
 import static javax.swing.SpringLayout.NORTH;
 import static javax.swing.SpringLayout.SOUTH;
@@ -46,7 +42,8 @@ import static javax.swing.SpringLayout.WEST;
  * builds a new Java class which implements the Function interface, then
  * compiles that class, loads the class, and creates an instance which is then
  * used to generate a plot. Compiler diagnostics are recorded in a scrollable
- * text area below the plot.
+ * text area below the plot; while the formula is typed, it is validated
+ * without being compiled, and its errors are shown there as well.
  *
  * @author <a href="mailto:David.Biesack@sas.com">David J. Biesack</a>
  */
@@ -55,8 +52,17 @@ final public class PlotterPanel extends JPanel {
     private static final long serialVersionUID = 1L;
     // a default, interesting function
     private static final String DEFAULT_FUNCTION = "x * (sin(x) + cos(x))";
+    // the class name the expression is validated under
+    private static final String VALIDATION_PACKAGE = "examples.plotter.runtime";
+    private static final String VALIDATION_CLASS = "Validated";
+    // the range of x which is plotted
+    private static final double X_FROM = -10.0;
+    private static final double X_TO = 10.0;
     // GUI inter-gadget padding, in pixels
     private static final int PAD = 5;
+    // how long to wait for the end of a burst of resize events before
+    // plotting again, in milliseconds
+    private static final int RESIZE_DELAY = 100;
     // Create a CharSequenceCompiler instance which is used to compile
     // expressions into Java classes which are then used to create the XY plots.
     // The -target 1.5 options are simply an example of how to pass javac
@@ -64,14 +70,54 @@ final public class PlotterPanel extends JPanel {
     // options (the generated source in this example is Java 1.5 compatible.)
     private final CharSequenceCompiler<Function> compiler = new CharSequenceCompiler<>(
             getClass().getClassLoader(), new ArrayList<>());
-    // for unique class names
-    private int classNameSuffix = 0;
-    // package name; a random number is appended
-    private static final String PACKAGE_NAME = "examples.plotter.runtime";
-    // for secure package name
-    private static final Random random = new Random();
-    // the Java source template
-    private String template;
+    // Remember recently compiled functions, so that re-plotting an expression,
+    // for example when the panel is resized, does not run the compiler again.
+    private static final int FUNCTION_CACHE_SIZE = 64;
+    // Translates simple expressions straight to byte code, and the others
+    // with the compiler.
+    private final FunctionCompiler functionCompiler = new FunctionCompiler(compiler);
+    // Parses or compiles new expressions away from the event dispatch thread.
+    private final ExecutorService compileExecutor = newDaemonExecutor("PlotterPanel-compiler",
+            Thread.NORM_PRIORITY);
+    // Compiles the functions which have been plotted a few times. It has a
+    // thread of its own, so that it never delays a new expression, and a low
+    // priority, as the function is interpreted meanwhile.
+    private final ExecutorService tierUpExecutor = newDaemonExecutor("PlotterPanel-tier-up",
+            Thread.MIN_PRIORITY);
+    // Samples functions and renders the charts into images.
+    private final ExecutorService renderExecutor = newDaemonExecutor("PlotterPanel-renderer",
+            Thread.NORM_PRIORITY);
+    // Checks the expression as it is typed; each keystroke cancels the
+    // check of the previous text.
+    private final Validator validator = new Validator(compiler,
+            newDaemonExecutor("PlotterPanel-validator", Thread.NORM_PRIORITY));
+    // Interprets a new function at once, and compiles it on a background
+    // thread once it has been plotted a few times.
+    private final TieredFunctionProvider functions = new TieredFunctionProvider(functionCompiler,
+            tierUpExecutor, TieredFunctionProvider.DEFAULT_THRESHOLD);
+    // Samples functions more densely where they bend.
+    private final AdaptiveSampler sampler = new AdaptiveSampler();
+    // Draws the charts, reusing the chart and the images; used on the
+    // renderer thread.
+    private final ChartRenderer chartRenderer = new ChartRenderer();
+
+    // The following are accessed on the event dispatch thread only.
+    // the expression of the latest compilation, and its function once the
+    // compilation is done
+    private String source;
+    private Function function;
+    // the latest compilation and rendering, which are cancelled if they are
+    // superseded before they start
+    private Future<?> compiling;
+    private Future<?> rendering;
+    // plots once a burst of resize events is over
+    private final Timer resizeTimer = new Timer(RESIZE_DELAY, action -> generateAndPlotFunction());
+
+    // Incremented for each compilation and each rendering, so that one which
+    // has been superseded while it runs drops its result. Written on the
+    // event dispatch thread only.
+    private volatile long compileGeneration;
+    private volatile long renderGeneration;
 
     // GUI drawing panel
     private final PlotPanel plotPanel = new PlotPanel();
@@ -89,6 +135,12 @@ final public class PlotterPanel extends JPanel {
      * and attatches event handlers.
      */
     public PlotterPanel() {
+        // each function is independent of the others, so let the classes of
+        // functions which are no longer plotted (or cached) be unloaded
+        compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.ISOLATED);
+        compiler.setCache(new CompiledClassCache(FUNCTION_CACHE_SIZE));
+        // load javac while the window is being shown, not on the first plot
+        compiler.warmUp();
         Container c = this;
         SpringLayout layout = new SpringLayout();
         c.setLayout(layout);
@@ -98,14 +150,31 @@ final public class PlotterPanel extends JPanel {
         c.add(plotFunctionText);
         c.add(plotButton);
         ActionListener plot = action -> generateAndPlotFunction();
+        resizeTimer.setRepeats(false);
         addComponentListener(new ComponentAdapter() {
             @Override
             public void componentResized(ComponentEvent evt) {
-                generateAndPlotFunction();
+                resizeTimer.restart();
             }
         });
         plotButton.addActionListener(plot);
         plotFunctionText.addActionListener(plot);
+        plotFunctionText.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent evt) {
+                validateFunctionText();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent evt) {
+                validateFunctionText();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent evt) {
+                // attributes only
+            }
+        });
         JScrollPane scrollPane = new JScrollPane();
         scrollPane.setViewportView(errors);
         add(plotPanel);
@@ -131,34 +200,136 @@ final public class PlotterPanel extends JPanel {
     }
 
     /**
-     * Generate Java source from the user function, then create a graph using
-     * JFreeChart
+     * Plot the function in the text field. If the expression has changed, it
+     * is compiled first, in the background; otherwise the function is just
+     * rendered again, for example at a new size. Must be called on the event
+     * dispatch thread.
      */
     void generateAndPlotFunction() {
-        final String source = plotFunctionText.getText();
-        // The compiled function which runs f(x)
-        Function function = newFunction(source);
-        final XYSeries series = new XYSeries(source);
-        for (int i = -100; i <= 100; i++) {
-            double x = i / 10.0;
-            series.add(x, function.f(x));
+        final String text = plotFunctionText.getText();
+        if (text.equals(source)) {
+            // the function is ready, or is rendered as soon as it is
+            if (function != null)
+                render();
+            return;
+        }
+        source = text;
+        function = null;
+        final long generation = ++compileGeneration;
+        if (compiling != null)
+            compiling.cancel(false);
+        compiling = compileExecutor.submit(() -> {
+            if (generation != compileGeneration)
+                return;
+            final StringBuilder messages = new StringBuilder();
+            final Function compiled = newFunction(text, messages);
+            SwingUtilities.invokeLater(() -> {
+                if (generation != compileGeneration)
+                    return;
+                errors.setText(messages.toString());
+                function = compiled;
+                render();
+            });
+        });
+    }
+
+    /**
+     * Check the expression in the text field as it is typed, and show its
+     * errors, if any, once the check is done, unless the text has changed
+     * meanwhile. Expressions which are translated directly are valid as they
+     * are parsed; the others are only parsed and attributed by javac, which
+     * defines no class. Must be called on the event dispatch thread.
+     */
+    private void validateFunctionText() {
+        final String text = plotFunctionText.getText();
+        try {
+            ExpressionParser.parse(text);
+            validator.cancel();
+            errors.setText("");
+            return;
+        } catch (ExpressionParser.UnsupportedException e) {
+            // outside the subset; javac knows best
         }
-        final XYDataset xyDataset = new XYSeriesCollection(series);
+        final String source;
+        try {
+            source = FunctionTemplate.fill(VALIDATION_PACKAGE, VALIDATION_CLASS, text);
+        } catch (IOException e) {
+            // reported when the function is plotted
+            return;
+        }
+        validator.validate(VALIDATION_PACKAGE + '.' + VALIDATION_CLASS, source)
+                .thenAccept(diagnostics -> SwingUtilities.invokeLater(() -> {
+                    if (!text.equals(plotFunctionText.getText()))
+                        return;
+                    final StringBuilder messages = new StringBuilder();
+                    log(diagnostics, messages);
+                    errors.setText(messages.toString());
+                }));
+    }
 
-        boolean legend = false;
-        boolean tooltips = true;
-        boolean urls = false;
-        JFreeChart chart = ChartFactory.createXYLineChart( //
-                "f(x)=" + source, // Title
-                "x", // X-Axis label
-                "f(x)", // Y-Axis label
-                xyDataset, PlotOrientation.VERTICAL, legend, tooltips, urls);
-        final BufferedImage image = chart.createBufferedImage(plotPanel.getWidth(),
-                plotPanel.getHeight());
-        final JLabel plotComponent = new JLabel();
-        plotComponent.setIcon(new ImageIcon(image));
-        plotPanel.image = image;
-        plotPanel.repaint();
+    /**
+     * Sample and render the current function in the background at the size of
+     * the plot panel, then show the image unless another rendering has
+     * started meanwhile. Must be called on the event dispatch thread.
+     */
+    private void render() {
+        final Function f = function;
+        final String title = source;
+        final int width = Math.max(1, plotPanel.getWidth());
+        final int height = Math.max(1, plotPanel.getHeight());
+        final long generation = ++renderGeneration;
+        if (rendering != null)
+            rendering.cancel(false);
+        rendering = renderExecutor.submit(() -> {
+            try {
+                final BufferedImage image = plot(f, title, width, height, generation);
+                if (image == null)
+                    return;
+                SwingUtilities.invokeLater(() -> {
+                    if (generation != renderGeneration) {
+                        chartRenderer.recycle(image);
+                        return;
+                    }
+                    // nothing paints the old image once it is replaced, as
+                    // painting happens on this thread
+                    final BufferedImage old = plotPanel.image;
+                    plotPanel.image = image;
+                    plotPanel.repaint();
+                    if (old != null)
+                        chartRenderer.recycle(old);
+                });
+            } catch (RuntimeException e) {
+                // for example, an ArithmeticException from the function
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> {
+                    if (generation == renderGeneration)
+                        errors.setText(e.toString());
+                });
+            }
+        });
+    }
+
+    /**
+     * Create a graph of a function using JFreeChart. Runs on the renderer
+     * thread.
+     *
+     * @return the image of the graph, or null if rendering
+     * <var>generation</var> has been superseded
+     */
+    private BufferedImage plot(final Function f, final String title, final int width,
+                               final int height, final long generation) {
+        if (generation != renderGeneration)
+            return null;
+        // sample as densely as the plot can show, then keep only the points
+        // which make a difference to it
+        final double[][] samples = sampler.sample(f, X_FROM, X_TO, width, height);
+        if (generation != renderGeneration)
+            return null;
+        final double[][] points = PixelDecimator.decimate(samples[0], samples[1], X_FROM, X_TO,
+                width);
+        if (generation != renderGeneration)
+            return null;
+        return chartRenderer.render("f(x)=" + title, points[0], points[1], width, height);
     }
 
     /**
@@ -187,94 +358,40 @@ final public class PlotterPanel extends JPanel {
      *             is embedded uses static import for all the members of the
      *             java.lang.Math class so they can be accessed without
      *             qualification.
+     * @param messages receives the compiler diagnostics or the error, to be
+     *                 shown in the error view
      * @return an object which computes the function denoted by expr
      */
-    Function newFunction(final String expr) {
-        errors.setText("");
+    Function newFunction(final String expr, final StringBuilder messages) {
         try {
-            // generate semi-secure unique package and class names
-            final String packageName = PACKAGE_NAME + digits();
-            final String className = "Fx_" + (classNameSuffix++) + digits();
-            final String qName = packageName + '.' + className;
-            // generate the source class as String
-            final String source = fillTemplate(packageName, className, expr);
-            // compile the generated Java source
             final DiagnosticCollector<JavaFileObject> errs = new DiagnosticCollector<>();
-            Class<Function> compiledFunction = compiler.compile(qName, source, errs, Function.class);
-            log(errs);
-            return compiledFunction.getConstructor().newInstance();
+            final Function function = functions.newFunction(expr, errs);
+            log(errs, messages);
+            return function;
         } catch (CharSequenceCompilerException e) {
             e.printStackTrace();
-            log(e.getDiagnostics());
+            log(e.getDiagnostics(), messages);
         } catch (InstantiationException | NoSuchMethodException | IllegalAccessException | IOException e) {
             e.printStackTrace();
-            errors.setText(e.getMessage());
-        } catch (InvocationTargetException e) {
+            messages.append(e.getMessage());
+        } catch (ReflectiveOperationException e) {
             throw new RuntimeException(e);
         }
         return NULL_FUNCTION;
     }
 
     /**
-     * @return random hex digits with a '_' prefix
-     */
-    private String digits() {
-        return '_' + Long.toHexString(random.nextLong());
-    }
-
-    /**
-     * Return the Plotter function Java source, substituting the given package
-     * name, class name, and double expression
-     *
-     * @param packageName a valid Java package name
-     * @param className   a valid Java class name
-     * @param expression  text for a double expression, using double x
-     * @return source for the new class implementing Function interface using the
-     * expression
-     * @throws IOException
-     */
-    private String fillTemplate(String packageName, String className, String expression)
-            throws IOException {
-        if (template == null)
-            template = readTemplate();
-        // simplest "template processor":
-        return template.replace("$packageName", packageName)//
-                .replace("$className", className)//
-                .replace("$expression", expression);
-    }
-
-    /**
-     * Read the Function source template
-     *
-     * @return a source template
-     * @throws IOException
-     */
-    private String readTemplate() throws IOException {
-        try (InputStream is = PlotterPanel.class.getResourceAsStream("Function.java.template")) {
-            if (is == null) {
-                throw new IOException("template not found!");
-            }
-            int size = is.available();
-            byte[] bytes = new byte[size];
-            if (size != is.read(bytes, 0, size))
-                throw new IOException();
-            return new String(bytes, UTF_8);
-        }
-    }
-
-    /**
-     * Log diagnostics into the error JTextArea
+     * Log diagnostics for the error JTextArea
      *
      * @param diagnostics iterable compiler diagnostics
+     * @param msgs        receives the messages
      */
-    private void log(final DiagnosticCollector<JavaFileObject> diagnostics) {
-        final StringBuilder msgs = new StringBuilder();
+    private static void log(final DiagnosticCollector<JavaFileObject> diagnostics,
+                            final StringBuilder msgs) {
         for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics
                 .getDiagnostics()) {
             msgs.append(diagnostic.getMessage(null)).append("\n");
         }
-        errors.setText(msgs.toString());
-
     }
 
     /**
@@ -283,4 +400,13 @@ final public class PlotterPanel extends JPanel {
      */
     static final Function NULL_FUNCTION = x -> 0.0;
 
+    private static ExecutorService newDaemonExecutor(final String name, final int priority) {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        });
+    }
+
 }
@@ -0,0 +1,167 @@
+package examples.plotter;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import javaxtools.compiler.CharSequenceCompilerException;
+
+/**
+ * Provides {@link Function}s which can be evaluated as soon as their
+ * expression is parsed. A new function is interpreted from its syntax tree
+ * at first. Once it has been evaluated <var>threshold</var> times, it is
+ * compiled with a {@link FunctionCompiler} on a background executor, and
+ * further evaluations use the compiled class as soon as it is ready. Functions
+ * which are evaluated only a few times are never compiled.
+ * <p/>
+ * Expressions which {@link ExpressionParser} does not understand cannot be
+ * interpreted; they are compiled right away, as
+ * {@link FunctionCompiler#compile(String, DiagnosticCollector)} does.
+ * <p/>
+ * Thread safety: this class and the functions it provides are thread safe.
+ */
+public final class TieredFunctionProvider {
+    /**
+     * The default number of evaluations after which a function is compiled.
+     * {@link AdaptiveSampler} evaluates from a quarter of a point to
+     * {@link AdaptiveSampler#DEFAULT_POINTS_PER_PIXEL} points per pixel of
+     * width, so this is some three plots 800 pixels wide of a curve which
+     * bends everywhere, and a few dozen of a nearly straight one.
+     */
+    public static final int DEFAULT_THRESHOLD = 20000;
+
+    private final FunctionCompiler compiler;
+
+    private final Executor executor;
+
+    private final int threshold;
+
+    /**
+     * @param compiler  compiles the functions
+     * @param executor  runs the background compilations
+     * @param threshold the number of evaluations after which a function is
+     *                  compiled, where a bulk evaluation counts once for each
+     *                  point; 0 to compile every function in the background
+     *                  right away
+     * @throws IllegalArgumentException if <var>threshold</var> is negative
+     */
+    public TieredFunctionProvider(FunctionCompiler compiler, Executor executor, int threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+        this.compiler = compiler;
+        this.executor = executor;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return the number of evaluations after which a function is compiled
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Return a function which computes an expression.
+     *
+     * @param expression  a Java expression of type double in x, in which the
+     *                    members of {@link Math} may be used unqualified
+     * @param diagnostics receives the diagnostics of javac, if it is run now;
+     *                    may be null
+     * @return a function which is interpreted until it is compiled, or a
+     * compiled function if the expression cannot be interpreted
+     * @throws CharSequenceCompilerException if the expression does not compile
+     * @throws ReflectiveOperationException  if a compiled function cannot be
+     *                                       instantiated
+     * @throws IOException                   if the source template cannot be
+     *                                       read
+     */
+    public Function newFunction(String expression, DiagnosticCollector<JavaFileObject> diagnostics)
+            throws CharSequenceCompilerException, ReflectiveOperationException, IOException {
+        final Expression tree;
+        try {
+            tree = ExpressionParser.parse(expression);
+        } catch (ExpressionParser.UnsupportedException e) {
+            return compiler.compile(expression, diagnostics);
+        }
+        final TieredFunction function = new TieredFunction(expression,
+                new ExpressionInterpreter(tree));
+        if (threshold == 0)
+            function.compile();
+        return function;
+    }
+
+    /**
+     * A function which delegates to its interpreter until the compiled class
+     * replaces it.
+     */
+    private final class TieredFunction implements Function {
+        private final String expression;
+
+        // the interpreter, then the compiled function
+        private volatile Function delegate;
+
+        // the number of evaluations by the interpreter; updated without
+        // synchronization, as an approximate count is enough
+        private int evaluations;
+
+        private final AtomicBoolean compiling = new AtomicBoolean();
+
+        TieredFunction(final String expression, final ExpressionInterpreter interpreter) {
+            this.expression = expression;
+            delegate = interpreter;
+        }
+
+        @Override
+        public double f(final double x) {
+            final Function function = delegate;
+            if (function instanceof ExpressionInterpreter && ++evaluations >= threshold)
+                compile();
+            return function.f(x);
+        }
+
+        @Override
+        public void evaluate(final double[] x, final int xOffset, final double[] y,
+                             final int yOffset, final int length) {
+            final Function function = delegate;
+            if (function instanceof ExpressionInterpreter) {
+                evaluations += length;
+                if (evaluations >= threshold || evaluations < 0)
+                    compile();
+            }
+            function.evaluate(x, xOffset, y, yOffset, length);
+        }
+
+        /**
+         * Start compiling this function in the background, unless that has
+         * been done already. If the compilation fails, the interpreter stays.
+         */
+        void compile() {
+            if (!compiling.compareAndSet(false, true))
+                return;
+            try {
+                executor.execute(() -> {
+                    try {
+                        delegate = compiler.compile(expression, null);
+                    } catch (CharSequenceCompilerException | ReflectiveOperationException
+                            | IOException e) {
+                        // the expression parsed, so this should not happen;
+                        // the interpreter computes the same values anyway
+                        e.printStackTrace();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the executor is shut down; keep interpreting
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "f(x)=" + expression + (delegate instanceof ExpressionInterpreter
+                    ? " (interpreted)" : " (compiled)");
+        }
+    }
+}
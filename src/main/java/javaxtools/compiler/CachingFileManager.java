@@ -0,0 +1,106 @@
+package javaxtools.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * A JavaFileManager which remembers the class path listings of the standard
+ * file manager it forwards to. javac lists the same packages for every
+ * compilation; with a large class path each listing means scanning
+ * directories and jar indexes again. This file manager keeps a package to
+ * entries index which is built up as javac asks for packages, and reused
+ * across compilations until a class path entry changes.
+ * <p/>
+ * Changes are detected by {@link #revalidate()}, from the size and
+ * modification time of each class path entry; for a directory, that is the
+ * directory itself, not the files below it.
+ * <p/>
+ * Thread safety: like the standard file manager, an instance may only be used
+ * by one compilation at a time.
+ */
+final class CachingFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    // the class path entries; computed on first use
+    private List<File> classPath;
+
+    // the size and modification time of each class path entry, when the
+    // listings were made
+    private long[] stamps;
+
+    // [package name, kinds, recurse] -> the class path entries in the package
+    private final Map<List<?>, List<JavaFileObject>> listings = new HashMap<>();
+
+    CachingFileManager(final StandardJavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    /**
+     * @return the class path entries, as reported by the standard file manager
+     */
+    List<File> getClassPath() {
+        if (classPath == null) {
+            final List<File> files = new ArrayList<>();
+            final Iterable<? extends File> location = fileManager.getLocation(
+                    StandardLocation.CLASS_PATH);
+            if (location != null) {
+                for (File file : location)
+                    files.add(file);
+            }
+            classPath = Collections.unmodifiableList(files);
+        }
+        return classPath;
+    }
+
+    /**
+     * Discard the listings if a class path entry has changed since they were
+     * made. Call this before each compilation.
+     *
+     * @throws IOException if the standard file manager cannot be reset
+     */
+    void revalidate() throws IOException {
+        final List<File> files = getClassPath();
+        final long[] current = new long[files.size() * 2];
+        for (int i = 0; i < files.size(); i++) {
+            current[2 * i] = files.get(i).length();
+            current[2 * i + 1] = files.get(i).lastModified();
+        }
+        if (stamps != null && !Arrays.equals(stamps, current)) {
+            listings.clear();
+            // make the standard file manager reopen the changed archives
+            fileManager.setLocation(StandardLocation.CLASS_PATH, files);
+        }
+        stamps = current;
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(final Location location, final String packageName,
+                                         final Set<Kind> kinds, final boolean recurse)
+            throws IOException {
+        if (location != StandardLocation.CLASS_PATH)
+            return super.list(location, packageName, kinds, recurse);
+        final List<?> key = Arrays.asList(packageName,
+                kinds.isEmpty() ? EnumSet.noneOf(Kind.class) : EnumSet.copyOf(kinds), recurse);
+        List<JavaFileObject> files = listings.get(key);
+        if (files == null) {
+            files = new ArrayList<>();
+            for (JavaFileObject file : super.list(location, packageName, kinds, recurse))
+                files.add(file);
+            files = Collections.unmodifiableList(files);
+            listings.put(key, files);
+        }
+        return files;
+    }
+}
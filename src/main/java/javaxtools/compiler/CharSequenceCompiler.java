@@ -1,24 +1,30 @@
 package javaxtools.compiler;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 
+import javax.tools.Diagnostic;
 import javax.tools.DiagnosticCollector;
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileManager;
@@ -27,10 +33,7 @@ import javax.tools.JavaCompiler.CompilationTask;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.JavaFileObject.Kind;
-import javax.tools.SimpleJavaFileObject;
-import javax.tools.StandardJavaFileManager;
 import javax.tools.StandardLocation;
-import javax.tools.ToolProvider;
 
 /**
  * Compile a String or other {@link CharSequence}, returning a Java
@@ -60,29 +63,110 @@ import javax.tools.ToolProvider;
  * The source can be in a String, {@link StringBuffer}, or your own class which
  * implements {@link CharSequence}. If you implement your own, it must be
  * thread safe (preferably, immutable.)
+ * <p/>
+ * Instances share the system Java compiler and its file managers with other
+ * instances which use the same class path, so only the first instance pays
+ * for loading javac and reading the JDK; {@link #warmUp()} pays it ahead of
+ * time. Call {@link #close()} when an instance is no longer needed.
  *
  * @author <a href="mailto:David.Biesack@sas.com">David J. Biesack</a>
  */
 public class CharSequenceCompiler<T> {
+    /**
+     * Where the classes of a compilation are defined.
+     */
+    public enum DefinitionMode {
+        /**
+         * Define all classes in one class loader owned by the compiler. Later
+         * compilations may refer to them, and {@link #loadClass(String)} finds
+         * them, but they are never unloaded while the compiler is reachable.
+         */
+        SHARED,
+        /**
+         * Define the classes of each compilation in a new class loader of
+         * their own, a child of the shared one. They are invisible to later
+         * compilations and to {@link #loadClass(String)}, and become eligible
+         * for unloading as soon as the caller drops the returned classes and
+         * their instances. Use this mode for independent, short-lived classes
+         * to keep metaspace from growing with every compilation.
+         */
+        ISOLATED
+    }
+
     // Compiler requires source files with a ".java" extension:
     static final String JAVA_EXTENSION = ".java";
 
+    // A trivial class which uses common JDK types, for warmUp().
+    private static final String WARM_UP_CLASS_NAME = "javaxtools.compiler.warmup.WarmUp";
+    private static final String WARM_UP_SOURCE = "package javaxtools.compiler.warmup;\n"
+            + "class WarmUp implements Runnable {\n"
+            + "  public void run() {\n"
+            + "    java.util.List<String> list = new java.util.ArrayList<>();\n"
+            + "    list.add(String.valueOf(Math.sqrt(list.size())));\n"
+            + "  }\n"
+            + "}\n";
+
     private final ClassLoaderImpl classLoader;
 
+    // The newest layer of the shared class loader: classLoader itself, or a
+    // child of it which holds classes recompiled incrementally and is a child
+    // of the previous layer. It holds the current version of each class.
+    private volatile ClassLoaderImpl head;
+
+    // The shared javac state that this facade uses.
+    private final CompilerRuntime runtime;
+
     // The compiler instance that this facade uses.
     private final JavaCompiler compiler;
 
     // The compiler options (such as "-target" "1.5").
     private final List<String> options;
 
-    // collect compiler diagnostics in this instance.
-    private DiagnosticCollector<JavaFileObject> diagnostics;
+    // The standard FileManagers, one per concurrent compilation; shared with
+    // other instances which use the same class path.
+    private final FileManagerPool fileManagers;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // optional cache of compilation results; null if caching is off.
+    private volatile CompiledClassCache cache;
+
+    // optional on-disk cache of byte code; null if persistent caching is off.
+    private volatile PersistentClassCache persistentCache;
+
+    private volatile DefinitionMode definitionMode = DefinitionMode.SHARED;
+
+    // whether to keep the sources of successful compilations
+    private volatile boolean retainSources;
 
-    // The FileManager which will store source and class "files".
-    private final FileManagerImpl javaFileManager;
+    // the retained sources by qualified class name; guarded by itself
+    private final Map<String, CharSequence> retainedSources = new HashMap<>();
+
+    // the number of chars in retainedSources; guarded by retainedSources
+    private long retainedSourceChars;
+
+    // the packages javac may look up on the class path; null for all
+    private volatile Set<String> classPathPackages;
+
+    // receives timings; null if metrics are off.
+    private volatile CompilerMetrics metrics;
+
+    // what incremental compilations have compiled; null if they are off.
+    // Incremental compilations are serialized by locking it.
+    private volatile DependencyTracker tracker;
+
+    // how long javac may run per compilation; 0 for no limit
+    private volatile long timeoutNanos;
+
+    // the most chars of source per compilation; 0 for no limit
+    private volatile long maxSourceLength;
+
+    // the most errors, and warnings, javac reports; 0 for javac's default
+    private volatile int maxDiagnostics;
 
     /**
-     * Construct a new instance which delegates to the named class loader.
+     * Construct a new instance which delegates to the named class loader and
+     * runs up to one compilation per available processor at a time.
      *
      * @param loader  the application ClassLoader. The compiler will look through to
      *                this // class loader for dependent classes
@@ -91,18 +175,28 @@ public class CharSequenceCompiler<T> {
      * @throws IllegalStateException if the Java compiler cannot be loaded.
      */
     public CharSequenceCompiler(ClassLoader loader, Iterable<String> options) {
-        compiler = ToolProvider.getSystemJavaCompiler();
-        if (compiler == null) {
-            throw new IllegalStateException("Cannot find the system Java compiler. "
-                    + "Check that your class path includes tools.jar");
-        }
+        this(loader, options, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a new instance which delegates to the named class loader.
+     *
+     * @param loader      the application ClassLoader. The compiler will look through to
+     *                    this // class loader for dependent classes
+     * @param options     The compiler options (such as "-target" "1.5"). See the usage
+     *                    for javac
+     * @param parallelism the maximum number of compilations which run at the same
+     *                    time; further compilations wait
+     * @throws IllegalStateException    if the Java compiler cannot be loaded.
+     * @throws IllegalArgumentException if <var>parallelism</var> is not positive
+     */
+    public CharSequenceCompiler(ClassLoader loader, Iterable<String> options, int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        runtime = CompilerRuntime.acquire();
+        compiler = runtime.getCompiler();
         classLoader = new ClassLoaderImpl(loader);
-        diagnostics = new DiagnosticCollector<>();
-        final StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics,
-                null, null);
-        // create our FileManager which chains to the default file manager
-        // and our ClassLoader
-        javaFileManager = new FileManagerImpl(fileManager, classLoader);
+        head = classLoader;
         this.options = new ArrayList<>();
         if (options != null) { // make a save copy of input options
             for (String option : options) {
@@ -110,21 +204,350 @@ public class CharSequenceCompiler<T> {
             }
         }
 
+        List<File> path = null;
         if (loader instanceof URLClassLoader && (!loader.getClass().getName().equals("sun.misc.Launcher$AppClassLoader"))) {
-            try {
-                URLClassLoader urlClassLoader = (URLClassLoader) loader;
+            URLClassLoader urlClassLoader = (URLClassLoader) loader;
 
-                List<File> path = new ArrayList<>();
-                for (URL url : urlClassLoader.getURLs()) {
-                    File file = new File(url.getFile());
-                    path.add(file);
-                }
+            path = new ArrayList<>();
+            for (URL url : urlClassLoader.getURLs()) {
+                File file = new File(url.getFile());
+                path.add(file);
+            }
+        }
+        // all file managers share the same, immutable class path
+        fileManagers = runtime.pool(path, parallelism);
+    }
 
-                fileManager.setLocation(StandardLocation.CLASS_PATH, path);
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Compile a trivial class in the background, so that javac's classes are
+     * loaded and a file manager has read the JDK before the first real
+     * compilation. The first compilation then costs about as much as later
+     * ones. The class is not defined.
+     *
+     * @return a future which completes when the warm-up is done
+     * @throws IllegalStateException if this instance has been closed
+     */
+    public CompletableFuture<Void> warmUp() {
+        checkOpen();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                final Map<String, CharSequence> classes = Collections.<String, CharSequence>singletonMap(
+                        WARM_UP_CLASS_NAME, WARM_UP_SOURCE);
+                runJavac(classes, new DiagnosticCollector<JavaFileObject>(), null,
+                        newCanceller(() -> false));
+                done.complete(null);
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
             }
+        }, "CharSequenceCompiler-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+        return done;
+    }
+
+    /**
+     * Release this instance's reference to the javac state shared among
+     * instances. Classes already compiled remain usable, but no more can be
+     * compiled: compiling, validating and warming up throw an
+     * {@link IllegalStateException}.
+     */
+    public void close() {
+        if (closed.compareAndSet(false, true))
+            runtime.release();
+    }
+
+    private void checkOpen() {
+        if (closed.get())
+            throw new IllegalStateException("the compiler has been closed");
+    }
+
+    /**
+     * Attach a cache of compilation results to this instance, or detach it.
+     * While a cache is attached, compiling a source which this instance has
+     * compiled before with the same options and definition mode returns the
+     * cached classes without running javac. A failed compilation fails again
+     * with the cached diagnostics, unless this instance has defined classes
+     * since. A cache may be shared by several instances, which share its
+     * capacity, but not their results.
+     *
+     * @param cache the cache to use, or null to always compile
+     */
+    public void setCache(CompiledClassCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return the cache of compilation results, or null if there is none
+     */
+    public CompiledClassCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Attach an on-disk cache of byte code to this instance, or detach it.
+     * While a cache is attached, each compilation first looks for byte code
+     * compiled from the same sources, options and class path, possibly by
+     * another JVM, and defines the classes from it instead of running javac.
+     * Successful compilations are written to the cache.
+     *
+     * @param persistentCache the cache to use, or null to always compile
+     */
+    public void setPersistentCache(PersistentClassCache persistentCache) {
+        this.persistentCache = persistentCache;
+    }
+
+    /**
+     * @return the on-disk cache of byte code, or null if there is none
+     */
+    public PersistentClassCache getPersistentCache() {
+        return persistentCache;
+    }
+
+    /**
+     * Attach metrics to this instance, or detach them. While metrics are
+     * attached, each compilation reports the time of its javac phases, of
+     * class path listings and of the whole compilation, and each class
+     * definition reports its time. Metrics may be shared by several
+     * instances.
+     *
+     * @param metrics the metrics to report to, or null to take no timings
+     */
+    public void setMetrics(CompilerMetrics metrics) {
+        this.metrics = metrics;
+        for (ClassLoaderImpl layer = head; layer != null; layer = layer.getParentLayer())
+            layer.setMetrics(metrics);
+    }
+
+    /**
+     * @return the metrics this instance reports to, or null if there are none
+     */
+    public CompilerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set where the classes of subsequent compilations are defined. The default
+     * is {@link DefinitionMode#SHARED}.
+     *
+     * @param definitionMode the definition mode
+     */
+    public void setDefinitionMode(DefinitionMode definitionMode) {
+        if (definitionMode == null)
+            throw new NullPointerException("definitionMode");
+        this.definitionMode = definitionMode;
+    }
+
+    /**
+     * @return where the classes of compilations are defined
+     */
+    public DefinitionMode getDefinitionMode() {
+        return definitionMode;
+    }
+
+    /**
+     * Set whether the sources of subsequent successful compilations are kept.
+     * By default they are released as soon as the compilation is done, as
+     * neither the compiled classes nor later compilations need them.
+     *
+     * @param retainSources true to keep the sources, for {@link #getSource(String)}
+     */
+    public void setRetainSources(boolean retainSources) {
+        this.retainSources = retainSources;
+    }
+
+    /**
+     * @return whether the sources of successful compilations are kept
+     */
+    public boolean isRetainSources() {
+        return retainSources;
+    }
+
+    /**
+     * @param qualifiedClassName the name a source was compiled under
+     * @return the source, or null if it was not retained
+     * @see #setRetainSources(boolean)
+     */
+    public CharSequence getSource(String qualifiedClassName) {
+        synchronized (retainedSources) {
+            return retainedSources.get(qualifiedClassName);
+        }
+    }
+
+    /**
+     * Estimate the heap retained by this instance for compiled classes: the
+     * byte code of the classes defined in the shared class loader plus the
+     * retained sources, at two bytes per char. Classes defined in
+     * {@link DefinitionMode#ISOLATED} mode belong to the caller and are not
+     * counted.
+     *
+     * @return the retained bytes
+     */
+    public long getRetainedBytes() {
+        final long sourceChars;
+        synchronized (retainedSources) {
+            sourceChars = retainedSourceChars;
         }
+        long classBytes = 0;
+        for (ClassLoaderImpl layer = head; layer != null; layer = layer.getParentLayer())
+            classBytes += layer.getRetainedBytes();
+        return classBytes + 2 * sourceChars;
+    }
+
+    /**
+     * Restrict the class path lookups of subsequent compilations to the given
+     * packages and their subpackages. The compiled sources can then refer only
+     * to the JDK, to classes compiled by this instance, and to class path
+     * classes in those packages; javac does not even list the other packages,
+     * which saves most of its class path I/O when the class path is large.
+     * <p/>
+     * Class path listings are cached and reused across compilations in any
+     * case, until a class path entry changes.
+     *
+     * @param packageNames the package names, "" for the unnamed package, or
+     *                     null to look up all packages (the default)
+     */
+    public void setClassPathPackages(Collection<String> packageNames) {
+        this.classPathPackages = packageNames == null ? null
+                : Collections.unmodifiableSet(new HashSet<>(packageNames));
+    }
+
+    /**
+     * @return the packages javac may look up on the class path, or null if
+     * it may look up all packages
+     */
+    public Set<String> getClassPathPackages() {
+        return classPathPackages;
+    }
+
+    /**
+     * @return the maximum number of compilations which run at the same time
+     */
+    public int getParallelism() {
+        return fileManagers.size();
+    }
+
+    /**
+     * Turn incremental compilation on or off. While it is on, a compilation
+     * in {@link DefinitionMode#SHARED} mode runs javac only on the sources
+     * which have changed since they were last compiled incrementally, and on
+     * those which refer to their classes, directly or through other sources
+     * of the same compilation; javac resolves the other classes from the class
+     * files compiled before, and the compilation returns the classes defined
+     * before for them. Regenerating a large set of related classes in which
+     * one source has changed then costs about as much as compiling that
+     * source and its dependents.
+     * <p/>
+     * The recompiled classes cannot replace the loaded ones in the same class
+     * loader, so they are defined in a new class loader which takes
+     * precedence over the previous ones, and which later compilations and
+     * {@link #loadClass(String)} use. Classes which refer to a recompiled
+     * class are always recompiled, so no class links to an outdated one,
+     * except classes which are compiled from sources outside the compilation.
+     * The outdated classes are kept as long as the compiler is reachable.
+     * <p/>
+     * javac inlines the values of compile-time constants, such as
+     * <code>static final int SIZE = 10;</code>, so a class which uses only
+     * the value of a constant keeps no reference to the class declaring it.
+     * Therefore, if a recompiled source changes the value of a constant, or
+     * adds or removes one, all sources of the compilation are compiled.
+     * <p/>
+     * Incremental compilations do not use the {@link #setCache cache} or the
+     * {@link #setPersistentCache persistent cache}, and run one at a time.
+     *
+     * @param incremental true to compile incrementally; false (the default)
+     *                    to compile all sources of each compilation
+     */
+    public void setIncremental(boolean incremental) {
+        if (!incremental)
+            tracker = null;
+        else if (tracker == null)
+            tracker = new DependencyTracker();
+    }
+
+    /**
+     * @return whether compilations are incremental
+     */
+    public boolean isIncremental() {
+        return tracker != null;
+    }
+
+    /**
+     * Limit how long each subsequent compilation or validation may take,
+     * from the time it waits for one of the {@link #getParallelism()} slots
+     * to the end of javac's work. A compilation which takes longer is
+     * stopped, and throws a {@link CharSequenceCompilerTimeoutException}, so
+     * that a pathological source holds its slot no longer than that.
+     * <p/>
+     * javac is stopped between phases of its work on each file, such as
+     * parsing or attributing a class, so a compilation may overrun the
+     * timeout by the time of one phase. A compilation is stopped in the same
+     * way when the thread which runs it is interrupted, and then throws a
+     * {@link CharSequenceCompilerException} caused by an
+     * {@link InterruptedException}, with the interrupt status set. Time spent
+     * waiting for an incremental compilation to finish is not limited.
+     *
+     * @param timeout the longest time; 0 (the default) for no limit
+     * @param unit    the unit of <var>timeout</var>
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @param unit the unit of the result
+     * @return the longest time a compilation may take, or 0 if there is no
+     * limit
+     */
+    public long getTimeout(TimeUnit unit) {
+        return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Limit the total length of the sources of each subsequent compilation
+     * or validation. Longer sources are rejected with a
+     * {@link CharSequenceCompilerLimitException} before javac sees them.
+     *
+     * @param maxSourceLength the most chars; 0 (the default) for no limit
+     */
+    public void setMaxSourceLength(long maxSourceLength) {
+        if (maxSourceLength < 0)
+            throw new IllegalArgumentException("length must not be negative: " + maxSourceLength);
+        this.maxSourceLength = maxSourceLength;
+    }
+
+    /**
+     * @return the most chars of source per compilation, or 0 if there is no
+     * limit
+     */
+    public long getMaxSourceLength() {
+        return maxSourceLength;
+    }
+
+    /**
+     * Limit the number of errors, and separately of warnings, which javac
+     * reports per compilation or validation, with its <code>-Xmaxerrs</code>
+     * and <code>-Xmaxwarns</code> options, so that a broken source cannot
+     * flood the diagnostics. These take precedence over the same options
+     * passed to the constructor.
+     *
+     * @param maxDiagnostics the most errors and the most warnings; 0 (the
+     *                       default) for javac's own limits, 100 of each
+     */
+    public void setMaxDiagnostics(int maxDiagnostics) {
+        if (maxDiagnostics < 0)
+            throw new IllegalArgumentException("limit must not be negative: " + maxDiagnostics);
+        this.maxDiagnostics = maxDiagnostics;
+    }
+
+    /**
+     * @return the most errors and warnings javac reports per compilation, or
+     * 0 for javac's own limits
+     */
+    public int getMaxDiagnostics() {
+        return maxDiagnostics;
     }
 
     /**
@@ -133,6 +556,11 @@ public class CharSequenceCompiler<T> {
      * <p/>
      * Thread safety: this method is thread safe if the <var>javaSource</var>
      * and <var>diagnosticsList</var> are isolated to this thread.
+     * <p/>
+     * If a {@link #setCache(CompiledClassCache) cache} is attached and holds a
+     * class compiled from the same source modulo package and class name, that
+     * class is returned, so its name may differ from
+     * <var>qualifiedClassName</var>.
      *
      * @param qualifiedClassName The fully qualified class name.
      * @param javaSource         Complete java source, including a package statement and a class,
@@ -147,21 +575,37 @@ public class CharSequenceCompiler<T> {
      *                                       found.
      * @throws ClassCastException            if the generated class is not assignable to all the optional
      *                                       <var>types</var>.
+     * @throws IllegalStateException         if this instance has been closed
      */
-    public synchronized Class<T> compile(final String qualifiedClassName,
-                                         final CharSequence javaSource,
-                                         final DiagnosticCollector<JavaFileObject> diagnosticsList,
-                                         final Class<?>... types) throws CharSequenceCompilerException,
+    public Class<T> compile(final String qualifiedClassName,
+                            final CharSequence javaSource,
+                            final DiagnosticCollector<JavaFileObject> diagnosticsList,
+                            final Class<?>... types) throws CharSequenceCompilerException,
             ClassCastException {
-        if (diagnosticsList != null)
-            diagnostics = diagnosticsList;
-        else
-            diagnostics = new DiagnosticCollector<>();
+        checkOpen();
+        final DiagnosticCollector<JavaFileObject> diagnostics = diagnosticsList != null
+                ? diagnosticsList : new DiagnosticCollector<JavaFileObject>();
         Map<String, CharSequence> classes = new HashMap<>(1);
         classes.put(qualifiedClassName, javaSource);
-        Map<String, Class<T>> compiled = compile(classes, diagnosticsList);
-        Class<T> newClass = compiled.get(qualifiedClassName);
-        return castable(newClass, types);
+        checkSourceLength(classes, diagnostics);
+        final CompiledClassCache cache = this.cache;
+        if (cache == null || incrementalTracker() != null) {
+            Map<String, Class<T>> compiled = compile(classes, diagnostics);
+            Class<T> newClass = compiled.get(qualifiedClassName);
+            return castable(newClass, types);
+        }
+        // sources differing only in the package and class name share an entry,
+        // so the class may have been compiled under another name
+        final TaskCanceller canceller = newCanceller(() -> false);
+        final ClassLoaderImpl head = this.head;
+        final Map<String, Class<T>> compiled = compileCached(cache, head, CompiledClassCache.key(
+                head, definitionMode, javacOptions(), qualifiedClassName, javaSource), classes,
+                diagnostics, canceller);
+        if (compiled == null) {
+            throw new CharSequenceCompilerException("Compilation failed.", classes
+                    .keySet(), diagnostics);
+        }
+        return castable(compiled.values().iterator().next(), types);
     }
 
     /**
@@ -169,7 +613,11 @@ public class CharSequenceCompiler<T> {
      * resulting classes.
      * <p/>
      * Thread safety: this method is thread safe if the <var>classes</var> and
-     * <var>diagnosticsList</var> are isolated to this thread.
+     * <var>diagnosticsList</var> are isolated to this thread. Up to
+     * {@link #getParallelism()} compilations run at the same time. The classes
+     * of a compilation become visible to later compilations once it succeeds;
+     * if concurrent compilations define the same class name, the last one to
+     * finish wins.
      *
      * @param classes         A Map whose keys are qualified class names and whose values are
      *                        the Java source strings containing the definition of the class.
@@ -182,12 +630,449 @@ public class CharSequenceCompiler<T> {
      * The map has the same keys as the input <var>classes</var>; the
      * values are the corresponding Class objects.
      * @throws CharSequenceCompilerException if the source cannot be compiled
+     * @throws IllegalStateException         if this instance has been closed
      */
-    public synchronized Map<String, Class<T>> compile(
+    public Map<String, Class<T>> compile(
             final Map<String, CharSequence> classes,
             final DiagnosticCollector<JavaFileObject> diagnosticsList)
             throws CharSequenceCompilerException {
-        List<JavaFileObject> sources = new ArrayList<>();
+        checkOpen();
+        final DiagnosticCollector<JavaFileObject> diagnostics = diagnosticsList != null
+                ? diagnosticsList : new DiagnosticCollector<JavaFileObject>();
+        checkSourceLength(classes, diagnostics);
+        // one deadline for all the runs of javac this call may take
+        final TaskCanceller canceller = newCanceller(() -> false);
+        final CompiledClassCache cache = this.cache;
+        final ClassLoaderImpl head = this.head;
+        final Map<String, Class<T>> compiled = cache == null || incrementalTracker() != null
+                ? compileSources(classes, diagnostics, canceller)
+                : compileCached(cache, head, CompiledClassCache.key(head, definitionMode,
+                javacOptions(), classes), classes, diagnostics, canceller);
+        if (compiled == null) {
+            throw new CharSequenceCompilerException("Compilation failed.", classes
+                    .keySet(), diagnostics);
+        }
+        return compiled;
+    }
+
+    /**
+     * Check Java source in <var>javaSource</var> for errors, without
+     * compiling it. See {@link #validate(Map)}.
+     *
+     * @param qualifiedClassName The fully qualified class name.
+     * @param javaSource         Complete java source, including a package statement and a class,
+     *                           interface, or annotation declaration.
+     * @return the diagnostics of the source
+     * @throws CharSequenceCompilerException if the compiler cannot be run
+     * @throws IllegalStateException         if this instance has been closed
+     */
+    public DiagnosticCollector<JavaFileObject> validate(final String qualifiedClassName,
+                                                        final CharSequence javaSource)
+            throws CharSequenceCompilerException {
+        return validate(Collections.singletonMap(qualifiedClassName, javaSource));
+    }
+
+    /**
+     * Check multiple Java source strings for errors, without compiling them.
+     * The sources are parsed and attributed against the same classes as
+     * {@link #compile(Map, DiagnosticCollector)} would compile them against,
+     * so the diagnostics are the same, but no byte code is generated and no
+     * class is defined: this is cheaper than compiling, and leaves nothing
+     * behind. The source is valid if there is no diagnostic of kind
+     * {@link Diagnostic.Kind#ERROR}.
+     * <p/>
+     * If the compiler is not javac, the sources are compiled, and the class
+     * files dropped.
+     * <p/>
+     * Thread safety: this method is thread safe if the <var>classes</var> are
+     * isolated to this thread. Validations share the
+     * {@link #getParallelism() parallelism} of compilations.
+     *
+     * @param classes A Map whose keys are qualified class names and whose values are
+     *                the Java source strings containing the definition of the class,
+     *                as for {@link #compile(Map, DiagnosticCollector)}.
+     * @return the diagnostics of the sources
+     * @throws CharSequenceCompilerException if the compiler cannot be run
+     * @throws IllegalStateException         if this instance has been closed
+     * @see Validator
+     */
+    public DiagnosticCollector<JavaFileObject> validate(final Map<String, CharSequence> classes)
+            throws CharSequenceCompilerException {
+        return validate(classes, () -> false);
+    }
+
+    /**
+     * Check the <var>classes</var> as above, stopping once
+     * <var>cancelled</var> holds.
+     *
+     * @throws CancellationException if the validation has been cancelled
+     */
+    DiagnosticCollector<JavaFileObject> validate(final Map<String, CharSequence> classes,
+                                                 final BooleanSupplier cancelled)
+            throws CharSequenceCompilerException {
+        checkOpen();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        checkSourceLength(classes, diagnostics);
+        final TaskCanceller canceller = newCanceller(cancelled);
+        final CachingFileManager fileManager = acquireFileManager(classes, diagnostics, canceller);
+        try {
+            if (cancelled.getAsBoolean())
+                throw new CancellationException("validation cancelled");
+            // the file manager, and the class files if it comes to that, are
+            // dropped with this call
+            final List<JavaFileObject> sources = new ArrayList<>();
+            final CompilationTask task = compiler.getTask(null,
+                    newFileManager(fileManager, classes, sources, null), diagnostics,
+                    javacOptions(), null, sources);
+            canceller.listen(task);
+            if (!JavacTasks.analyze(task, diagnostics))
+                task.call();
+            return diagnostics;
+        } catch (IOException e) {
+            throw new CharSequenceCompilerException(classes.keySet(), e, diagnostics);
+        } catch (RuntimeException e) {
+            // javac wraps the exception of the canceller
+            if (cancelled.getAsBoolean())
+                throw new CancellationException("validation cancelled");
+            stopped(canceller, classes, diagnostics);
+            throw e;
+        } finally {
+            fileManagers.release(fileManager);
+        }
+    }
+
+    /**
+     * @return a canceller which stops javac when <var>cancelled</var> holds,
+     * when the timeout expires, counting from now, or when the current
+     * thread is interrupted
+     */
+    private TaskCanceller newCanceller(final BooleanSupplier cancelled) {
+        final Thread thread = Thread.currentThread();
+        return new TaskCanceller(() -> cancelled.getAsBoolean() || thread.isInterrupted(),
+                timeoutNanos);
+    }
+
+    /**
+     * Borrow a file manager within the timeout of <var>canceller</var>.
+     *
+     * @throws CharSequenceCompilerException if the file manager cannot be
+     *                                       created, or the timeout expires
+     */
+    private CachingFileManager acquireFileManager(final Map<String, CharSequence> classes,
+                                                  final DiagnosticCollector<JavaFileObject> diagnostics,
+                                                  final TaskCanceller canceller)
+            throws CharSequenceCompilerException {
+        final CachingFileManager fileManager;
+        try {
+            fileManager = canceller.getTimeoutNanos() == 0 ? fileManagers.acquire()
+                    : fileManagers.acquire(Math.max(1, canceller.remainingNanos()));
+        } catch (IOException e) {
+            throw new CharSequenceCompilerException(classes.keySet(), e, diagnostics);
+        }
+        if (fileManager == null)
+            throw timeout(canceller, classes, diagnostics);
+        return fileManager;
+    }
+
+    /**
+     * Throw the exception for a compilation which <var>canceller</var> has
+     * stopped, if it has.
+     *
+     * @throws CharSequenceCompilerTimeoutException if the timeout expired
+     * @throws CharSequenceCompilerException        if the thread was
+     *                                              interrupted
+     */
+    private static void stopped(final TaskCanceller canceller,
+                                final Map<String, CharSequence> classes,
+                                final DiagnosticCollector<JavaFileObject> diagnostics)
+            throws CharSequenceCompilerException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CharSequenceCompilerException("Compilation interrupted.", classes.keySet(),
+                    new InterruptedException(), diagnostics);
+        }
+        if (canceller.isExpired())
+            throw timeout(canceller, classes, diagnostics);
+    }
+
+    private static CharSequenceCompilerTimeoutException timeout(final TaskCanceller canceller,
+                                                                final Map<String, CharSequence> classes,
+                                                                final DiagnosticCollector<JavaFileObject> diagnostics) {
+        return new CharSequenceCompilerTimeoutException("Compilation timed out after "
+                + TimeUnit.NANOSECONDS.toMillis(canceller.getTimeoutNanos()) + " ms.",
+                classes.keySet(), diagnostics);
+    }
+
+    /**
+     * @throws CharSequenceCompilerLimitException if the sources are longer
+     *                                            than the
+     *                                            {@link #setMaxSourceLength limit}
+     */
+    private void checkSourceLength(final Map<String, CharSequence> classes,
+                                   final DiagnosticCollector<JavaFileObject> diagnostics)
+            throws CharSequenceCompilerException {
+        final long maxSourceLength = this.maxSourceLength;
+        if (maxSourceLength == 0)
+            return;
+        long length = 0;
+        for (CharSequence source : classes.values()) {
+            if (source != null)
+                length += source.length();
+        }
+        if (length > maxSourceLength) {
+            throw new CharSequenceCompilerLimitException("Source too long: " + length
+                    + " chars, " + maxSourceLength + " allowed.", classes.keySet(), diagnostics);
+        }
+    }
+
+    /**
+     * @return the options to pass to javac: those given to the constructor,
+     * and the diagnostic limits
+     */
+    private List<String> javacOptions() {
+        final int maxDiagnostics = this.maxDiagnostics;
+        if (maxDiagnostics == 0)
+            return options;
+        final List<String> result = new ArrayList<>(options);
+        Collections.addAll(result, "-Xmaxerrs", Integer.toString(maxDiagnostics), "-Xmaxwarns",
+                Integer.toString(maxDiagnostics));
+        return result;
+    }
+
+    /**
+     * Return the cached result for <var>key</var>, or compile the
+     * <var>classes</var> against <var>head</var> and cache the result. The
+     * diagnostics of the compilation are reported to <var>diagnostics</var>
+     * in either case.
+     *
+     * @param canceller stops the compilation
+     * @return the compiled classes, keyed by the names they were compiled
+     * under, or null if the compilation failed
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Class<T>> compileCached(final CompiledClassCache cache,
+                                                final ClassLoaderImpl head,
+                                                final CompiledClassCache.Key key,
+                                                final Map<String, CharSequence> classes,
+                                                final DiagnosticCollector<JavaFileObject> diagnostics,
+                                                final TaskCanceller canceller)
+            throws CharSequenceCompilerException {
+        // read before compiling, so that a failure is not taken for one
+        // against classes defined meanwhile
+        final long generation = head.getGeneration();
+        CompiledClassCache.Result result = cache.get(key, generation);
+        if (result == null) {
+            // collect this compilation's diagnostics separately, so that they
+            // can be replayed on later hits
+            final DiagnosticCollector<JavaFileObject> collected = new DiagnosticCollector<>();
+            try {
+                result = new CompiledClassCache.Result(compileSources(classes, collected,
+                        canceller), collected,
+                        generation);
+            } finally {
+                for (Diagnostic<? extends JavaFileObject> diagnostic : collected.getDiagnostics())
+                    diagnostics.report(diagnostic);
+            }
+            cache.put(key, result);
+        } else {
+            result.replay(diagnostics);
+        }
+        return result.failed() ? null : (Map<String, Class<T>>) (Map<String, ?>) result.classes();
+    }
+
+    /**
+     * Compile the <var>classes</var>, reporting to <var>diagnostics</var>, and
+     * load the compiled classes.
+     *
+     * @param canceller stops every run of javac the compilation takes
+     * @return the compiled classes, or null if the compilation failed
+     */
+    private Map<String, Class<T>> compileSources(final Map<String, CharSequence> classes,
+                                                 final DiagnosticCollector<JavaFileObject> diagnostics,
+                                                 final TaskCanceller canceller)
+            throws CharSequenceCompilerException {
+        final CompilerMetrics metrics = this.metrics;
+        if (metrics == null)
+            return compileSources(classes, diagnostics, null, canceller);
+        final PhaseTimer timer = new PhaseTimer(metrics);
+        final long start = System.nanoTime();
+        Map<String, Class<T>> compiled = null;
+        try {
+            compiled = compileSources(classes, diagnostics, timer, canceller);
+            return compiled;
+        } finally {
+            metrics.compilation(Collections.unmodifiableSet(classes.keySet()), compiled != null,
+                    System.nanoTime() - start, timer.getPhaseNanos());
+        }
+    }
+
+    /**
+     * Compile the <var>classes</var> as above, timing the phases with
+     * <var>timer</var> unless it is null.
+     */
+    private Map<String, Class<T>> compileSources(final Map<String, CharSequence> classes,
+                                                 final DiagnosticCollector<JavaFileObject> diagnostics,
+                                                 final PhaseTimer timer,
+                                                 final TaskCanceller canceller)
+            throws CharSequenceCompilerException {
+        final DependencyTracker tracker = incrementalTracker();
+        if (tracker != null)
+            return compileIncrementally(tracker, classes, diagnostics, timer, canceller);
+        final PersistentClassCache persistentCache = this.persistentCache;
+        final ClassLoaderImpl head = this.head;
+        final ClassLoaderImpl target = definitionMode == DefinitionMode.ISOLATED
+                ? new ClassLoaderImpl(head) : head;
+        byte[] persistentKey = null;
+        if (persistentCache != null) {
+            persistentKey = PersistentClassCache.key(options, classPath(classes, diagnostics),
+                    classes);
+            final Map<String, byte[]> classFiles = persistentCache.load(persistentKey, head);
+            if (classFiles != null) {
+                for (Entry<String, byte[]> entry : classFiles.entrySet()) {
+                    target.add(entry.getKey(), new JavaFileObjectImpl(entry.getKey(),
+                            entry.getValue()));
+                }
+                return loadClasses(target, classes.keySet(), diagnostics);
+            }
+        }
+        final List<JavaFileObjectImpl> outputs = runJavac(classes, diagnostics, timer, canceller);
+        if (outputs == null) {
+            return null;
+        }
+        // publish the class files only now, so that concurrent compilations
+        // never see the output of a failed one
+        for (JavaFileObjectImpl output : outputs)
+            target.add(output.getName(), output);
+        if (retainSources)
+            retain(classes);
+        if (persistentCache != null) {
+            persistentCache.store(persistentKey, byteCodes(outputs), dependencies(outputs));
+        }
+        return loadClasses(target, classes.keySet(), diagnostics);
+    }
+
+    /**
+     * @return the tracker of incremental compilations, or null if the next
+     * compilation is not incremental
+     */
+    private DependencyTracker incrementalTracker() {
+        return definitionMode == DefinitionMode.SHARED ? tracker : null;
+    }
+
+    /**
+     * Compile the stale sources among the <var>classes</var>, as explained at
+     * {@link #setIncremental(boolean)}, and load all the classes.
+     *
+     * @return the classes, or null if the compilation failed
+     */
+    private Map<String, Class<T>> compileIncrementally(final DependencyTracker tracker,
+                                                       final Map<String, CharSequence> classes,
+                                                       final DiagnosticCollector<JavaFileObject> diagnostics,
+                                                       final PhaseTimer timer,
+                                                       final TaskCanceller canceller)
+            throws CharSequenceCompilerException {
+        synchronized (tracker) {
+            final Set<String> stale = tracker.stale(classes);
+            if (stale.isEmpty())
+                return loadClasses(head, classes.keySet(), diagnostics);
+            final Map<String, CharSequence> sources = new HashMap<>();
+            for (String name : stale)
+                sources.put(name, classes.get(name));
+            List<JavaFileObjectImpl> outputs = runJavac(sources, diagnostics, timer, canceller);
+            if (outputs == null)
+                return null;
+            if (tracker.constantsChanged(sources, outputs)) {
+                // the other sources may have inlined the old values, but
+                // their class files do not tell, so compile them all
+                final int compiled = sources.size();
+                for (Entry<String, CharSequence> entry : classes.entrySet()) {
+                    if (entry.getValue() != null)
+                        sources.put(entry.getKey(), entry.getValue());
+                }
+                if (sources.size() > compiled) {
+                    outputs = runJavac(sources, diagnostics, timer, canceller);
+                    if (outputs == null)
+                        return null;
+                }
+            }
+            // a class which has been compiled before may have been loaded, so
+            // the new version goes into a new layer
+            ClassLoaderImpl target = head;
+            for (JavaFileObjectImpl output : outputs) {
+                if (target.layerFile(output.getName()) != null) {
+                    target = target.newLayer();
+                    break;
+                }
+            }
+            for (JavaFileObjectImpl output : outputs)
+                target.add(output.getName(), output);
+            tracker.compiled(sources, outputs);
+            head = target;
+            if (retainSources)
+                retain(sources);
+            return loadClasses(target, classes.keySet(), diagnostics);
+        }
+    }
+
+    /**
+     * Run javac on the <var>classes</var>, reporting to
+     * <var>diagnostics</var>, and timing the phases with <var>timer</var>
+     * unless it is null. Waiting for a file manager, too, counts against the
+     * timeout of <var>canceller</var>, which runs from the start of the call
+     * of the public method, however often it runs javac.
+     *
+     * @return the class files created by javac, or null if the compilation
+     * failed
+     */
+    private List<JavaFileObjectImpl> runJavac(final Map<String, CharSequence> classes,
+                                              final DiagnosticCollector<JavaFileObject> diagnostics,
+                                              final PhaseTimer timer,
+                                              final TaskCanceller canceller)
+            throws CharSequenceCompilerException {
+        final CachingFileManager fileManager = acquireFileManager(classes, diagnostics, canceller);
+        try {
+            final List<JavaFileObject> sources = new ArrayList<>();
+            final FileManagerImpl javaFileManager = newFileManager(fileManager, classes, sources,
+                    timer);
+            // Get a CompliationTask from the compiler and compile the sources
+            final CompilationTask task = compiler.getTask(null, javaFileManager, diagnostics,
+                    javacOptions(), null, sources);
+            if (timer != null)
+                timer.listen(task);
+            canceller.listen(task);
+            final Boolean result;
+            try {
+                result = task.call();
+            } catch (RuntimeException e) {
+                // javac wraps the exception of the canceller
+                stopped(canceller, classes, diagnostics);
+                throw e;
+            }
+            if (result == null || !result) {
+                stopped(canceller, classes, diagnostics);
+                return null;
+            }
+            return javaFileManager.getOutputs();
+        } finally {
+            fileManagers.release(fileManager);
+        }
+    }
+
+    /**
+     * Create a file manager for one compilation of the <var>classes</var>,
+     * which holds their sources and finds the classes compiled before.
+     *
+     * @param fileManager the file manager of the class path
+     * @param sources     receives the source files of the <var>classes</var>
+     * @param timer       times the listings, or null
+     */
+    private FileManagerImpl newFileManager(final CachingFileManager fileManager,
+                                           final Map<String, CharSequence> classes,
+                                           final List<JavaFileObject> sources,
+                                           final PhaseTimer timer) {
+        // create our FileManager which chains to the default file manager
+        // and our ClassLoader; it holds only this compilation's files
+        final FileManagerImpl javaFileManager = new FileManagerImpl(fileManager, head,
+                classPathPackages, timer);
         for (Entry<String, CharSequence> entry : classes.entrySet()) {
             String qualifiedClassName = entry.getKey();
             CharSequence javaSource = entry.getValue();
@@ -197,7 +1082,7 @@ public class CharSequenceCompiler<T> {
                         : qualifiedClassName.substring(dotPos + 1);
                 final String packageName = dotPos == -1 ? "" : qualifiedClassName
                         .substring(0, dotPos);
-                final JavaFileObjectImpl source = new JavaFileObjectImpl(className,
+                final JavaFileObjectImpl source = new JavaFileObjectImpl(qualifiedClassName,
                         javaSource);
                 sources.add(source);
                 // Store the source file in the FileManager via package/class
@@ -207,35 +1092,96 @@ public class CharSequenceCompiler<T> {
                         className + JAVA_EXTENSION, source);
             }
         }
-        // Get a CompliationTask from the compiler and compile the sources
-        final CompilationTask task = compiler.getTask(null, javaFileManager, diagnostics,
-                options, null, sources);
-        final Boolean result = task.call();
-        if (result == null || !result) {
-            throw new CharSequenceCompilerException("Compilation failed.", classes
-                    .keySet(), diagnostics);
+        return javaFileManager;
+    }
+
+    private void retain(final Map<String, CharSequence> classes) {
+        synchronized (retainedSources) {
+            for (Entry<String, CharSequence> entry : classes.entrySet()) {
+                if (entry.getValue() == null)
+                    continue;
+                final CharSequence previous = retainedSources.put(entry.getKey(), entry.getValue());
+                retainedSourceChars += entry.getValue().length()
+                        - (previous == null ? 0 : previous.length());
+            }
         }
+    }
+
+    /**
+     * @return the class path the <var>classes</var> are compiled against
+     */
+    private List<File> classPath(final Map<String, CharSequence> classes,
+                                 final DiagnosticCollector<JavaFileObject> diagnostics)
+            throws CharSequenceCompilerException {
+        try {
+            return fileManagers.getClassPath();
+        } catch (IOException e) {
+            throw new CharSequenceCompilerException(classes.keySet(), e, diagnostics);
+        }
+    }
+
+    /**
+     * For each class name, get its compiled class from <var>loader</var> and
+     * put it in the output map
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Class<T>> loadClasses(final ClassLoaderImpl loader,
+                                              final Set<String> qualifiedClassNames,
+                                              final DiagnosticCollector<JavaFileObject> diagnostics)
+            throws CharSequenceCompilerException {
         try {
-            // For each class name in the inpput map, get its compiled
-            // class and put it in the output map
             Map<String, Class<T>> compiled = new HashMap<>();
-            for (String qualifiedClassName : classes.keySet()) {
-                final Class<T> newClass = loadClass(qualifiedClassName);
+            for (String qualifiedClassName : qualifiedClassNames) {
+                final Class<T> newClass = (Class<T>) loader.loadClass(qualifiedClassName);
                 compiled.put(qualifiedClassName, newClass);
             }
             return compiled;
         } catch (ClassNotFoundException | IllegalArgumentException | SecurityException e) {
-            throw new CharSequenceCompilerException(classes.keySet(), e, diagnostics);
+            throw new CharSequenceCompilerException(qualifiedClassNames, e, diagnostics);
         }
     }
 
+    /**
+     * @return a map of the binary names of <var>outputs</var> to their byte code
+     */
+    private static Map<String, byte[]> byteCodes(final List<JavaFileObjectImpl> outputs) {
+        final Map<String, byte[]> byteCodes = new LinkedHashMap<>();
+        for (JavaFileObjectImpl output : outputs)
+            byteCodes.put(output.getName(), output.getByteCode());
+        return byteCodes;
+    }
+
+    /**
+     * @return the classes compiled earlier by this instance which the
+     * <var>outputs</var> refer to, and those which declare compile-time
+     * constants: a class which uses a constant has its value inlined and
+     * keeps no reference to the class declaring it, so it may depend on any
+     * of them
+     */
+    private Map<String, JavaFileObjectImpl> dependencies(final List<JavaFileObjectImpl> outputs) {
+        final Set<String> names = new HashSet<>();
+        for (JavaFileObjectImpl output : outputs)
+            names.add(output.getName());
+        final Set<String> referenced = head.constantClassNames();
+        for (JavaFileObjectImpl output : outputs)
+            referenced.addAll(ClassFiles.referencedClassNames(output.getByteCode()));
+        final Map<String, JavaFileObjectImpl> dependencies = new TreeMap<>();
+        for (String name : referenced) {
+            final JavaFileObjectImpl file = head.layerFile(name);
+            if (file != null && !names.contains(name))
+                dependencies.put(name, file);
+        }
+        return dependencies;
+    }
+
     /**
      * Load a class that was generated by this instance or accessible from its
      * parent class loader. Use this method if you need access to additional
      * classes compiled by
      * {@link #compile(String, CharSequence, DiagnosticCollector, Class...) compile()},
      * for example if the primary class contained nested classes or additional
-     * non-public classes.
+     * non-public classes. Classes compiled in
+     * {@link DefinitionMode#ISOLATED} mode are not found by this method.
      *
      * @param qualifiedClassName the name of the compiled class you wish to load
      * @return a Class instance named by <var>qualifiedClassName</var>
@@ -244,7 +1190,7 @@ public class CharSequenceCompiler<T> {
     @SuppressWarnings("unchecked")
     public Class<T> loadClass(final String qualifiedClassName)
             throws ClassNotFoundException {
-        return (Class<T>) classLoader.loadClass(qualifiedClassName);
+        return (Class<T>) head.loadClass(qualifiedClassName);
     }
 
     /**
@@ -280,10 +1226,31 @@ public class CharSequenceCompiler<T> {
     }
 
     /**
-     * @return This compiler's class loader.
+     * @return This compiler's class loader; after an incremental compilation
+     * which recompiled classes, the class loader of their current versions.
      */
     public ClassLoader getClassLoader() {
-        return javaFileManager.getClassLoader();
+        return head;
+    }
+
+    /**
+     * Write the classes this instance holds to a jar, so that a later run of
+     * the JVM can load them with
+     * {@link ExportedClasses#newClassLoader(Path, ClassLoader)} instead of
+     * compiling them again. These are the classes of
+     * {@link #getClassLoader()}: all those compiled in
+     * {@link DefinitionMode#SHARED} mode, in their current versions if they
+     * were compiled incrementally. Classes compiled in
+     * {@link DefinitionMode#ISOLATED} mode are not held, so not written.
+     *
+     * @param jar the jar file, which is replaced if it exists
+     * @return the binary names of the classes written, in order
+     * @throws IOException if the jar cannot be written
+     */
+    public List<String> exportJar(final Path jar) throws IOException {
+        final List<JavaFileObjectImpl> files = new ArrayList<>();
+        head.list("", true, files);
+        return ExportedClasses.write(jar, files);
     }
 }
 
@@ -300,6 +1267,18 @@ final class FileManagerImpl extends ForwardingJavaFileManager<JavaFileManager> {
     // Internal map of filename URIs to JavaFileObjects.
     private final Map<URI, JavaFileObject> fileObjects = new HashMap<>();
 
+    // The source files among the fileObjects, by package
+    private final PackageIndex<JavaFileObject> sources = new PackageIndex<>();
+
+    // class files created by the compiler
+    private final List<JavaFileObjectImpl> outputs = new ArrayList<>();
+
+    // the class path packages to list; null for all
+    private final Set<String> classPathPackages;
+
+    // times the listings; null if metrics are off
+    private final PhaseTimer timer;
+
     /**
      * Construct a new FileManager which forwards to the <var>fileManager</var>
      * for source and to the <var>classLoader</var> for classes
@@ -310,8 +1289,22 @@ final class FileManagerImpl extends ForwardingJavaFileManager<JavaFileManager> {
      *                    classes will require when compiling them.
      */
     public FileManagerImpl(JavaFileManager fileManager, ClassLoaderImpl classLoader) {
+        this(fileManager, classLoader, null, null);
+    }
+
+    /**
+     * Construct a new FileManager which lists only the given packages, and
+     * their subpackages, of the <var>fileManager</var>'s class path.
+     *
+     * @param classPathPackages the package names, or null to list all packages
+     * @param timer             times each listing, or null
+     */
+    FileManagerImpl(JavaFileManager fileManager, ClassLoaderImpl classLoader,
+                    Set<String> classPathPackages, PhaseTimer timer) {
         super(fileManager);
         this.classLoader = classLoader;
+        this.classPathPackages = classPathPackages;
+        this.timer = timer;
     }
 
     /**
@@ -353,6 +1346,12 @@ final class FileManagerImpl extends ForwardingJavaFileManager<JavaFileManager> {
     public void putFileForInput(StandardLocation location, String packageName,
                                 String relativeName, JavaFileObject file) {
         fileObjects.put(uri(location, packageName, relativeName), file);
+        if (location == StandardLocation.SOURCE_PATH && file.getKind() == Kind.SOURCE
+                && relativeName.endsWith(CharSequenceCompiler.JAVA_EXTENSION)) {
+            final String className = relativeName.substring(0,
+                    relativeName.length() - CharSequenceCompiler.JAVA_EXTENSION.length());
+            sources.put(packageName.isEmpty() ? className : packageName + '.' + className, file);
+        }
     }
 
     /**
@@ -364,8 +1363,8 @@ final class FileManagerImpl extends ForwardingJavaFileManager<JavaFileManager> {
     }
 
     /**
-     * Create a JavaFileImpl for an output class file and store it in the
-     * classloader.
+     * Create a JavaFileImpl for an output class file. The caller adds it to
+     * the class loader once the compilation succeeds.
      *
      * @see javax.tools.ForwardingJavaFileManager#getJavaFileForOutput(javax.tools.JavaFileManager.Location,
      * java.lang.String, javax.tools.JavaFileObject.Kind,
@@ -374,11 +1373,21 @@ final class FileManagerImpl extends ForwardingJavaFileManager<JavaFileManager> {
     @Override
     public JavaFileObject getJavaFileForOutput(Location location, String qualifiedName,
                                                Kind kind, FileObject outputFile) {
-        JavaFileObject file = new JavaFileObjectImpl(qualifiedName, kind);
-        classLoader.add(qualifiedName, file);
+        // the output file is the class file of a source file
+        JavaFileObjectImpl file = new JavaFileObjectImpl(qualifiedName, kind,
+                outputFile instanceof JavaFileObjectImpl
+                        ? ((JavaFileObjectImpl) outputFile).getBinaryName() : null);
+        outputs.add(file);
         return file;
     }
 
+    /**
+     * @return the class files created by the compiler
+     */
+    List<JavaFileObjectImpl> getOutputs() {
+        return Collections.unmodifiableList(outputs);
+    }
+
     @Override
     public ClassLoader getClassLoader(JavaFileManager.Location location) {
         return classLoader;
@@ -390,191 +1399,49 @@ final class FileManagerImpl extends ForwardingJavaFileManager<JavaFileManager> {
         // For our JavaFileImpl instances, return the file's name, else
         // simply run the default implementation
         if (file instanceof JavaFileObjectImpl)
-            result = file.getName();
+            result = ((JavaFileObjectImpl) file).getBinaryName();
         else
             result = super.inferBinaryName(loc, file);
         return result;
     }
 
+    /**
+     * @return whether the class path package <var>packageName</var> may be
+     * listed
+     */
+    private boolean isListed(final String packageName) {
+        if (classPathPackages == null || classPathPackages.contains(packageName))
+            return true;
+        for (int dotPos = packageName.lastIndexOf('.'); dotPos != -1;
+             dotPos = packageName.lastIndexOf('.', dotPos - 1)) {
+            if (classPathPackages.contains(packageName.substring(0, dotPos)))
+                return true;
+        }
+        return false;
+    }
+
     @Override
     public Iterable<JavaFileObject> list(Location location, String packageName,
                                          Set<Kind> kinds, boolean recurse) throws IOException {
-        Iterable<JavaFileObject> result = super.list(location, packageName, kinds,
-                recurse);
+        final long start = timer == null ? 0 : System.nanoTime();
+        Iterable<JavaFileObject> result = location == StandardLocation.CLASS_PATH
+                && !isListed(packageName) ? Collections.<JavaFileObject>emptyList()
+                : super.list(location, packageName, kinds, recurse);
         ArrayList<JavaFileObject> files = new ArrayList<>();
+        // only look at the requested package, as javac lists many packages
+        // per compilation and the class loader may hold many classes
         if (location == StandardLocation.CLASS_PATH
                 && kinds.contains(JavaFileObject.Kind.CLASS)) {
-            for (JavaFileObject file : fileObjects.values()) {
-                if (file.getKind() == Kind.CLASS && file.getName().startsWith(packageName))
-                    files.add(file);
-            }
-            files.addAll(classLoader.files());
+            classLoader.list(packageName, recurse, files);
         } else if (location == StandardLocation.SOURCE_PATH
                 && kinds.contains(JavaFileObject.Kind.SOURCE)) {
-            for (JavaFileObject file : fileObjects.values()) {
-                if (file.getKind() == Kind.SOURCE && file.getName().startsWith(packageName))
-                    files.add(file);
-            }
+            sources.list(packageName, recurse, files);
         }
         for (JavaFileObject file : result) {
             files.add(file);
         }
+        if (timer != null)
+            timer.record(CompilerMetrics.Phase.LIST, System.nanoTime() - start);
         return files;
     }
 }
-
-/**
- * A JavaFileObject which contains either the source text or the compiler
- * generated class. This class is used in two cases.
- * <ol>
- * <li>This instance uses it to store the source which is passed to the
- * compiler. This uses the
- * {@link JavaFileObjectImpl#JavaFileObjectImpl(String, CharSequence)}
- * constructor.
- * <li>The Java compiler also creates instances (indirectly through the
- * FileManagerImplFileManager) when it wants to create a JavaFileObject for the
- * .class output. This uses the
- * {@link JavaFileObjectImpl#JavaFileObjectImpl(String, JavaFileObject.Kind)}
- * constructor.
- * </ol>
- * This class does not attempt to reuse instances (there does not seem to be a
- * need, as it would require adding a Map for the purpose, and this would also
- * prevent garbage collection of class byte code.)
- */
-final class JavaFileObjectImpl extends SimpleJavaFileObject {
-    // If kind == CLASS, this stores byte code from openOutputStream
-    private ByteArrayOutputStream byteCode;
-
-    // if kind == SOURCE, this contains the source text
-    private final CharSequence source;
-
-    /**
-     * Construct a new instance which stores source
-     *
-     * @param baseName the base name
-     * @param source   the source code
-     */
-    JavaFileObjectImpl(final String baseName, final CharSequence source) {
-        super(CharSequenceCompiler.toURI(baseName + CharSequenceCompiler.JAVA_EXTENSION),
-                Kind.SOURCE);
-        this.source = source;
-    }
-
-    /**
-     * Construct a new instance
-     *
-     * @param name the file name
-     * @param kind the kind of file
-     */
-    JavaFileObjectImpl(final String name, final Kind kind) {
-        super(CharSequenceCompiler.toURI(name), kind);
-        source = null;
-    }
-
-    /**
-     * Return the source code content
-     *
-     * @see javax.tools.SimpleJavaFileObject#getCharContent(boolean)
-     */
-    @Override
-    public CharSequence getCharContent(final boolean ignoreEncodingErrors)
-            throws UnsupportedOperationException {
-        if (source == null)
-            throw new UnsupportedOperationException("getCharContent()");
-        return source;
-    }
-
-    /**
-     * Return an input stream for reading the byte code
-     *
-     * @see javax.tools.SimpleJavaFileObject#openInputStream()
-     */
-    @Override
-    public InputStream openInputStream() {
-        return new ByteArrayInputStream(getByteCode());
-    }
-
-    /**
-     * Return an output stream for writing the bytecode
-     *
-     * @see javax.tools.SimpleJavaFileObject#openOutputStream()
-     */
-    @Override
-    public OutputStream openOutputStream() {
-        byteCode = new ByteArrayOutputStream();
-        return byteCode;
-    }
-
-    /**
-     * @return the byte code generated by the compiler
-     */
-    byte[] getByteCode() {
-        return byteCode.toByteArray();
-    }
-}
-
-/**
- * A custom ClassLoader which maps class names to JavaFileObjectImpl instances.
- */
-final class ClassLoaderImpl extends ClassLoader {
-    private final Map<String, JavaFileObject> classes = new HashMap<>();
-
-    ClassLoaderImpl(final ClassLoader parentClassLoader) {
-        super(parentClassLoader);
-    }
-
-    /**
-     * @return A collection of JavaFileObject instances for the classes in the
-     * class loader.
-     */
-    Collection<JavaFileObject> files() {
-        return Collections.unmodifiableCollection(classes.values());
-    }
-
-    @Override
-    protected Class<?> findClass(final String qualifiedClassName)
-            throws ClassNotFoundException {
-        JavaFileObject file = classes.get(qualifiedClassName);
-        if (file != null) {
-            byte[] bytes = ((JavaFileObjectImpl) file).getByteCode();
-            return defineClass(qualifiedClassName, bytes, 0, bytes.length);
-        }
-        // Workaround for "feature" in Java 6
-        // see http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6434149
-        try {
-            return Class.forName(qualifiedClassName);
-        } catch (ClassNotFoundException nf) {
-            // Ignore and fall through
-        }
-        return super.findClass(qualifiedClassName);
-    }
-
-    /**
-     * Add a class name/JavaFileObject mapping
-     *
-     * @param qualifiedClassName the name
-     * @param javaFile           the file associated with the name
-     */
-    void add(final String qualifiedClassName, final JavaFileObject javaFile) {
-        classes.put(qualifiedClassName, javaFile);
-    }
-
-    @Override
-    protected synchronized Class<?> loadClass(final String name, final boolean resolve)
-            throws ClassNotFoundException {
-        return super.loadClass(name, resolve);
-    }
-
-    @Override
-    public InputStream getResourceAsStream(final String name) {
-        if (name.endsWith(".class")) {
-            String qualifiedClassName = name.substring(0,
-                    name.length() - ".class".length()).replace('/', '.');
-            JavaFileObjectImpl file = (JavaFileObjectImpl) classes.get(qualifiedClassName);
-            if (file != null) {
-                return new ByteArrayInputStream(file.getByteCode());
-            }
-        }
-        return super.getResourceAsStream(name);
-    }
-}
@@ -0,0 +1,23 @@
+package javaxtools.compiler;
+
+import java.util.Set;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+/**
+ * An exception thrown when a compilation exceeds a limit of its compiler,
+ * such as its
+ * {@link CharSequenceCompiler#setMaxSourceLength(long) maximum source length},
+ * rather than failing because of errors in the sources. Compiling the same
+ * sources again fails the same way.
+ */
+public class CharSequenceCompilerLimitException extends CharSequenceCompilerException {
+    private static final long serialVersionUID = 1L;
+
+    public CharSequenceCompilerLimitException(String message,
+                                              Set<String> qualifiedClassNames,
+                                              DiagnosticCollector<JavaFileObject> diagnostics) {
+        super(message, qualifiedClassNames, diagnostics);
+    }
+}
@@ -0,0 +1,22 @@
+package javaxtools.compiler;
+
+import java.util.Set;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+/**
+ * An exception thrown when a compilation takes longer than the
+ * {@link CharSequenceCompiler#setTimeout(long, java.util.concurrent.TimeUnit)
+ * timeout} of its compiler, and is stopped. The diagnostics are those
+ * reported until then.
+ */
+public class CharSequenceCompilerTimeoutException extends CharSequenceCompilerLimitException {
+    private static final long serialVersionUID = 1L;
+
+    public CharSequenceCompilerTimeoutException(String message,
+                                                Set<String> qualifiedClassNames,
+                                                DiagnosticCollector<JavaFileObject> diagnostics) {
+        super(message, qualifiedClassNames, diagnostics);
+    }
+}
@@ -0,0 +1,209 @@
+package javaxtools.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Utilities for reading compiled class files.
+ */
+final class ClassFiles {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    // constant pool tags, see the JVM specification, section 4.4
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private ClassFiles() {
+    }
+
+    /**
+     * Return the binary names of the classes a class file refers to, either as
+     * class constants or within field and method descriptors. The result is a
+     * superset of the classes needed to link the class, and may contain its own
+     * name.
+     *
+     * @param classFile the content of a class file
+     * @return the binary names, such as {@code java.util.Map$Entry}
+     * @throws IllegalArgumentException if <var>classFile</var> is not a valid
+     *                                  class file
+     */
+    static Set<String> referencedClassNames(final byte[] classFile) {
+        final Set<String> names = new HashSet<>();
+        try {
+            final ConstantPool pool = ConstantPool.read(open(classFile));
+            for (int i = 1; i < pool.tags.length; i++) {
+                if (pool.tags[i] == CONSTANT_CLASS) {
+                    final String name = pool.utf8((Integer) pool.values[i]);
+                    if (name.startsWith("[")) // array classes are named by descriptor
+                        addDescriptorNames(name, names);
+                    else
+                        names.add(name.replace('/', '.'));
+                } else if (pool.tags[i] == CONSTANT_UTF8) {
+                    addDescriptorNames((String) pool.values[i], names);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("truncated class file", e);
+        }
+        return names;
+    }
+
+    /**
+     * Return the compile-time constants a class file declares: its fields
+     * with a ConstantValue attribute. Other classes do not refer to these
+     * fields, but have their values inlined, and javac does not always keep a
+     * reference to the declaring class, for example not for a case label, so
+     * the constant pool of a class may not show that it depends on them.
+     *
+     * @param classFile the content of a class file
+     * @return the constants, each as its name, descriptor and value, such as
+     * {@code MAX:I=10}
+     * @throws IllegalArgumentException if <var>classFile</var> is not a valid
+     *                                  class file
+     */
+    static Set<String> constants(final byte[] classFile) {
+        final Set<String> constants = new HashSet<>();
+        try {
+            final DataInputStream in = open(classFile);
+            final ConstantPool pool = ConstantPool.read(in);
+            in.skipBytes(6); // access flags, this class, super class
+            in.skipBytes(2 * in.readUnsignedShort()); // interfaces
+            for (int fields = in.readUnsignedShort(); fields > 0; fields--) {
+                in.skipBytes(2); // access flags
+                final String field = pool.utf8(in.readUnsignedShort()) + ':'
+                        + pool.utf8(in.readUnsignedShort());
+                for (int attributes = in.readUnsignedShort(); attributes > 0; attributes--) {
+                    final String attribute = pool.utf8(in.readUnsignedShort());
+                    final int length = in.readInt();
+                    if ("ConstantValue".equals(attribute)) {
+                        final int index = in.readUnsignedShort();
+                        final Object value = pool.tags[index] == CONSTANT_STRING
+                                ? '"' + pool.utf8((Integer) pool.values[index])
+                                : pool.values[index];
+                        constants.add(field + '=' + value);
+                    } else {
+                        in.skipBytes(length);
+                    }
+                }
+            }
+        } catch (IOException | ClassCastException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("bad class file", e);
+        }
+        return constants;
+    }
+
+    private static DataInputStream open(final byte[] classFile) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (in.readInt() != MAGIC)
+            throw new IllegalArgumentException("not a class file");
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+        return in;
+    }
+
+    /**
+     * The constant pool of a class file, as far as it is needed here: the
+     * tag of each entry, and the value of the UTF8 entries, the numbers, and
+     * the index of the name of class and string entries.
+     */
+    private static final class ConstantPool {
+        final int[] tags;
+
+        final Object[] values;
+
+        private ConstantPool(final int count) {
+            tags = new int[count];
+            values = new Object[count];
+        }
+
+        String utf8(final int index) {
+            return (String) values[index];
+        }
+
+        static ConstantPool read(final DataInputStream in) throws IOException {
+            final ConstantPool pool = new ConstantPool(in.readUnsignedShort());
+            for (int i = 1; i < pool.tags.length; i++) {
+                final int tag = in.readUnsignedByte();
+                pool.tags[i] = tag;
+                switch (tag) {
+                    case CONSTANT_UTF8:
+                        pool.values[i] = in.readUTF();
+                        break;
+                    case CONSTANT_CLASS:
+                    case CONSTANT_STRING:
+                        pool.values[i] = in.readUnsignedShort();
+                        break;
+                    case CONSTANT_METHOD_TYPE:
+                    case CONSTANT_MODULE:
+                    case CONSTANT_PACKAGE:
+                        in.skipBytes(2);
+                        break;
+                    case CONSTANT_METHOD_HANDLE:
+                        in.skipBytes(3);
+                        break;
+                    case CONSTANT_INTEGER:
+                        pool.values[i] = in.readInt();
+                        break;
+                    case CONSTANT_FLOAT:
+                        pool.values[i] = in.readFloat();
+                        break;
+                    case CONSTANT_FIELDREF:
+                    case CONSTANT_METHODREF:
+                    case CONSTANT_INTERFACE_METHODREF:
+                    case CONSTANT_NAME_AND_TYPE:
+                    case CONSTANT_DYNAMIC:
+                    case CONSTANT_INVOKE_DYNAMIC:
+                        in.skipBytes(4);
+                        break;
+                    case CONSTANT_LONG:
+                        // eight byte constants take two entries
+                        pool.values[i++] = in.readLong();
+                        break;
+                    case CONSTANT_DOUBLE:
+                        pool.values[i++] = in.readDouble();
+                        break;
+                    default:
+                        throw new IllegalArgumentException("bad constant pool tag " + tag);
+                }
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Add the class names found in the form {@code Lname;} within a descriptor
+     * or signature.
+     */
+    private static void addDescriptorNames(final String descriptor, final Set<String> names) {
+        for (int start = descriptor.indexOf('L'); start != -1;
+             start = descriptor.indexOf('L', start + 1)) {
+            int end = start + 1;
+            while (end < descriptor.length() && isNamePart(descriptor.charAt(end)))
+                end++;
+            if (end > start + 1 && end < descriptor.length() && descriptor.charAt(end) == ';')
+                names.add(descriptor.substring(start + 1, end).replace('/', '.'));
+        }
+    }
+
+    private static boolean isNamePart(final char c) {
+        return c == '/' || Character.isJavaIdentifierPart(c);
+    }
+}
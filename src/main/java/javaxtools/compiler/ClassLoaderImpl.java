@@ -0,0 +1,275 @@
+package javaxtools.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A custom ClassLoader which maps class names to JavaFileObjectImpl instances.
+ * <p/>
+ * Thread safety: the class loader is registered as parallel capable, so
+ * classes are loaded under a lock per class name rather than on the loader.
+ * Compilations publish their class files only once they succeed, while other
+ * threads load classes, so the class files are held in a concurrent map for
+ * lookups, and the classes loaded, from them or by the parent, in another:
+ * loading a class which has been loaded before takes no lock. The package
+ * index for listings is guarded by this class loader.
+ */
+final class ClassLoaderImpl extends ClassLoader {
+    static {
+        registerAsParallelCapable();
+    }
+
+    // the class files by binary name
+    private final Map<String, JavaFileObjectImpl> files = new ConcurrentHashMap<>();
+
+    // the classes loaded, defined from the files or by the parent, by binary
+    // name
+    private final Map<String, Class<?>> loaded = new ConcurrentHashMap<>();
+
+    // the files by package, for listings; guarded by this
+    private final PackageIndex<JavaFileObjectImpl> classes = new PackageIndex<>();
+
+    // whether this is a layer, whose classes override its parent's
+    private final boolean layer;
+
+    // if this is a layer, the class files of its parent layers which it may
+    // override; handed over to the next layer when one is created, as only
+    // the newest layer is usually listed
+    private PackageIndex<JavaFileObjectImpl> inherited;
+
+    // the names of the class files which declare compile-time constants;
+    // guarded by this
+    private final Set<String> constantClassNames = new HashSet<>();
+
+    // the total length of the byte code in classes; guarded by this
+    private long retainedBytes;
+
+    // counts the class files added; written while holding this
+    private volatile long generation;
+
+    // receives the time of each class definition; null if metrics are off
+    private volatile CompilerMetrics metrics;
+
+    /**
+     * @param parentClassLoader the parent; if it is a ClassLoaderImpl, this
+     *                          class loader reports to the same metrics
+     */
+    ClassLoaderImpl(final ClassLoader parentClassLoader) {
+        this(parentClassLoader, false);
+    }
+
+    private ClassLoaderImpl(final ClassLoader parentClassLoader, final boolean layer) {
+        super(parentClassLoader);
+        if (parentClassLoader instanceof ClassLoaderImpl)
+            metrics = ((ClassLoaderImpl) parentClassLoader).metrics;
+        this.layer = layer;
+    }
+
+    /**
+     * Create a layer on top of this class loader: a child whose classes take
+     * precedence over this one's and its parent layers', and whose listings
+     * include theirs. No more classes should be added to this class loader.
+     */
+    ClassLoaderImpl newLayer() {
+        final ClassLoaderImpl child = new ClassLoaderImpl(this, true);
+        synchronized (this) {
+            final PackageIndex<JavaFileObjectImpl> index = inherited != null ? inherited
+                    : new PackageIndex<JavaFileObjectImpl>();
+            for (JavaFileObjectImpl file : classes.values())
+                index.put(file.getBinaryName(), file);
+            inherited = null;
+            child.inherited = index;
+        }
+        return child;
+    }
+
+    /**
+     * @param metrics the metrics to report class definitions to, or null
+     */
+    void setMetrics(final CompilerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the class loader this layer was created on, or null if this is
+     * not a layer
+     */
+    ClassLoaderImpl getParentLayer() {
+        return layer ? (ClassLoaderImpl) getParent() : null;
+    }
+
+    /**
+     * Add the class files of a package to <var>result</var>: those of this
+     * class loader, and those of its parent layers which it does not
+     * override.
+     *
+     * @param packageName the package name, "" for the unnamed package
+     * @param recurse     whether to add the class files of subpackages, too
+     */
+    void list(final String packageName, final boolean recurse,
+              final Collection<? super JavaFileObjectImpl> result) {
+        final List<JavaFileObjectImpl> inheritedFiles = new ArrayList<>();
+        final boolean handedOver;
+        synchronized (this) {
+            classes.list(packageName, recurse, result);
+            if (!layer)
+                return;
+            handedOver = inherited == null;
+            if (!handedOver)
+                inherited.list(packageName, recurse, inheritedFiles);
+        }
+        if (handedOver)
+            // a newer layer has taken the index over; ask the parent layers
+            getParentLayer().list(packageName, recurse, inheritedFiles);
+        for (JavaFileObjectImpl file : inheritedFiles) {
+            if (file(file.getBinaryName()) == null)
+                result.add(file);
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(final String qualifiedClassName)
+            throws ClassNotFoundException {
+        JavaFileObjectImpl file = file(qualifiedClassName);
+        if (file != null) {
+            byte[] bytes = file.getByteCode();
+            final CompilerMetrics metrics = this.metrics;
+            if (metrics == null)
+                return defineClass(qualifiedClassName, bytes, 0, bytes.length);
+            final long start = System.nanoTime();
+            try {
+                return defineClass(qualifiedClassName, bytes, 0, bytes.length);
+            } finally {
+                metrics.phase(CompilerMetrics.Phase.DEFINE, System.nanoTime() - start);
+            }
+        }
+        // Workaround for "feature" in Java 6
+        // see http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6434149
+        try {
+            return Class.forName(qualifiedClassName);
+        } catch (ClassNotFoundException nf) {
+            // Ignore and fall through
+        }
+        return super.findClass(qualifiedClassName);
+    }
+
+    /**
+     * @return the class file named <var>qualifiedClassName</var>, or null if
+     * this class loader has none
+     */
+    JavaFileObjectImpl file(final String qualifiedClassName) {
+        return files.get(qualifiedClassName);
+    }
+
+    /**
+     * @return the class file named <var>qualifiedClassName</var> in this class
+     * loader or, failing that, in its parent layers, or null if none has it
+     */
+    JavaFileObjectImpl layerFile(final String qualifiedClassName) {
+        for (ClassLoaderImpl layer = this; layer != null; layer = layer.getParentLayer()) {
+            final JavaFileObjectImpl file = layer.file(qualifiedClassName);
+            if (file != null)
+                return file;
+        }
+        return null;
+    }
+
+    /**
+     * Add a class name/JavaFileObject mapping
+     *
+     * @param qualifiedClassName the name
+     * @param javaFile           the file associated with the name
+     */
+    synchronized void add(final String qualifiedClassName, final JavaFileObjectImpl javaFile) {
+        final JavaFileObjectImpl previous = classes.put(qualifiedClassName, javaFile);
+        files.put(qualifiedClassName, javaFile);
+        // the parent's class of that name, if it was loaded, is overridden now
+        final Class<?> c = loaded.get(qualifiedClassName);
+        if (c != null && c.getClassLoader() != this)
+            loaded.remove(qualifiedClassName, c);
+        retainedBytes += javaFile.getByteCode().length
+                - (previous == null ? 0 : previous.getByteCode().length);
+        if (ClassFiles.constants(javaFile.getByteCode()).isEmpty())
+            constantClassNames.remove(qualifiedClassName);
+        else
+            constantClassNames.add(qualifiedClassName);
+        generation++;
+    }
+
+    /**
+     * @return the names of the class files of this class loader and its
+     * parent layers which declare compile-time constants, whose values other
+     * classes may have inlined
+     */
+    Set<String> constantClassNames() {
+        final Set<String> names = new HashSet<>();
+        for (ClassLoaderImpl layer = this; layer != null; layer = layer.getParentLayer()) {
+            synchronized (layer) {
+                names.addAll(layer.constantClassNames);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return a number which changes whenever a class file is added, so that
+     * compilations against this class loader may find other classes
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the total length of the byte code held by this class loader
+     */
+    synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve)
+            throws ClassNotFoundException {
+        Class<?> c = loaded.get(name);
+        if (c == null) {
+            // Classes compiled into this loader take precedence over the
+            // parent's, so that an isolated loader is not shadowed by the
+            // shared one.
+            if (file(name) == null) {
+                c = super.loadClass(name, false);
+            } else {
+                synchronized (getClassLoadingLock(name)) {
+                    c = findLoadedClass(name);
+                    if (c == null)
+                        c = findClass(name);
+                }
+            }
+            loaded.put(name, c);
+            // a class file of that name may have been added meanwhile
+            if (c.getClassLoader() != this && file(name) != null)
+                loaded.remove(name, c);
+        }
+        if (resolve)
+            resolveClass(c);
+        return c;
+    }
+
+    @Override
+    public InputStream getResourceAsStream(final String name) {
+        if (name.endsWith(".class")) {
+            String qualifiedClassName = name.substring(0,
+                    name.length() - ".class".length()).replace('/', '.');
+            JavaFileObjectImpl file = file(qualifiedClassName);
+            if (file != null) {
+                return new ByteArrayInputStream(file.getByteCode());
+            }
+        }
+        return super.getResourceAsStream(name);
+    }
+}
@@ -0,0 +1,395 @@
+package javaxtools.compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+/**
+ * An asynchronous front end to a {@link CharSequenceCompiler}. Single-class
+ * compile requests are queued, and requests arriving within a short window
+ * are coalesced into one
+ * {@link CharSequenceCompiler#compile(Map, DiagnosticCollector) compile(Map)}
+ * call, so that the fixed cost of running javac is shared among them.
+ * <p/>
+ * There are two priority lanes. {@link Priority#INTERACTIVE} requests are
+ * always taken before {@link Priority#BATCH} ones, and a batch started by an
+ * interactive request does not wait for the window to pass; it only picks up
+ * requests which are already queued. The queue is bounded: when it is full,
+ * {@link #submit(String, CharSequence, Priority) submit} throws
+ * {@link RejectedExecutionException} rather than letting latency grow without
+ * bound.
+ * <p/>
+ * If a coalesced batch fails to compile, the requests whose sources have
+ * errors fail with their own diagnostics and the others are compiled again
+ * without them, so one bad source does not fail its neighbours. A batch which
+ * exceeds a limit of the compiler, such as its timeout, fails as a whole with
+ * the compiler's {@link CharSequenceCompilerLimitException}, and is not
+ * compiled again; batches are kept within the compiler's
+ * {@link CharSequenceCompiler#getMaxSourceLength() maximum source length}, so
+ * only a request which exceeds it on its own is rejected for its length.
+ * <p/>
+ * Thread safety: this class is thread safe.
+ */
+public class CompileService<T> {
+    /**
+     * The lane of a compile request.
+     */
+    public enum Priority {
+        /**
+         * A user is waiting for the result; taken first and never delayed to
+         * wait for other requests.
+         */
+        INTERACTIVE,
+        /**
+         * Background work; may wait up to the coalescing window for company.
+         */
+        BATCH
+    }
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    private static final long DEFAULT_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private final CharSequenceCompiler<T> compiler;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final long windowNanos;
+
+    // both lanes are guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Request<T>> interactive = new ArrayDeque<>();
+    private final ArrayDeque<Request<T>> batch = new ArrayDeque<>();
+    private boolean shutdown;
+
+    /**
+     * Construct a new service with a queue of 1024 requests, batches of up to
+     * 64 classes, a coalescing window of 2 milliseconds and one worker per
+     * concurrent compilation of <var>compiler</var>.
+     *
+     * @param compiler the compiler which compiles the batches
+     */
+    public CompileService(CharSequenceCompiler<T> compiler) {
+        this(compiler, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE, DEFAULT_WINDOW_NANOS,
+                TimeUnit.NANOSECONDS, compiler.getParallelism());
+    }
+
+    /**
+     * Construct a new service.
+     *
+     * @param compiler     the compiler which compiles the batches
+     * @param capacity     the maximum number of queued requests
+     * @param maxBatchSize the maximum number of requests compiled together
+     * @param window       how long a batch waits for more requests
+     * @param unit         the unit of <var>window</var>
+     * @param workers      the number of batches compiled at the same time
+     * @throws IllegalArgumentException if a size is not positive or the window is
+     *                                  negative
+     */
+    public CompileService(CharSequenceCompiler<T> compiler, int capacity, int maxBatchSize,
+                          long window, TimeUnit unit, int workers) {
+        if (capacity <= 0 || maxBatchSize <= 0 || window < 0 || workers <= 0)
+            throw new IllegalArgumentException();
+        this.compiler = compiler;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = unit.toNanos(window);
+        for (int i = 0; i < workers; i++) {
+            final Thread worker = new Thread(this::work, "CompileService-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queue a class for compilation.
+     *
+     * @param qualifiedClassName the fully qualified class name
+     * @param javaSource         complete java source, including a package statement and a class,
+     *                           interface, or annotation declaration
+     * @param priority           the lane of the request
+     * @return a future which completes with the compiled class, or
+     * exceptionally with a {@link CharSequenceCompilerException} holding the
+     * diagnostics of the source
+     * @throws RejectedExecutionException if the queue is full or the service has
+     *                                    been shut down
+     */
+    public CompletableFuture<Class<T>> submit(String qualifiedClassName, CharSequence javaSource,
+                                              Priority priority) {
+        return submit(qualifiedClassName, javaSource, null, priority);
+    }
+
+    /**
+     * Queue a class for compilation.
+     *
+     * @param qualifiedClassName the fully qualified class name
+     * @param javaSource         complete java source, including a package statement and a class,
+     *                           interface, or annotation declaration
+     * @param diagnosticsList    the diagnostics concerning this source are added to this
+     *                           collector before the future completes; may be null
+     * @param priority           the lane of the request
+     * @return a future which completes with the compiled class, or
+     * exceptionally with a {@link CharSequenceCompilerException} holding the
+     * diagnostics of the source
+     * @throws RejectedExecutionException if the queue is full or the service has
+     *                                    been shut down
+     */
+    public CompletableFuture<Class<T>> submit(String qualifiedClassName, CharSequence javaSource,
+                                              DiagnosticCollector<JavaFileObject> diagnosticsList,
+                                              Priority priority) {
+        final Request<T> request = new Request<>(qualifiedClassName, javaSource, diagnosticsList);
+        lock.lock();
+        try {
+            if (shutdown)
+                throw new RejectedExecutionException("CompileService has been shut down");
+            if (interactive.size() + batch.size() >= capacity)
+                throw new RejectedExecutionException("CompileService queue is full ("
+                        + capacity + " requests)");
+            (priority == Priority.INTERACTIVE ? interactive : batch).add(request);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return request.future;
+    }
+
+    /**
+     * @return the number of requests waiting to be compiled
+     */
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            return interactive.size() + batch.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting requests, cancel the queued ones and stop the workers once
+     * their current batches are compiled.
+     */
+    public void shutdown() {
+        final List<Request<T>> cancelled = new ArrayList<>();
+        lock.lock();
+        try {
+            shutdown = true;
+            cancelled.addAll(interactive);
+            cancelled.addAll(batch);
+            interactive.clear();
+            batch.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Request<T> request : cancelled)
+            request.future.cancel(false);
+    }
+
+    private void work() {
+        try {
+            List<Request<T>> requests;
+            while ((requests = nextBatch()) != null)
+                compile(requests);
+        } catch (InterruptedException e) {
+            // exit
+        }
+    }
+
+    /**
+     * Wait for a request, then gather more until the batch is full or the
+     * window has passed.
+     *
+     * @return the next batch, or null after shutdown
+     */
+    private List<Request<T>> nextBatch() throws InterruptedException {
+        final List<Request<T>> requests = new ArrayList<>();
+        final Set<String> names = new HashSet<>();
+        final Set<String> simpleNames = new HashSet<>();
+        final long maxLength = compiler.getMaxSourceLength();
+        lock.lock();
+        try {
+            while (interactive.isEmpty() && batch.isEmpty()) {
+                if (shutdown)
+                    return null;
+                notEmpty.await();
+            }
+            final long deadline = System.nanoTime() + windowNanos;
+            boolean urgent = false;
+            while (true) {
+                // an interactive request does not wait for the window
+                urgent |= !interactive.isEmpty();
+                drain(interactive, requests, names, simpleNames, maxLength);
+                drain(batch, requests, names, simpleNames, maxLength);
+                final long remaining = deadline - System.nanoTime();
+                if (urgent || shutdown || requests.size() >= maxBatchSize || remaining <= 0)
+                    return requests;
+                notEmpty.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move requests from <var>lane</var> to <var>requests</var>, skipping
+     * those whose class name, or simple class name, is already in the batch:
+     * the former cannot be compiled together, the latter would make the
+     * diagnostics ambiguous. Requests which would make the sources of a
+     * batch longer than <var>maxLength</var>, unless it is 0, are skipped as
+     * well, but the first request of a batch is always taken.
+     */
+    private void drain(final ArrayDeque<Request<T>> lane, final List<Request<T>> requests,
+                       final Set<String> names, final Set<String> simpleNames,
+                       final long maxLength) {
+        long length = 0;
+        for (Request<T> request : requests)
+            length += request.length();
+        for (Iterator<Request<T>> i = lane.iterator(); i.hasNext()
+                && requests.size() < maxBatchSize; ) {
+            final Request<T> request = i.next();
+            if (maxLength > 0 && !requests.isEmpty() && length + request.length() > maxLength)
+                continue;
+            if (!names.contains(request.qualifiedClassName)
+                    && !simpleNames.contains(request.simpleName)) {
+                length += request.length();
+                names.add(request.qualifiedClassName);
+                simpleNames.add(request.simpleName);
+                requests.add(request);
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Compile a batch and complete its futures.
+     */
+    private void compile(final List<Request<T>> requests) {
+        final Map<String, CharSequence> classes = new LinkedHashMap<>();
+        for (Request<T> request : requests)
+            classes.put(request.qualifiedClassName, request.javaSource);
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final Map<String, Class<T>> compiled;
+        try {
+            compiled = compiler.compile(classes, diagnostics);
+        } catch (CharSequenceCompilerLimitException e) {
+            // not the fault of one source; compiling the requests again, one
+            // by one, would only multiply the time spent on them
+            for (Request<T> request : requests) {
+                request.report(diagnostics);
+                request.future.completeExceptionally(e);
+            }
+            return;
+        } catch (CharSequenceCompilerException e) {
+            if (requests.size() == 1 || e.getCause() != null) {
+                for (Request<T> request : requests)
+                    request.fail(e, diagnostics);
+                return;
+            }
+            // fail the requests with errors and retry the others without them
+            final List<Request<T>> remaining = new ArrayList<>();
+            for (Request<T> request : requests) {
+                if (request.hasErrors(diagnostics))
+                    request.fail(e, diagnostics);
+                else
+                    remaining.add(request);
+            }
+            if (remaining.size() == requests.size()) {
+                // no source is to blame; compile them one by one
+                for (Request<T> request : requests)
+                    compile(Collections.singletonList(request));
+            } else if (!remaining.isEmpty()) {
+                compile(remaining);
+            }
+            return;
+        } catch (RuntimeException e) {
+            for (Request<T> request : requests)
+                request.future.completeExceptionally(e);
+            return;
+        }
+        for (Request<T> request : requests) {
+            request.report(diagnostics);
+            request.future.complete(compiled.get(request.qualifiedClassName));
+        }
+    }
+
+    /**
+     * A queued compile request.
+     */
+    private static final class Request<T> {
+        final String qualifiedClassName;
+        final String simpleName;
+        final CharSequence javaSource;
+        final DiagnosticCollector<JavaFileObject> diagnosticsList;
+        final CompletableFuture<Class<T>> future = new CompletableFuture<>();
+
+        Request(final String qualifiedClassName, final CharSequence javaSource,
+                final DiagnosticCollector<JavaFileObject> diagnosticsList) {
+            this.qualifiedClassName = qualifiedClassName;
+            this.simpleName = qualifiedClassName.substring(qualifiedClassName.lastIndexOf('.') + 1);
+            this.javaSource = javaSource;
+            this.diagnosticsList = diagnosticsList != null ? diagnosticsList
+                    : new DiagnosticCollector<JavaFileObject>();
+        }
+
+        /**
+         * @return true if the diagnostic concerns this request's source;
+         * diagnostics without a source concern every request
+         */
+        boolean concerns(final Diagnostic<? extends JavaFileObject> diagnostic) {
+            final JavaFileObject source = diagnostic.getSource();
+            return source == null || source.isNameCompatible(simpleName, JavaFileObject.Kind.SOURCE);
+        }
+
+        /**
+         * @return the length of the source
+         */
+        long length() {
+            return javaSource == null ? 0 : javaSource.length();
+        }
+
+        boolean hasErrors(final DiagnosticCollector<JavaFileObject> diagnostics) {
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR && diagnostic.getSource() != null
+                        && concerns(diagnostic))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Add the diagnostics concerning this request to its collector.
+         */
+        void report(final DiagnosticCollector<JavaFileObject> diagnostics) {
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (concerns(diagnostic))
+                    diagnosticsList.report(diagnostic);
+            }
+        }
+
+        void fail(final CharSequenceCompilerException e,
+                  final DiagnosticCollector<JavaFileObject> diagnostics) {
+            report(diagnostics);
+            future.completeExceptionally(e.getCause() != null
+                    ? new CharSequenceCompilerException(e.getMessage(),
+                    Collections.singleton(qualifiedClassName), e.getCause(), diagnosticsList)
+                    : new CharSequenceCompilerException("Compilation failed.",
+                    Collections.singleton(qualifiedClassName), diagnosticsList));
+        }
+    }
+}
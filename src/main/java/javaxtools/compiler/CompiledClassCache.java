@@ -0,0 +1,316 @@
+package javaxtools.compiler;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A bounded, content-addressed cache of compilation results which may be
+ * attached to one or more {@link CharSequenceCompiler} instances via
+ * {@link CharSequenceCompiler#setCache(CompiledClassCache)}.
+ * <p/>
+ * Results are keyed by a SHA-256 digest of the source text and the compiler
+ * options, by the class loader of the compiler, which holds the classes the
+ * source may use besides those of its parent, and by the compiler's
+ * {@link CharSequenceCompiler.DefinitionMode}, so compiling the same source
+ * twice costs a hash lookup instead of a run of javac. Instances attached to
+ * the same cache share its capacity, but not their results. For the
+ * single-class
+ * {@link CharSequenceCompiler#compile(String, CharSequence, DiagnosticCollector, Class...) compile()}
+ * the package and class names are first replaced by placeholders, so sources
+ * which differ only in those names share one entry; the cached class keeps the
+ * name it was first compiled under. Failed compilations are remembered as well,
+ * and their diagnostics are replayed to the caller on every hit, until the
+ * compiler defines more classes: a class compiled since may be the one that
+ * was missing.
+ * <p/>
+ * When more than <var>maximumSize</var> entries are held, the least recently
+ * used entry is evicted. Cached classes are strongly referenced, which keeps
+ * their class loader reachable until they are evicted or {@link #clear()} is
+ * called.
+ * <p/>
+ * Thread safety: this class is thread safe.
+ */
+public final class CompiledClassCache {
+    // placeholders substituted for the package and class name when normalizing
+    private static final String PACKAGE_PLACEHOLDER = "$packageName";
+    private static final String CLASS_PLACEHOLDER = "$className";
+
+    private final int maximumSize;
+
+    // access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<Key, Result> results;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Construct a new cache holding at most <var>maximumSize</var> results.
+     *
+     * @param maximumSize the maximum number of compilation results to keep
+     * @throws IllegalArgumentException if <var>maximumSize</var> is not positive
+     */
+    public CompiledClassCache(final int maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        this.maximumSize = maximumSize;
+        results = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<Key, Result> eldest) {
+                if (size() > CompiledClassCache.this.maximumSize) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the maximum number of results this cache holds
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return the number of results currently held
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * @return the number of lookups which found a result
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups which did not find a result
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of results evicted to respect the maximum size
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Discard all results. The hit, miss and eviction counts are kept.
+     */
+    public synchronized void clear() {
+        results.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CompiledClassCache[size=" + results.size() + ", maximumSize=" + maximumSize
+                + ", hits=" + hitCount + ", misses=" + missCount
+                + ", evictions=" + evictionCount + "]";
+    }
+
+    /**
+     * Look up a result, counting a hit or a miss.
+     *
+     * @return the result, or null if there is none
+     */
+    synchronized Result get(final Key key, final long generation) {
+        Result result = results.get(key);
+        if (result != null && result.failed() && result.generation != generation)
+            result = null;
+        if (result != null)
+            hitCount++;
+        else
+            missCount++;
+        return result;
+    }
+
+    synchronized void put(final Key key, final Result result) {
+        results.put(key, result);
+    }
+
+    /**
+     * Compute the key of a multi-class compilation. The class names are part of
+     * the key as given.
+     *
+     * @param loader the class loader of the compiler, whose classes and
+     *               parent's the sources are compiled against
+     */
+    static Key key(final ClassLoader loader, final CharSequenceCompiler.DefinitionMode mode,
+                   final List<String> options, final Map<String, CharSequence> classes) {
+        final MessageDigest digest = newDigest(options);
+        // sort so the key does not depend on the iteration order of the map
+        for (Entry<String, CharSequence> entry : new TreeMap<>(classes).entrySet()) {
+            update(digest, entry.getKey());
+            update(digest, entry.getValue() == null ? "" : entry.getValue());
+        }
+        return new Key(loader, mode, digest.digest());
+    }
+
+    /**
+     * Compute the key of a single-class compilation, ignoring the package and
+     * class name of <var>qualifiedClassName</var>.
+     */
+    static Key key(final ClassLoader loader, final CharSequenceCompiler.DefinitionMode mode,
+                   final List<String> options, final String qualifiedClassName,
+                   final CharSequence javaSource) {
+        final int dotPos = qualifiedClassName.lastIndexOf('.');
+        final String className = qualifiedClassName.substring(dotPos + 1);
+        CharSequence normalized = javaSource;
+        if (dotPos != -1)
+            normalized = replaceName(normalized, qualifiedClassName.substring(0, dotPos),
+                    PACKAGE_PLACEHOLDER);
+        normalized = replaceName(normalized, className, CLASS_PLACEHOLDER);
+        final MessageDigest digest = newDigest(options);
+        update(digest, CLASS_PLACEHOLDER);
+        update(digest, normalized);
+        return new Key(loader, mode, digest.digest());
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return a new digest which has been updated with the compiler options
+     */
+    static MessageDigest newDigest(final List<String> options) {
+        final MessageDigest digest = sha256();
+        for (String option : options)
+            update(digest, option);
+        update(digest, "");
+        return digest;
+    }
+
+    static void update(final MessageDigest digest, final CharSequence text) {
+        digest.update(text.toString().getBytes(UTF_8));
+        // terminate each part so that ("ab", "c") and ("a", "bc") differ
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Replace each occurrence of the (possibly dotted) <var>name</var> which is
+     * not part of a longer identifier.
+     */
+    static CharSequence replaceName(final CharSequence text, final String name,
+                                    final String replacement) {
+        final String s = text.toString();
+        final StringBuilder result = new StringBuilder(s.length());
+        int from = 0;
+        for (int pos = s.indexOf(name); pos != -1; pos = s.indexOf(name, pos + 1)) {
+            final int end = pos + name.length();
+            if (pos < from
+                    || (pos > 0 && Character.isJavaIdentifierPart(s.charAt(pos - 1)))
+                    || (end < s.length() && Character.isJavaIdentifierPart(s.charAt(end))))
+                continue;
+            result.append(s, from, pos).append(replacement);
+            from = end;
+        }
+        return result.append(s, from, s.length());
+    }
+
+    /**
+     * The key of a cached result: a digest of the compiler input, qualified by
+     * the identity of the compiler's class loader and its definition mode.
+     */
+    static final class Key {
+        private final ClassLoader loader;
+        private final CharSequenceCompiler.DefinitionMode mode;
+        private final byte[] digest;
+        private final int hashCode;
+
+        Key(final ClassLoader loader, final CharSequenceCompiler.DefinitionMode mode,
+            final byte[] digest) {
+            this.loader = loader;
+            this.mode = mode;
+            this.digest = digest;
+            hashCode = (Arrays.hashCode(digest) * 31 + System.identityHashCode(loader)) * 31
+                    + mode.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            return loader == other.loader && mode == other.mode
+                    && Arrays.equals(digest, other.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * The outcome of a compilation: either the compiled classes or, when
+     * compilation failed, only the diagnostics.
+     */
+    static final class Result {
+        // null if the compilation failed
+        private final Map<String, Class<?>> classes;
+        private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+        // the generation of the compiler's class loader the compilation ran
+        // against; a failure is only valid for that one
+        private final long generation;
+
+        Result(final Map<String, ? extends Class<?>> classes,
+               final DiagnosticCollector<JavaFileObject> diagnostics, final long generation) {
+            this.generation = generation;
+            this.classes = classes == null ? null
+                    : Collections.unmodifiableMap(new LinkedHashMap<String, Class<?>>(classes));
+            this.diagnostics = Collections.unmodifiableList(
+                    new ArrayList<Diagnostic<? extends JavaFileObject>>(diagnostics.getDiagnostics()));
+        }
+
+        boolean failed() {
+            return classes == null;
+        }
+
+        /**
+         * @return the compiled classes, keyed by the names they were compiled
+         * under
+         */
+        Map<String, Class<?>> classes() {
+            return classes;
+        }
+
+        /**
+         * Report the diagnostics of the compilation to <var>collector</var>.
+         */
+        void replay(final DiagnosticCollector<JavaFileObject> collector) {
+            if (collector == null)
+                return;
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics)
+                collector.report(diagnostic);
+        }
+    }
+}
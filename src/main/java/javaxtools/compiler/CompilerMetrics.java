@@ -0,0 +1,74 @@
+package javaxtools.compiler;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Receives timings from {@link CharSequenceCompiler} instances, to show where
+ * compilation time goes. Attach an implementation with
+ * {@link CharSequenceCompiler#setMetrics(CompilerMetrics)}; while none is
+ * attached, no timings are taken at all. {@link CompilerStatistics} is an
+ * implementation which keeps counters and latency histograms and publishes
+ * them through JMX.
+ * <p/>
+ * Implementations must be thread safe, as compilations run concurrently and
+ * classes are defined on any thread. They should also be quick, as most
+ * methods are called from within javac.
+ */
+public interface CompilerMetrics {
+    /**
+     * The timed steps of a compilation.
+     */
+    enum Phase {
+        /**
+         * javac parsing a source file.
+         */
+        PARSE,
+        /**
+         * javac entering the symbols of the parsed sources.
+         */
+        ENTER,
+        /**
+         * javac attributing and analyzing the flow of a class.
+         */
+        ANALYZE,
+        /**
+         * javac generating the class files of a class.
+         */
+        GENERATE,
+        /**
+         * javac listing a package through the file manager. This happens
+         * during the other javac phases, so its time is included in theirs.
+         */
+        LIST,
+        /**
+         * Defining a compiled class in a class loader. Classes are defined
+         * when first loaded, which may be after their compilation, so this
+         * phase is not part of {@link #compilation}'s phase times.
+         */
+        DEFINE
+    }
+
+    /**
+     * Called each time a phase completes, possibly many times per
+     * compilation.
+     *
+     * @param phase the phase
+     * @param nanos how long it took
+     */
+    void phase(Phase phase, long nanos);
+
+    /**
+     * Called when a compilation completes, whether or not it succeeded.
+     * Compilations answered by a {@link CompiledClassCache} are not reported.
+     *
+     * @param classNames the names of the classes compiled
+     * @param succeeded  whether the classes compiled and loaded
+     * @param nanos      how long the compilation took, including loading the
+     *                   classes
+     * @param phaseNanos the total time of each phase within the compilation;
+     *                   absent phases did not happen
+     */
+    void compilation(Set<String> classNames, boolean succeeded, long nanos,
+                     Map<Phase, Long> phaseNanos);
+}
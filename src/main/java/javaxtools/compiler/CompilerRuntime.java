@@ -0,0 +1,103 @@
+package javaxtools.compiler;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * The javac state shared by all {@link CharSequenceCompiler} instances: the
+ * system {@link JavaCompiler} and the pools of standard file managers, one
+ * pool per class path. A standard file manager caches what it has read of the
+ * JDK and the class path, so sharing the pools lets a new compiler start with
+ * warm file managers instead of paying the cold-start cost again.
+ * <p/>
+ * The runtime is reference counted: each compiler acquires it on construction
+ * and releases it in {@link CharSequenceCompiler#close()}. When the last
+ * reference is released, the file managers are closed, and the next compiler
+ * starts a new runtime.
+ * <p/>
+ * Thread safety: this class is thread safe.
+ */
+final class CompilerRuntime {
+    // the current runtime, if any compiler holds a reference; guarded by the class
+    private static CompilerRuntime shared;
+
+    private final JavaCompiler compiler;
+
+    // pools keyed by [class path, size]; guarded by the class
+    private final Map<List<?>, FileManagerPool> pools = new HashMap<>();
+
+    private int references;
+
+    private CompilerRuntime(final JavaCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Get the shared runtime, creating it if necessary, and add a reference
+     * to it.
+     *
+     * @throws IllegalStateException if the Java compiler cannot be loaded.
+     */
+    static synchronized CompilerRuntime acquire() {
+        if (shared == null) {
+            final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null) {
+                throw new IllegalStateException("Cannot find the system Java compiler. "
+                        + "Check that your class path includes tools.jar");
+            }
+            shared = new CompilerRuntime(compiler);
+        }
+        shared.references++;
+        return shared;
+    }
+
+    /**
+     * Remove a reference added by {@link #acquire()}, closing the file managers
+     * when it is the last one.
+     */
+    void release() {
+        synchronized (CompilerRuntime.class) {
+            if (references == 0)
+                throw new IllegalStateException("CompilerRuntime already released");
+            if (--references > 0)
+                return;
+            if (shared == this)
+                shared = null;
+            for (FileManagerPool pool : pools.values())
+                pool.close();
+            pools.clear();
+        }
+    }
+
+    /**
+     * @return the system Java compiler
+     */
+    JavaCompiler getCompiler() {
+        return compiler;
+    }
+
+    /**
+     * Return the pool of file managers for a class path, creating it if this
+     * runtime has none.
+     *
+     * @param classPath the class path, or null for the compiler's default
+     * @param size      the maximum number of file managers in the pool
+     */
+    FileManagerPool pool(final List<File> classPath, final int size) {
+        synchronized (CompilerRuntime.class) {
+            final List<?> key = Arrays.asList(classPath, size);
+            FileManagerPool pool = pools.get(key);
+            if (pool == null) {
+                pool = new FileManagerPool(compiler, classPath, size);
+                pools.put(key, pool);
+            }
+            return pool;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package javaxtools.compiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * {@link CompilerMetrics} which accumulates counters and latency histograms,
+ * for compilations and for each {@link CompilerMetrics.Phase phase}. One
+ * instance may be attached to several compilers. The values can be read
+ * directly or, after {@link #register(String)}, through JMX.
+ * <p/>
+ * Thread safety: this class is thread safe. Updates are lock free; values
+ * read while compilations run may be a little inconsistent with each other.
+ */
+public final class CompilerStatistics implements CompilerMetrics, CompilerStatisticsMXBean {
+    /**
+     * The JMX domain under which instances are registered.
+     */
+    public static final String DOMAIN = "javaxtools.compiler";
+
+    private static final int BUCKETS = 64;
+
+    private static final Phase[] PHASES = Phase.values();
+
+    // the last row is for whole compilations
+    private static final int COMPILATION = PHASES.length;
+
+    // [phase or COMPILATION] -> count, total nanos
+    private final AtomicLongArray counts = new AtomicLongArray(PHASES.length + 1);
+    private final AtomicLongArray nanos = new AtomicLongArray(PHASES.length + 1);
+
+    // [phase or COMPILATION * BUCKETS + bucket] -> count
+    private final AtomicLongArray latencies = new AtomicLongArray((PHASES.length + 1) * BUCKETS);
+
+    private final AtomicLong failures = new AtomicLong();
+
+    @Override
+    public void phase(final Phase phase, final long nanos) {
+        add(phase.ordinal(), nanos);
+    }
+
+    @Override
+    public void compilation(final Set<String> classNames, final boolean succeeded,
+                            final long nanos, final Map<Phase, Long> phaseNanos) {
+        add(COMPILATION, nanos);
+        if (!succeeded)
+            failures.incrementAndGet();
+    }
+
+    private void add(final int row, final long nanos) {
+        counts.incrementAndGet(row);
+        this.nanos.addAndGet(row, nanos);
+        latencies.incrementAndGet(row * BUCKETS + bucket(nanos));
+    }
+
+    /**
+     * @return the histogram bucket of a latency: the position of its highest
+     * bit
+     */
+    private static int bucket(final long nanos) {
+        return nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Register this instance with the platform MBean server, under the name
+     * <code>javaxtools.compiler:type=CompilerStatistics,name=<var>name</var></code>.
+     *
+     * @param name a name which distinguishes this instance from others
+     * @return the name registered, which unregisters it
+     * @throws JMException if the instance cannot be registered, for example
+     *                     because the name is already taken
+     */
+    public ObjectName register(final String name) throws JMException {
+        final ObjectName objectName = new ObjectName(DOMAIN + ":type="
+                + CompilerStatistics.class.getSimpleName() + ",name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public long getCompilations() {
+        return counts.get(COMPILATION);
+    }
+
+    @Override
+    public long getFailedCompilations() {
+        return failures.get();
+    }
+
+    @Override
+    public long getCompilationNanos() {
+        return nanos.get(COMPILATION);
+    }
+
+    @Override
+    public long[] getCompilationLatencies() {
+        return histogram(COMPILATION);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (Phase phase : PHASES)
+            result.put(phase.name(), counts.get(phase.ordinal()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseNanos() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (Phase phase : PHASES)
+            result.put(phase.name(), nanos.get(phase.ordinal()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public Map<String, long[]> getPhaseLatencies() {
+        final Map<String, long[]> result = new LinkedHashMap<>();
+        for (Phase phase : PHASES)
+            result.put(phase.name(), histogram(phase.ordinal()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    private long[] histogram(final int row) {
+        final long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            result[i] = latencies.get(row * BUCKETS + i);
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+            nanos.set(i, 0);
+        }
+        for (int i = 0; i < latencies.length(); i++)
+            latencies.set(i, 0);
+        failures.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "CompilerStatistics[compilations=" + getCompilations() + ", failed="
+                + getFailedCompilations() + ", phaseNanos=" + getPhaseNanos() + "]";
+    }
+}
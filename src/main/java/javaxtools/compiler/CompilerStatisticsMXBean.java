@@ -0,0 +1,52 @@
+package javaxtools.compiler;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link CompilerStatistics}.
+ * <p/>
+ * Latency histograms have one bucket per power of two: element <var>i</var>
+ * counts the latencies from 2<sup>i</sup> up to 2<sup>i+1</sup>
+ * nanoseconds.
+ */
+public interface CompilerStatisticsMXBean {
+    /**
+     * @return the number of compilations
+     */
+    long getCompilations();
+
+    /**
+     * @return the number of compilations which failed
+     */
+    long getFailedCompilations();
+
+    /**
+     * @return the total time of all compilations, in nanoseconds
+     */
+    long getCompilationNanos();
+
+    /**
+     * @return the latency histogram of compilations
+     */
+    long[] getCompilationLatencies();
+
+    /**
+     * @return the number of times each phase completed, by phase name
+     */
+    Map<String, Long> getPhaseCounts();
+
+    /**
+     * @return the total time of each phase, in nanoseconds, by phase name
+     */
+    Map<String, Long> getPhaseNanos();
+
+    /**
+     * @return the latency histogram of each phase, by phase name
+     */
+    Map<String, long[]> getPhaseLatencies();
+
+    /**
+     * Set all counters and histograms to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,177 @@
+package javaxtools.compiler;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Remembers, for each source compiled incrementally, a digest of its text, the
+ * classes compiled from it and the classes those refer to, so that a later
+ * compilation of a set of sources can tell which of them must be compiled
+ * again: the changed ones, and those which refer, directly or through other
+ * sources of the set, to the classes of a changed one. The others can be
+ * resolved from the class files compiled before.
+ * <p/>
+ * Dependents are followed transitively, not just one level, because a class
+ * which refers to a recompiled one only by inheritance or by a method it does
+ * not declare still links against the recompiled class's members.
+ * <p/>
+ * A class which uses a compile-time constant of another has its value inlined
+ * and keeps no reference to it, so the constants of each source are
+ * remembered, too: if a source declares other constants when it is compiled
+ * again, any class may be outdated.
+ * <p/>
+ * Thread safety: this class is not thread safe.
+ */
+final class DependencyTracker {
+    /**
+     * What is known about a source which has been compiled.
+     */
+    private static final class Unit {
+        final byte[] digest;
+
+        // the binary names of the classes compiled from the source
+        final Set<String> classNames;
+
+        // the binary names of the classes they refer to, but their own
+        final Set<String> references;
+
+        // the compile-time constants of the classes, as ClassFiles describes
+        // them, prefixed with the class name
+        final Set<String> constants;
+
+        Unit(final byte[] digest, final Set<String> classNames, final Set<String> references,
+             final Set<String> constants) {
+            this.digest = digest;
+            this.classNames = classNames;
+            this.references = references;
+            this.constants = constants;
+        }
+    }
+
+    // by the name the source was compiled under
+    private final Map<String, Unit> units = new HashMap<>();
+
+    /**
+     * Return the sources of a compilation which must be compiled: those which
+     * are new or have changed since they were last compiled, and those which
+     * refer to the classes of any of these.
+     *
+     * @param classes the sources by qualified class name, as passed to
+     *                {@link CharSequenceCompiler#compile(Map, javax.tools.DiagnosticCollector)};
+     *                entries without a source are ignored
+     * @return the names of the sources to compile
+     */
+    Set<String> stale(final Map<String, CharSequence> classes) {
+        final Set<String> stale = new HashSet<>();
+        // the classes of the stale sources as they were compiled last
+        final Set<String> staleClasses = new HashSet<>();
+        for (Entry<String, CharSequence> entry : classes.entrySet()) {
+            if (entry.getValue() == null)
+                continue;
+            final Unit unit = units.get(entry.getKey());
+            if (unit == null || !Arrays.equals(unit.digest, digest(entry.getValue()))) {
+                stale.add(entry.getKey());
+                if (unit != null)
+                    staleClasses.addAll(unit.classNames);
+            }
+        }
+        // add the dependents of stale sources until there are no more
+        boolean added = !staleClasses.isEmpty();
+        while (added) {
+            added = false;
+            for (Entry<String, CharSequence> entry : classes.entrySet()) {
+                if (entry.getValue() == null || stale.contains(entry.getKey()))
+                    continue;
+                final Unit unit = units.get(entry.getKey());
+                if (!Collections.disjoint(unit.references, staleClasses)) {
+                    stale.add(entry.getKey());
+                    staleClasses.addAll(unit.classNames);
+                    added = true;
+                }
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Tell whether a compilation of some of the sources has changed the
+     * compile-time constants of a source compiled before, so that the
+     * classes of the other sources may hold outdated values.
+     *
+     * @param sources the sources which were compiled, by qualified class name
+     * @param outputs the class files compiled from them
+     */
+    boolean constantsChanged(final Map<String, CharSequence> sources,
+                             final List<JavaFileObjectImpl> outputs) {
+        final Map<String, Set<String>> constants = constants(outputs);
+        for (Entry<String, CharSequence> entry : sources.entrySet()) {
+            final Unit unit = units.get(entry.getKey());
+            if (entry.getValue() != null && unit != null && !unit.constants.equals(
+                    constants.getOrDefault(entry.getKey(), Collections.<String>emptySet())))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record a successful compilation.
+     *
+     * @param sources the sources which were compiled, by qualified class name
+     * @param outputs the class files compiled from them
+     */
+    void compiled(final Map<String, CharSequence> sources, final List<JavaFileObjectImpl> outputs) {
+        final Map<String, Set<String>> classNames = new HashMap<>();
+        final Map<String, Set<String>> references = new HashMap<>();
+        for (JavaFileObjectImpl output : outputs) {
+            final String sourceName = output.getSourceName();
+            if (sourceName == null)
+                continue;
+            classNames.computeIfAbsent(sourceName, name -> new HashSet<>()).add(output.getName());
+            references.computeIfAbsent(sourceName, name -> new HashSet<>())
+                    .addAll(ClassFiles.referencedClassNames(output.getByteCode()));
+        }
+        final Map<String, Set<String>> constants = constants(outputs);
+        for (Entry<String, CharSequence> entry : sources.entrySet()) {
+            if (entry.getValue() == null)
+                continue;
+            final Set<String> own = classNames.getOrDefault(entry.getKey(),
+                    Collections.<String>emptySet());
+            final Set<String> referenced = references.getOrDefault(entry.getKey(),
+                    new HashSet<String>());
+            referenced.removeAll(own);
+            units.put(entry.getKey(), new Unit(digest(entry.getValue()), own, referenced,
+                    constants.getOrDefault(entry.getKey(), Collections.<String>emptySet())));
+        }
+    }
+
+    /**
+     * @return the compile-time constants of the <var>outputs</var>, by the
+     * name of the source they were compiled from
+     */
+    private static Map<String, Set<String>> constants(final List<JavaFileObjectImpl> outputs) {
+        final Map<String, Set<String>> constants = new HashMap<>();
+        for (JavaFileObjectImpl output : outputs) {
+            final String sourceName = output.getSourceName();
+            if (sourceName == null)
+                continue;
+            final Set<String> sourceConstants = constants.computeIfAbsent(sourceName,
+                    name -> new HashSet<>());
+            for (String constant : ClassFiles.constants(output.getByteCode()))
+                sourceConstants.add(output.getName() + '.' + constant);
+        }
+        return constants;
+    }
+
+    private static byte[] digest(final CharSequence source) {
+        final MessageDigest digest = CompiledClassCache.sha256();
+        CompiledClassCache.update(digest, source);
+        return digest.digest();
+    }
+}
@@ -0,0 +1,190 @@
+package javaxtools.compiler;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Jar files of classes compiled by a {@link CharSequenceCompiler}, written by
+ * {@link CharSequenceCompiler#exportJar(Path)}, and the class loaders which
+ * serve them on the next start of the JVM without running javac. The
+ * manifest has a section per class file whose <code>Class-Name</code>
+ * attribute is the binary name of its class, so the classes can be listed
+ * with {@link #classNames(Path)} without scanning the jar.
+ * <p/>
+ * Defining the classes still verifies and parses them. On Java 13 and later a
+ * dynamic AppCDS archive saves that, too: put the jar on the class path, so
+ * the application class loader loads its classes, run the application once
+ * with <code>-XX:ArchiveClassesAtExit=app.jsa</code>, and start it with
+ * <code>-XX:SharedArchiveFile=app.jsa</code> from then on. The class path
+ * must be the same on both runs, and the jar unchanged.
+ * {@link #newClassLoader(Path, ClassLoader)} then returns the application
+ * class loader, so the same code runs with and without the jar on the class
+ * path.
+ * <p/>
+ * The jars are written with fixed entry times, in class name order, so that
+ * exporting the same classes gives the same jar.
+ * <p/>
+ * Thread safety: this class is thread safe.
+ */
+public final class ExportedClasses {
+    /**
+     * The manifest attribute of each class file section, whose value is the
+     * binary name of the class.
+     */
+    public static final String CLASS_NAME_ATTRIBUTE = "Class-Name";
+
+    private static final String CLASS_EXTENSION = ".class";
+
+    // 1981-01-01T00:00:00Z, after the epoch of zip's DOS times in any zone
+    private static final long ENTRY_TIME = 347155200000L;
+
+    private ExportedClasses() {
+    }
+
+    /**
+     * Write <var>files</var> to a jar, replacing <var>jar</var> atomically
+     * where the file system allows it.
+     *
+     * @return the binary names of the classes written, in order
+     */
+    static List<String> write(final Path jar, final Collection<JavaFileObjectImpl> files)
+            throws IOException {
+        final Map<String, JavaFileObjectImpl> byName = new TreeMap<>();
+        for (JavaFileObjectImpl file : files)
+            byName.put(file.getBinaryName(), file);
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Created-By",
+                CharSequenceCompiler.class.getName());
+        for (String name : byName.keySet()) {
+            final Attributes attributes = new Attributes(1);
+            attributes.putValue(CLASS_NAME_ATTRIBUTE, name);
+            manifest.getEntries().put(entryName(name), attributes);
+        }
+        final Path directory = jar.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, jar.getFileName().toString(), ".tmp");
+        try {
+            try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp)))) {
+                final JarEntry manifestEntry = new JarEntry(JarFile.MANIFEST_NAME);
+                manifestEntry.setTime(ENTRY_TIME);
+                out.putNextEntry(manifestEntry);
+                manifest.write(out);
+                out.closeEntry();
+                for (JavaFileObjectImpl file : byName.values()) {
+                    final JarEntry entry = new JarEntry(entryName(file.getBinaryName()));
+                    entry.setTime(ENTRY_TIME);
+                    out.putNextEntry(entry);
+                    out.write(file.getByteCode());
+                    out.closeEntry();
+                }
+            }
+            try {
+                Files.move(temp, jar, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, jar, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } finally {
+            if (temp != null)
+                Files.deleteIfExists(temp);
+        }
+        return Collections.unmodifiableList(new ArrayList<>(byName.keySet()));
+    }
+
+    /**
+     * Read the names of the classes in an exported jar from its manifest.
+     *
+     * @param jar a jar written by {@link CharSequenceCompiler#exportJar(Path)}
+     * @return the binary names of its classes, in order
+     * @throws IOException if the jar cannot be read or has no manifest
+     */
+    public static List<String> classNames(final Path jar) throws IOException {
+        try (JarFile file = new JarFile(jar.toFile())) {
+            final Manifest manifest = file.getManifest();
+            if (manifest == null)
+                throw new IOException("no manifest in " + jar);
+            final List<String> names = new ArrayList<>();
+            for (Attributes attributes : manifest.getEntries().values()) {
+                final String name = attributes.getValue(CLASS_NAME_ATTRIBUTE);
+                if (name != null)
+                    names.add(name);
+            }
+            Collections.sort(names);
+            return names;
+        }
+    }
+
+    /**
+     * Return a class loader for the classes of an exported jar. If
+     * <var>parent</var> loads them from the same jar already, because it is
+     * on the class path, that is <var>parent</var> itself, so that classes
+     * archived by AppCDS are used; otherwise a new {@link URLClassLoader}
+     * for the jar, whose parent is <var>parent</var>, and which should be
+     * closed once its classes are no longer needed.
+     *
+     * @param jar    a jar written by {@link CharSequenceCompiler#exportJar(Path)}
+     * @param parent the class loader of the classes the exported ones use,
+     *               as the compiler's parent class loader was
+     * @throws IOException if the jar cannot be read
+     */
+    public static ClassLoader newClassLoader(final Path jar, final ClassLoader parent)
+            throws IOException {
+        final List<String> names = classNames(jar);
+        if (!names.isEmpty() && isServedBy(parent, entryName(names.get(0)), jar))
+            return parent;
+        return new URLClassLoader(new URL[]{jar.toUri().toURL()}, parent);
+    }
+
+    /**
+     * @return whether <var>loader</var> finds the resource
+     * <var>entryName</var> in <var>jar</var>
+     */
+    private static boolean isServedBy(final ClassLoader loader, final String entryName,
+                                      final Path jar) throws IOException {
+        final URL url = loader.getResource(entryName);
+        if (url == null || !"jar".equals(url.getProtocol()))
+            return false;
+        final String spec = url.getPath();
+        final int separator = spec.indexOf("!/");
+        if (separator < 0)
+            return false;
+        final Path served;
+        try {
+            served = Paths.get(new URI(spec.substring(0, separator)));
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            // not a local file
+            return false;
+        }
+        return Files.exists(served) && Files.isSameFile(served, jar);
+    }
+
+    /**
+     * @return the name of the jar entry of the class named
+     * <var>binaryName</var>
+     */
+    private static String entryName(final String binaryName) {
+        return binaryName.replace('.', '/') + CLASS_EXTENSION;
+    }
+}
@@ -0,0 +1,188 @@
+package javaxtools.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * A bounded pool of {@link StandardJavaFileManager} instances which all use the
+ * same class path, each wrapped in a {@link CachingFileManager}. A standard file
+ * manager is not safe for use by concurrent compilations, so each compilation
+ * borrows one from this pool and returns it when done. File managers are
+ * created on demand, up to the size of the pool.
+ */
+final class FileManagerPool {
+    private final JavaCompiler compiler;
+
+    // the class path of every file manager; null for the compiler's default
+    private final List<File> classPath;
+
+    private final int size;
+
+    // idle file managers; guarded by this, whose monitor waiting threads
+    // are notified on when one is released or the pool is closed
+    private final Deque<CachingFileManager> idle = new ArrayDeque<>();
+
+    // the number of file managers created so far; guarded by this
+    private int created;
+
+    // guarded by this
+    private boolean closed;
+
+    // the class path as reported by javac; computed on first use
+    private volatile List<File> effectiveClassPath;
+
+    /**
+     * @param compiler  the compiler which creates the file managers
+     * @param classPath the class path to set on each file manager, or null to
+     *                  use the compiler's default class path
+     * @param size      the maximum number of file managers
+     */
+    FileManagerPool(final JavaCompiler compiler, final List<File> classPath, final int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("size must be positive: " + size);
+        this.compiler = compiler;
+        this.classPath = classPath == null ? null
+                : Collections.unmodifiableList(new ArrayList<>(classPath));
+        this.size = size;
+    }
+
+    /**
+     * @return the maximum number of file managers, and so of concurrent
+     * compilations
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the class path the file managers search, as reported by javac
+     * @throws IOException if a file manager cannot be created
+     */
+    List<File> getClassPath() throws IOException {
+        List<File> result = effectiveClassPath;
+        if (result == null) {
+            final CachingFileManager fileManager = acquire();
+            try {
+                effectiveClassPath = result = fileManager.getClassPath();
+            } finally {
+                release(fileManager);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Borrow a file manager, waiting while all of them are in use.
+     *
+     * @throws IOException if a new file manager cannot be created, or the
+     *                     pool is closed, even while waiting
+     */
+    CachingFileManager acquire() throws IOException {
+        return acquire(0);
+    }
+
+    /**
+     * Borrow a file manager, waiting while all of them are in use, but no
+     * longer than <var>timeoutNanos</var>.
+     *
+     * @param timeoutNanos the longest wait; 0 to wait as long as it takes
+     * @return the file manager, or null if the wait timed out
+     * @throws IOException if a new file manager cannot be created, or the
+     *                     pool is closed, even while waiting
+     */
+    CachingFileManager acquire(final long timeoutNanos) throws IOException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        final CachingFileManager fileManager;
+        synchronized (this) {
+            while (true) {
+                if (closed)
+                    throw new IOException("the compiler has been closed");
+                if (!idle.isEmpty()) {
+                    fileManager = idle.poll();
+                    break;
+                }
+                if (created < size) {
+                    fileManager = newFileManager();
+                    created++;
+                    break;
+                }
+                try {
+                    if (timeoutNanos == 0) {
+                        wait();
+                    } else {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0)
+                            return null;
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for a file manager", e);
+                }
+            }
+        }
+        try {
+            fileManager.revalidate();
+        } catch (IOException | RuntimeException e) {
+            release(fileManager);
+            throw e;
+        }
+        return fileManager;
+    }
+
+    /**
+     * Return a file manager obtained from {@link #acquire()}.
+     */
+    void release(final CachingFileManager fileManager) {
+        synchronized (this) {
+            if (!closed) {
+                idle.add(fileManager);
+                notify();
+                return;
+            }
+        }
+        close(fileManager);
+    }
+
+    /**
+     * Close the idle file managers, and the others as they are released.
+     * Threads waiting in {@link #acquire()} are woken, and fail.
+     */
+    void close() {
+        final List<CachingFileManager> closing;
+        synchronized (this) {
+            closed = true;
+            closing = new ArrayList<>(idle);
+            idle.clear();
+            notifyAll();
+        }
+        for (CachingFileManager fileManager : closing)
+            close(fileManager);
+    }
+
+    private static void close(final CachingFileManager fileManager) {
+        try {
+            fileManager.close();
+        } catch (IOException e) {
+            // nothing more can be done with it
+        }
+    }
+
+    private CachingFileManager newFileManager() throws IOException {
+        final StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null,
+                null);
+        if (classPath != null)
+            fileManager.setLocation(StandardLocation.CLASS_PATH, classPath);
+        return new CachingFileManager(fileManager);
+    }
+}
@@ -0,0 +1,175 @@
+package javaxtools.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * A JavaFileObject which contains either the source text or the compiler
+ * generated class. This class is used in two cases.
+ * <ol>
+ * <li>This instance uses it to store the source which is passed to the
+ * compiler. This uses the
+ * {@link JavaFileObjectImpl#JavaFileObjectImpl(String, CharSequence)}
+ * constructor.
+ * <li>The Java compiler also creates instances (indirectly through the
+ * FileManagerImplFileManager) when it wants to create a JavaFileObject for the
+ * .class output. This uses the
+ * {@link JavaFileObjectImpl#JavaFileObjectImpl(String, JavaFileObject.Kind)}
+ * constructor.
+ * </ol>
+ * This class does not attempt to reuse instances (there does not seem to be a
+ * need, as it would require adding a Map for the purpose, and this would also
+ * prevent garbage collection of class byte code.)
+ */
+final class JavaFileObjectImpl extends SimpleJavaFileObject {
+    // If kind == CLASS, this receives byte code from openOutputStream until
+    // the stream is closed
+    private ByteArrayOutputStream output;
+
+    // If kind == CLASS, the byte code, once output is closed; exactly sized
+    // and never modified, so it is handed out without copying
+    private byte[] byteCode;
+
+    // if kind == SOURCE, this contains the source text
+    private final CharSequence source;
+
+    // the binary name of the class in this file
+    private final String binaryName;
+
+    // if kind == CLASS, the binary name of the source file it was compiled
+    // from, or null if unknown
+    private final String sourceName;
+
+    /**
+     * Construct a new instance which stores source
+     *
+     * @param qualifiedClassName the qualified name of the class; the file's
+     *                           base name is its simple name
+     * @param source             the source code
+     */
+    JavaFileObjectImpl(final String qualifiedClassName, final CharSequence source) {
+        super(CharSequenceCompiler.toURI(qualifiedClassName.substring(
+                qualifiedClassName.lastIndexOf('.') + 1) + CharSequenceCompiler.JAVA_EXTENSION),
+                Kind.SOURCE);
+        this.source = source;
+        binaryName = qualifiedClassName;
+        sourceName = null;
+    }
+
+    /**
+     * Construct a new instance
+     *
+     * @param name the file name, which is the binary class name
+     * @param kind the kind of file
+     */
+    JavaFileObjectImpl(final String name, final Kind kind) {
+        this(name, kind, null);
+    }
+
+    /**
+     * Construct a new instance for the output of a compilation
+     *
+     * @param name       the file name, which is the binary class name
+     * @param kind       the kind of file
+     * @param sourceName the binary name of the source file it is compiled
+     *                   from, or null if unknown
+     */
+    JavaFileObjectImpl(final String name, final Kind kind, final String sourceName) {
+        super(CharSequenceCompiler.toURI(name), kind);
+        source = null;
+        binaryName = name;
+        this.sourceName = sourceName;
+    }
+
+    /**
+     * Construct a new instance which holds the given byte code
+     *
+     * @param name     the binary class name
+     * @param byteCode the content of the class file
+     */
+    JavaFileObjectImpl(final String name, final byte[] byteCode) {
+        this(name, Kind.CLASS);
+        this.byteCode = byteCode;
+    }
+
+    /**
+     * @return the binary name of the class in this file
+     */
+    String getBinaryName() {
+        return binaryName;
+    }
+
+    /**
+     * @return the binary name of the source file this class file was compiled
+     * from, or null if unknown
+     */
+    String getSourceName() {
+        return sourceName;
+    }
+
+    /**
+     * Return the source code content
+     *
+     * @see javax.tools.SimpleJavaFileObject#getCharContent(boolean)
+     */
+    @Override
+    public CharSequence getCharContent(final boolean ignoreEncodingErrors)
+            throws UnsupportedOperationException {
+        if (source == null)
+            throw new UnsupportedOperationException("getCharContent()");
+        return source;
+    }
+
+    /**
+     * Return an input stream for reading the byte code
+     *
+     * @see javax.tools.SimpleJavaFileObject#openInputStream()
+     */
+    @Override
+    public InputStream openInputStream() {
+        return new ByteArrayInputStream(getByteCode());
+    }
+
+    /**
+     * Return an output stream for writing the bytecode
+     *
+     * @see javax.tools.SimpleJavaFileObject#openOutputStream()
+     */
+    @Override
+    public synchronized OutputStream openOutputStream() {
+        byteCode = null;
+        output = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                freeze(this, count == buf.length ? buf : Arrays.copyOf(buf, count));
+            }
+        };
+        return output;
+    }
+
+    private synchronized void freeze(final ByteArrayOutputStream stream, final byte[] bytes) {
+        if (output == stream) {
+            byteCode = bytes;
+            output = null;
+        }
+    }
+
+    /**
+     * @return the byte code generated by the compiler. The array is shared,
+     * not copied, and must not be modified.
+     */
+    synchronized byte[] getByteCode() {
+        if (byteCode == null && output != null) {
+            // the compiler has not closed the stream yet
+            return output.toByteArray();
+        }
+        return byteCode;
+    }
+}
@@ -0,0 +1,110 @@
+package javaxtools.compiler;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject;
+
+/**
+ * Access to the <code>com.sun.source.util</code> API of javac tasks, which is
+ * not part of javax.tools and on Java 8 is in tools.jar, so it is reached by
+ * reflection.
+ * <p/>
+ * Thread safety: this class is thread safe.
+ */
+final class JavacTasks {
+    private JavacTasks() {
+    }
+
+    /**
+     * Register a <code>com.sun.source.util.TaskListener</code> with
+     * <var>task</var>, if it is a javac task. The listener is a proxy which
+     * passes the calls of started(TaskEvent) and finished(TaskEvent) to
+     * <var>handler</var>, along with those of the Object methods.
+     *
+     * @return whether the listener was registered
+     */
+    static boolean addTaskListener(final CompilationTask task, final InvocationHandler handler) {
+        final Class<?> javacTask = javacTask(task);
+        if (javacTask == null)
+            return false;
+        try {
+            final Class<?> listener = Class.forName("com.sun.source.util.TaskListener", false,
+                    javacTask.getClassLoader());
+            javacTask.getMethod("addTaskListener", listener).invoke(task, Proxy.newProxyInstance(
+                    listener.getClassLoader(), new Class<?>[]{listener}, handler));
+            return true;
+        } catch (ReflectiveOperationException | LinkageError | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the name of the kind of a <code>com.sun.source.util.TaskEvent</code>,
+     * such as "PARSE" or "ANALYZE"
+     */
+    static String kind(final Object taskEvent) {
+        try {
+            return ((Enum<?>) taskEvent.getClass().getMethod("getKind").invoke(taskEvent)).name();
+        } catch (ReflectiveOperationException | SecurityException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Parse and attribute the sources of <var>task</var>, without generating
+     * class files, if it is a javac task. As when compiling, the sources are
+     * not attributed if they do not parse, so only the syntax errors are
+     * reported then.
+     *
+     * @param diagnostics the diagnostics listener of <var>task</var>
+     * @return whether <var>task</var> is a javac task, so that it has been run
+     * @throws IOException if javac reports an I/O error
+     */
+    static boolean analyze(final CompilationTask task,
+                           final DiagnosticCollector<JavaFileObject> diagnostics)
+            throws IOException {
+        final Class<?> javacTask = javacTask(task);
+        if (javacTask == null)
+            return false;
+        try {
+            javacTask.getMethod("parse").invoke(task);
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                    return true;
+            }
+            javacTask.getMethod("analyze").invoke(task);
+            return true;
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (ReflectiveOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return <code>com.sun.source.util.JavacTask</code> if <var>task</var>
+     * is one, else null
+     */
+    private static Class<?> javacTask(final CompilationTask task) {
+        try {
+            final Class<?> javacTask = Class.forName("com.sun.source.util.JavacTask", false,
+                    task.getClass().getClassLoader());
+            return javacTask.isInstance(task) ? javacTask : null;
+        } catch (ClassNotFoundException | LinkageError | SecurityException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package javaxtools.compiler;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * In-memory files indexed by binary class name and by package, so that
+ * listing a package costs time proportional to the size of that package (and,
+ * when recursing, its subpackages) rather than to the number of files held.
+ * <p/>
+ * Thread safety: this class is not thread safe.
+ */
+final class PackageIndex<F extends JavaFileObject> {
+    private final Map<String, F> byName = new HashMap<>();
+
+    // package name -> (binary name -> file); sorted so that the subpackages of
+    // a package form a contiguous range
+    private final NavigableMap<String, Map<String, F>> byPackage = new TreeMap<>();
+
+    /**
+     * @return the package of a binary class name
+     */
+    static String packageName(final String binaryName) {
+        final int dotPos = binaryName.lastIndexOf('.');
+        return dotPos == -1 ? "" : binaryName.substring(0, dotPos);
+    }
+
+    /**
+     * Add a file, replacing any file with the same binary name.
+     *
+     * @return the replaced file, or null
+     */
+    F put(final String binaryName, final F file) {
+        final String packageName = packageName(binaryName);
+        Map<String, F> files = byPackage.get(packageName);
+        if (files == null) {
+            files = new LinkedHashMap<>();
+            byPackage.put(packageName, files);
+        }
+        files.put(binaryName, file);
+        return byName.put(binaryName, file);
+    }
+
+    /**
+     * @return the file with the binary name, or null
+     */
+    F get(final String binaryName) {
+        return byName.get(binaryName);
+    }
+
+    /**
+     * @return all files, in no particular order
+     */
+    Collection<F> values() {
+        return Collections.unmodifiableCollection(byName.values());
+    }
+
+    int size() {
+        return byName.size();
+    }
+
+    /**
+     * Add the files of a package to <var>result</var>.
+     *
+     * @param packageName the package name, "" for the unnamed package
+     * @param recurse     whether to add the files of subpackages, too
+     */
+    void list(final String packageName, final boolean recurse,
+              final Collection<? super F> result) {
+        final Map<String, F> files = byPackage.get(packageName);
+        if (files != null)
+            result.addAll(files.values());
+        if (!recurse)
+            return;
+        // '/' follows '.', so this range holds exactly the names starting with
+        // packageName + '.'
+        final Collection<Map<String, F>> subpackages = packageName.isEmpty()
+                ? byPackage.tailMap("", false).values()
+                : byPackage.subMap(packageName + '.', true, packageName + '/', false).values();
+        for (Map<String, F> subpackage : subpackages)
+            result.addAll(subpackage.values());
+    }
+}
@@ -0,0 +1,266 @@
+package javaxtools.compiler;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A cache of compiled byte code in a local directory, which may be attached to
+ * {@link CharSequenceCompiler} instances via
+ * {@link CharSequenceCompiler#setPersistentCache(PersistentClassCache)}. It
+ * survives restarts of the JVM and may be shared by several JVMs on the same
+ * host.
+ * <p/>
+ * Each compilation is stored in one file named by a SHA-256 digest of
+ * <ul>
+ * <li>the qualified class names and source text,
+ * <li>the compiler options,
+ * <li>the Java runtime and compiler version, and
+ * <li>the name, size and modification time of each class path entry the source
+ * is compiled against,
+ * </ul>
+ * so that changing any of them selects another file. Classes previously
+ * compiled in memory by the same {@link CharSequenceCompiler} are not on that
+ * class path; the ones referenced by the cached byte code are recorded with a
+ * digest of their own byte code and must be present, unchanged, when the file
+ * is loaded. So are all of them which declare compile-time constants, as the
+ * byte code may contain their values without a reference to them. Files are
+ * written to a temporary name and then atomically renamed, so readers never
+ * see a partially written file. Unreadable or corrupt files are treated as
+ * misses.
+ * <p/>
+ * Thread safety: this class is thread safe.
+ */
+public final class PersistentClassCache {
+    // "JCC" and a format version; version 2 records the classes declaring
+    // constants as dependencies
+    private static final int MAGIC = 0x4A434302;
+    private static final String SUFFIX = ".classes";
+
+    private final Path directory;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+
+    /**
+     * Construct a new instance which stores files in <var>directory</var>,
+     * creating it if it does not exist.
+     *
+     * @param directory the cache directory
+     * @throws IOException if the directory cannot be created
+     */
+    public PersistentClassCache(final Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * @return the cache directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of compilations loaded from this cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of lookups which found no usable file
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of files written by this instance
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentClassCache[" + directory + ", hits=" + hitCount + ", misses="
+                + missCount + ", writes=" + writeCount + "]";
+    }
+
+    /**
+     * Compute the key of a compilation.
+     *
+     * @param classPath the class path the source is compiled against; may be null
+     */
+    static byte[] key(final List<String> options, final Iterable<? extends File> classPath,
+                      final Map<String, CharSequence> classes) {
+        final MessageDigest digest = CompiledClassCache.newDigest(options);
+        CompiledClassCache.update(digest, System.getProperty("java.vm.vendor", ""));
+        CompiledClassCache.update(digest, System.getProperty("java.runtime.version", ""));
+        CompiledClassCache.update(digest, System.getProperty("java.class.version", ""));
+        if (classPath != null) {
+            for (File file : classPath) {
+                CompiledClassCache.update(digest, file.getAbsolutePath() + '|' + file.length()
+                        + '|' + file.lastModified());
+            }
+        }
+        CompiledClassCache.update(digest, "");
+        for (Entry<String, CharSequence> entry : new TreeMap<>(classes).entrySet()) {
+            CompiledClassCache.update(digest, entry.getKey());
+            CompiledClassCache.update(digest, entry.getValue() == null ? "" : entry.getValue());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Read the class files stored under <var>key</var>, provided that each
+     * in-memory class they were compiled against is present in
+     * <var>classLoader</var> with the same byte code.
+     *
+     * @return a map of binary class names to class files, or null on a miss
+     */
+    Map<String, byte[]> load(final byte[] key, final ClassLoaderImpl classLoader) {
+        final Map<String, byte[]> classFiles = read(key, classLoader);
+        (classFiles == null ? missCount : hitCount).incrementAndGet();
+        return classFiles;
+    }
+
+    private Map<String, byte[]> read(final byte[] key, final ClassLoaderImpl classLoader) {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file(key), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            // usually NoSuchFileException
+            return null;
+        }
+        try {
+            if (buffer.getInt() != MAGIC || !Arrays.equals(key, bytes(buffer, key.length)))
+                return null;
+            for (int i = buffer.getInt(); i > 0; i--) {
+                final String name = new String(bytes(buffer, buffer.getInt()), UTF_8);
+                final byte[] dependencyDigest = bytes(buffer, buffer.getInt());
+                final JavaFileObjectImpl dependency = classLoader.layerFile(name);
+                if (dependency == null
+                        || !Arrays.equals(dependencyDigest, digest(dependency.getByteCode())))
+                    return null;
+            }
+            final Map<String, byte[]> classFiles = new LinkedHashMap<>();
+            for (int i = buffer.getInt(); i > 0; i--) {
+                final String name = new String(bytes(buffer, buffer.getInt()), UTF_8);
+                classFiles.put(name, bytes(buffer, buffer.getInt()));
+            }
+            return classFiles;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // truncated or corrupt
+            return null;
+        }
+    }
+
+    /**
+     * Store <var>classFiles</var> under <var>key</var>. Failures are ignored,
+     * as the cache is only an optimization.
+     *
+     * @param classFiles   a map of binary class names to class files
+     * @param dependencies the in-memory classes the class files were compiled
+     *                     against
+     */
+    void store(final byte[] key, final Map<String, byte[]> classFiles,
+               final Map<String, JavaFileObjectImpl> dependencies) {
+        final Path file = file(key);
+        Path temp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.write(key);
+                out.writeInt(dependencies.size());
+                for (Entry<String, JavaFileObjectImpl> entry : dependencies.entrySet()) {
+                    write(out, entry.getKey().getBytes(UTF_8));
+                    write(out, digest(entry.getValue().getByteCode()));
+                }
+                out.writeInt(classFiles.size());
+                for (Entry<String, byte[]> entry : classFiles.entrySet()) {
+                    write(out, entry.getKey().getBytes(UTF_8));
+                    write(out, entry.getValue());
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+            writeCount.incrementAndGet();
+        } catch (IOException e) {
+            // ignore; the next compilation will try again
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the cache file for <var>key</var>, in a subdirectory named by its
+     * first byte to keep directories small
+     */
+    private Path file(final byte[] key) {
+        final StringBuilder hex = new StringBuilder(key.length * 2);
+        for (byte b : key)
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return directory.resolve(hex.substring(0, 2)).resolve(hex + SUFFIX);
+    }
+
+    private static byte[] digest(final byte[] bytes) {
+        return CompiledClassCache.sha256().digest(bytes);
+    }
+
+    /**
+     * @return the next <var>length</var> bytes of <var>buffer</var>
+     * @throws IllegalArgumentException if <var>length</var>, which is read
+     *                                  from the file, is negative or more
+     *                                  than the bytes left, as in a corrupt
+     *                                  file
+     */
+    private static byte[] bytes(final ByteBuffer buffer, final int length) {
+        // checked before allocating, so that a corrupt length is a miss
+        // rather than an OutOfMemoryError
+        if (length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("bad length " + length);
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void write(final DataOutputStream out, final byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
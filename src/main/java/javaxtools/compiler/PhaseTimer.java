@@ -0,0 +1,125 @@
+package javaxtools.compiler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.tools.JavaCompiler.CompilationTask;
+
+import javaxtools.compiler.CompilerMetrics.Phase;
+
+/**
+ * Times the phases of one compilation, reporting each completed phase to a
+ * {@link CompilerMetrics} and adding up the time of each phase.
+ * <p/>
+ * The javac phases are observed through a <code>com.sun.source.util.TaskListener</code>.
+ * The listener is a proxy registered by {@link JavacTasks}. If the compiler is
+ * not javac, only the phases timed by this package are reported.
+ * <p/>
+ * Thread safety: javac runs a compilation on one thread, so this class is
+ * not thread safe.
+ */
+final class PhaseTimer implements InvocationHandler {
+    private final CompilerMetrics metrics;
+
+    // [phase] -> total nanos
+    private final long[] totals = new long[Phase.values().length];
+
+    // [phase] -> start of the outermost started event, and nesting depth
+    private final long[] starts = new long[Phase.values().length];
+    private final int[] depths = new int[Phase.values().length];
+
+    PhaseTimer(final CompilerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Register a listener for the javac phases with <var>task</var>, if it is
+     * a javac task.
+     *
+     * @return whether the listener was registered
+     */
+    boolean listen(final CompilationTask task) {
+        return JavacTasks.addTaskListener(task, this);
+    }
+
+    /**
+     * Implements TaskListener.started(TaskEvent) and finished(TaskEvent).
+     */
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+        switch (method.getName()) {
+            case "started":
+            case "finished":
+                final Phase phase = phase(JavacTasks.kind(args[0]));
+                if (phase != null) {
+                    if (method.getName().equals("started"))
+                        started(phase);
+                    else
+                        finished(phase);
+                }
+                return null;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "PhaseTimer listener";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the phase of a TaskEvent.Kind, or null if it is not timed
+     */
+    private static Phase phase(final String kind) {
+        switch (kind) {
+            case "PARSE":
+                return Phase.PARSE;
+            case "ENTER":
+                return Phase.ENTER;
+            case "ANALYZE":
+                return Phase.ANALYZE;
+            case "GENERATE":
+                return Phase.GENERATE;
+            default:
+                return null;
+        }
+    }
+
+    private void started(final Phase phase) {
+        // javac may start several events of a kind before finishing them, for
+        // example ENTER for each file; time from the first start to the last
+        // finish
+        if (depths[phase.ordinal()]++ == 0)
+            starts[phase.ordinal()] = System.nanoTime();
+    }
+
+    private void finished(final Phase phase) {
+        if (depths[phase.ordinal()] > 0 && --depths[phase.ordinal()] == 0)
+            record(phase, System.nanoTime() - starts[phase.ordinal()]);
+    }
+
+    /**
+     * Report a completed phase.
+     */
+    void record(final Phase phase, final long nanos) {
+        totals[phase.ordinal()] += nanos;
+        metrics.phase(phase, nanos);
+    }
+
+    /**
+     * @return the total time of each phase which happened
+     */
+    Map<Phase, Long> getPhaseNanos() {
+        final Map<Phase, Long> result = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            if (totals[phase.ordinal()] > 0)
+                result.put(phase, totals[phase.ordinal()]);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+}
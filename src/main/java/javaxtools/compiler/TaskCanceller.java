@@ -0,0 +1,105 @@
+package javaxtools.compiler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+import javax.tools.JavaCompiler.CompilationTask;
+
+/**
+ * Stops a javac task once it is cancelled, or its timeout expires. A
+ * <code>com.sun.source.util.TaskListener</code> checks a condition whenever
+ * javac starts or finishes a phase of a file, such as parsing or attributing
+ * it, and throws a {@link CancellationException} if it holds. javac wraps
+ * exceptions of listeners, so the caller should check {@link #isCancelled()}
+ * when the task fails.
+ * <p/>
+ * Thread safety: the condition may become true on any thread.
+ */
+final class TaskCanceller implements InvocationHandler {
+    private final BooleanSupplier cancelled;
+
+    // 0 for no timeout
+    private final long timeoutNanos;
+    private final long deadline;
+
+    /**
+     * @param cancelled tells whether the task has been cancelled
+     */
+    TaskCanceller(final BooleanSupplier cancelled) {
+        this(cancelled, 0);
+    }
+
+    /**
+     * @param cancelled    tells whether the task has been cancelled
+     * @param timeoutNanos the time the task may take from now; 0 for no
+     *                     limit
+     */
+    TaskCanceller(final BooleanSupplier cancelled, final long timeoutNanos) {
+        this.cancelled = cancelled;
+        this.timeoutNanos = timeoutNanos;
+        this.deadline = System.nanoTime() + timeoutNanos;
+    }
+
+    /**
+     * Register a listener which cancels <var>task</var>, if it is a javac
+     * task. Other tasks run to the end.
+     *
+     * @return whether the listener was registered
+     */
+    boolean listen(final CompilationTask task) {
+        return JavacTasks.addTaskListener(task, this);
+    }
+
+    /**
+     * @return whether the task has been cancelled
+     */
+    boolean isCancelled() {
+        return cancelled.getAsBoolean() || isExpired();
+    }
+
+    /**
+     * @return whether the timeout has expired
+     */
+    boolean isExpired() {
+        return timeoutNanos > 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @return the time the task may take, from its start; 0 for no limit
+     */
+    long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * @return the time left until the timeout, at least 0; or
+     * {@link Long#MAX_VALUE} if there is no limit
+     */
+    long remainingNanos() {
+        return timeoutNanos == 0 ? Long.MAX_VALUE : Math.max(0, deadline - System.nanoTime());
+    }
+
+    /**
+     * Implements TaskListener.started(TaskEvent) and finished(TaskEvent).
+     */
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+        switch (method.getName()) {
+            case "started":
+            case "finished":
+                if (isCancelled())
+                    throw new CancellationException("compilation cancelled");
+                return null;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "TaskCanceller listener";
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package javaxtools.compiler;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+/**
+ * Validates sources as they are edited, for example on every keystroke, with
+ * {@link CharSequenceCompiler#validate(Map)}. Each validation supersedes the
+ * previous one: if that has not started yet, it never does, and if it is
+ * running, javac stops at the next file or phase. Either way its future is
+ * cancelled, so only the diagnostics of the latest source are reported.
+ * <p/>
+ * Thread safety: this class is thread safe.
+ */
+public final class Validator {
+    private final CharSequenceCompiler<?> compiler;
+
+    private final Executor executor;
+
+    // the latest validation, which is cancelled by the next one
+    private final AtomicReference<CompletableFuture<?>> latest = new AtomicReference<>();
+
+    /**
+     * @param compiler the compiler whose classes the sources are checked
+     *                 against
+     * @param executor runs the validations; a single thread is enough, as
+     *                 superseded validations end early
+     */
+    public Validator(CharSequenceCompiler<?> compiler, Executor executor) {
+        this.compiler = compiler;
+        this.executor = executor;
+    }
+
+    /**
+     * Validate Java source in <var>javaSource</var>, cancelling the previous
+     * validation.
+     *
+     * @return the diagnostics of the source, to come; the future is cancelled
+     * if the validation is superseded, and fails with a
+     * {@link CharSequenceCompilerException} if the compiler cannot be run
+     */
+    public CompletableFuture<DiagnosticCollector<JavaFileObject>> validate(
+            String qualifiedClassName, CharSequence javaSource) {
+        return validate(Collections.singletonMap(qualifiedClassName, javaSource));
+    }
+
+    /**
+     * Validate multiple Java source strings, cancelling the previous
+     * validation.
+     *
+     * @param classes the sources by qualified class name, as for
+     *                {@link CharSequenceCompiler#validate(Map)}; they are copied
+     * @return the diagnostics of the sources, to come; the future is cancelled
+     * if the validation is superseded, and fails with a
+     * {@link CharSequenceCompilerException} if the compiler cannot be run
+     */
+    public CompletableFuture<DiagnosticCollector<JavaFileObject>> validate(
+            Map<String, CharSequence> classes) {
+        final Map<String, CharSequence> sources = new HashMap<>(classes);
+        final CompletableFuture<DiagnosticCollector<JavaFileObject>> result =
+                new CompletableFuture<>();
+        final CompletableFuture<?> previous = latest.getAndSet(result);
+        if (previous != null)
+            previous.cancel(false);
+        try {
+            executor.execute(() -> {
+                if (result.isDone())
+                    return;
+                try {
+                    result.complete(compiler.validate(sources, result::isDone));
+                } catch (CancellationException e) {
+                    result.cancel(false);
+                } catch (CharSequenceCompilerException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Cancel the latest validation, if it has not finished.
+     */
+    public void cancel() {
+        final CompletableFuture<?> validation = latest.get();
+        if (validation != null)
+            validation.cancel(false);
+    }
+}
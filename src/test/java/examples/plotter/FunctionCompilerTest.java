@@ -0,0 +1,270 @@
+package examples.plotter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javaxtools.compiler.CharSequenceCompiler;
+import javaxtools.compiler.CharSequenceCompilerException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Differential test of the direct translation of expressions to byte code:
+ * every expression of the corpus must be translated directly, and give the
+ * same results as the javac path and as {@link ExpressionInterpreter} at
+ * every x, or throw the same exception. Results are compared bit by bit,
+ * except that all NaNs are equal: Java does not specify the sign of a NaN
+ * result, and the JIT compiler may swap the operands of a commutative
+ * operation, and so change which NaN it returns. Constant NaNs, which are
+ * folded at compile time, are compared bit by bit, too.
+ */
+public class FunctionCompilerTest {
+    private static final String[] EXPRESSIONS = {
+            "x", "-x", "x * (sin(x) + cos(x))", "PI * x", "E", "-0.0 + x", "0.0 - x",
+            "0.0 / 0", "-(0.0 / 0)", "0.0 / 0 * x", "x / 0", "(float) (0.0 / 0)",
+            "0.0f / 0 + x", "x % 0.0", "(int) x % 0", "1 / 0 + x", "x > 0 ? 1 : 0.0 / 0",
+            "true ? x : 0.0 / 0", "x == x ? 1 : 0", "x != x ? 1 : -1", "!(x < 0) ? x : -x",
+            "x > 0 && x < 1 ? 1 : 0", "x < 0 || x > 1 ? 1 : 0", "sqrt(-1)", "-sqrt(-1)",
+            "sqrt(x) * 0", "max(-0.0, 0.0)", "min(-0.0f, x)", "Math.max(x, 0.0 / 0)",
+            "(int) (x * 1e10)", "(long) x * 3", "2147483647 + 1 + x", "(int) 1e10",
+            "(long) 1e300 + x", "round(x)", "round((float) x)", "abs(x) / x", "1 / x",
+            "x * x - 2 * x + 1", "pow(x, 0.5)", "pow(2, x)", "exp(x) - 1", "log(x)",
+            "log10(abs(x) + 1e-300)", "atan2(x, -0.0)", "floor(x) + ceil(x)", "signum(x)",
+            "hypot(x, 3)", "7 / 2 + x", "7 % -3 * x", "-7.5 % 2 + x", "(float) x * 0.1f",
+            "(double) (float) x", "1e308 * 10 + x", "4.9e-324 / 2 + x", "x + 3L / 2",
+            "(x > 0 ? 1 : -1) * 0.0", "(x > 0) == (x < 1) ? x : 0", "floorMod((int) x, 3)",
+            "floorDiv((long) x, 0L)", "addExact((int) x, 2147483647)", "toRadians(x)",
+            "cbrt(x)", "tanh(x)", "expm1(x) - log1p(x)", "IEEEremainder(x, 2)", "rint(x)",
+            "ulp(x)", "nextUp(x)", "copySign(1.0, x)", "getExponent(x)", "scalb(x, 3)",
+            "(0.0 / 0) == (0.0 / 0) ? 1 : 0", "1.0f / 3 - 1.0 / 3 + x", "-(float) x",
+    };
+
+    // NaN, the zeros and the infinities, and ordinary values
+    private static final double[] XS = {Double.NaN, 0.0, -0.0, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, 1, -1, 0.5, -2.25, 3.7, Math.PI, 100, 1e10, -1e-300,
+            Double.MIN_VALUE, Double.MAX_VALUE};
+
+    // constant expressions whose NaN javac folds into the class file
+    private static final String[] CONSTANT_NANS = {"0.0 / 0", "-(0.0 / 0)", "(float) (0.0 / 0)",
+            "0.0f / 0", "-(0.0f / 0)", "(0.0 / 0) * -1", "sqrt(-1) > 0 ? 1 : 0.0 / 0 * -1",
+            "true ? -(0.0 / 0) : 1"};
+
+    private static final int GENERATED = 200;
+
+    private static CharSequenceCompiler<Function> compiler;
+    private static FunctionCompiler direct;
+    private static FunctionCompiler javac;
+
+    @BeforeClass
+    public static void setUp() {
+        compiler = new CharSequenceCompiler<>(Function.class.getClassLoader(), null);
+        compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.ISOLATED);
+        direct = new FunctionCompiler(compiler);
+        javac = new FunctionCompiler(compiler);
+        javac.setDirectEmit(false);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        compiler.close();
+    }
+
+    @Test
+    public void handWritten() throws Exception {
+        for (String expression : EXPRESSIONS)
+            check(expression);
+    }
+
+    @Test
+    public void constantNaNs() throws Exception {
+        for (String expression : CONSTANT_NANS) {
+            check(expression);
+            final Function emitted = direct.compile(expression, null);
+            final Function compiled = javac.compile(expression, null);
+            final Function interpreted = new ExpressionInterpreter(
+                    ExpressionParser.parse(expression));
+            final String expected = rawBits(compiled.f(1));
+            assertEquals(expression, expected, rawBits(emitted.f(1)));
+            assertEquals(expression + " (interpreted)", expected, rawBits(interpreted.f(1)));
+        }
+    }
+
+    @Test
+    public void generated() throws Exception {
+        final Random random = new Random(42);
+        for (int i = 0; i < GENERATED; i++)
+            check(generate(random, 4));
+    }
+
+    private static void check(final String expression) throws Exception {
+        final Expression tree;
+        try {
+            tree = ExpressionParser.parse(expression);
+        } catch (ExpressionParser.UnsupportedException e) {
+            fail(expression + " is not translated directly: " + e.getMessage());
+            return;
+        }
+        final Function interpreted = new ExpressionInterpreter(tree);
+        final Function emitted = direct.compile(expression, null);
+        final Function compiled = javac.compile(expression, null);
+        for (double x : XS) {
+            final String expected = result(compiled, x);
+            assertEquals(expression + " at x=" + x, expected, result(emitted, x));
+            assertEquals(expression + " (interpreted) at x=" + x, expected,
+                    result(interpreted, x));
+        }
+        // the bulk loop of the translated class, too
+        final double[] ys = new double[XS.length];
+        emitted.evaluate(XS, 0, ys, 0, 0);
+        try {
+            emitted.evaluate(XS, 0, ys, 0, XS.length);
+        } catch (ArithmeticException e) {
+            return;
+        }
+        for (int i = 0; i < XS.length; i++)
+            assertEquals(expression + " (evaluate) at x=" + XS[i], result(compiled, XS[i]),
+                    bits(ys[i]));
+    }
+
+    /**
+     * @return the bits of f(x), or the class of the exception it throws
+     */
+    private static String result(final Function f, final double x) {
+        try {
+            return bits(f.f(x));
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+
+    /**
+     * @return the bits of <var>y</var>, with NaN in canonical form
+     */
+    private static String bits(final double y) {
+        return Long.toHexString(Double.doubleToLongBits(y));
+    }
+
+    private static String rawBits(final double y) {
+        return Long.toHexString(Double.doubleToRawLongBits(y));
+    }
+
+    /**
+     * @return a random expression of the subset, of at most <var>depth</var>
+     * levels
+     */
+    private static String generate(final Random random, final int depth) {
+        if (depth == 0 || random.nextInt(4) == 0)
+            return leaf(random);
+        switch (random.nextInt(8)) {
+            case 0:
+                return "-" + parenthesized(random, depth);
+            case 1:
+            case 2:
+                return parenthesized(random, depth) + ' ' + pick(random, "+", "-", "*", "/", "%")
+                        + ' ' + parenthesized(random, depth);
+            case 3:
+                return "(" + condition(random, depth) + " ? " + generate(random, depth - 1) + " : "
+                        + generate(random, depth - 1) + ")";
+            case 4:
+                return "(" + pick(random, "int", "long", "float", "double") + ") "
+                        + parenthesized(random, depth);
+            case 5:
+                return pick(random, "sin", "cos", "sqrt", "abs", "exp", "log", "floor", "signum",
+                        "round", "Math.abs") + "(" + generate(random, depth - 1) + ")";
+            case 6:
+                return pick(random, "max", "min", "pow", "atan2", "hypot") + "("
+                        + generate(random, depth - 1) + ", " + generate(random, depth - 1) + ")";
+            default:
+                return generate(random, depth - 1) + " + " + leaf(random);
+        }
+    }
+
+    private static String condition(final Random random, final int depth) {
+        final String comparison = generate(random, depth - 1) + ' '
+                + pick(random, "<", "<=", ">", ">=", "==", "!=") + ' ' + generate(random, depth - 1);
+        switch (random.nextInt(4)) {
+            case 0:
+                return "!(" + comparison + ")";
+            case 1:
+                return comparison + " && x " + pick(random, "<", ">") + " 0";
+            default:
+                return comparison;
+        }
+    }
+
+    private static String parenthesized(final Random random, final int depth) {
+        return "(" + generate(random, depth - 1) + ")";
+    }
+
+    private static String leaf(final Random random) {
+        return pick(random, "x", "x", "x", "0", "1", "2", "7", "0.0", "0.5", "1e300", "2.5f",
+                "3L", "PI", "E", "0.0f");
+    }
+
+    private static String pick(final Random random, final String... choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    @Test
+    public void longChainFallsBackToJavac() throws Exception {
+        final StringBuilder expression = new StringBuilder("x");
+        for (int i = 1; i < 4000; i++)
+            expression.append(" + x * 0");
+        checkTooDeep(expression.toString(), 4000 * 0.0 + 1);
+    }
+
+    @Test
+    public void deepNestingFallsBackToJavac() throws Exception {
+        final StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            expression.append('(');
+        expression.append('x');
+        for (int i = 0; i < 5000; i++)
+            expression.append(')');
+        checkTooDeep(expression.toString(), 1);
+    }
+
+    /**
+     * Check that <var>expression</var> is too deep to be translated directly,
+     * and that the fallback to javac either compiles it to a function whose
+     * value at 1 is <var>expected</var>, or reports that it does not compile.
+     */
+    private static void checkTooDeep(final String expression, final double expected)
+            throws Exception {
+        try {
+            ExpressionParser.parse(expression);
+            fail("translated directly");
+        } catch (ExpressionParser.UnsupportedException e) {
+            // javac knows best
+        }
+        final Function function;
+        try {
+            function = direct.compile(expression, null);
+        } catch (CharSequenceCompilerException e) {
+            return;
+        }
+        assertEquals(expected, function.f(1), 0);
+    }
+
+    @Test
+    public void corpusIsNotTrivial() {
+        // guards against a corpus the parser folds away entirely
+        final List<String> constant = new ArrayList<>();
+        for (String expression : Arrays.asList(EXPRESSIONS)) {
+            try {
+                if (!ExpressionParser.parse(expression).toString().contains("x"))
+                    constant.add(expression);
+            } catch (ExpressionParser.UnsupportedException e) {
+                fail(expression);
+            }
+        }
+        assertEquals(constant.toString(), true, constant.size() < EXPRESSIONS.length / 4);
+    }
+}
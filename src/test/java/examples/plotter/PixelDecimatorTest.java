@@ -0,0 +1,75 @@
+package examples.plotter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PixelDecimatorTest {
+    private static final double NaN = Double.NaN;
+
+    @Test
+    public void finitePointsAreReducedPerColumn() {
+        final double[][] points = PixelDecimator.decimate(
+                new double[]{0.1, 0.2, 0.3, 0.4, 1.5}, new double[]{0, 5, -5, 1, 2}, 0, 2, 2);
+        assertArrayEquals(new double[]{0.1, 0.2, 0.3, 0.4, 1.5}, points[0], 0);
+        assertArrayEquals(new double[]{0, 5, -5, 1, 2}, points[1], 0);
+    }
+
+    @Test
+    public void columnOfGapsBreaksTheLine() {
+        // the middle column has no finite point at all
+        final double[][] points = PixelDecimator.decimate(new double[]{0.5, 1.5, 2.5},
+                new double[]{1, NaN, 3}, 0, 3, 3);
+        assertArrayEquals(new double[]{0.5, 1.5, 2.5}, points[0], 0);
+        assertArrayEquals(new double[]{1, NaN, 3}, points[1], 0);
+    }
+
+    @Test
+    public void gapWithinAColumnBreaksTheLine() {
+        // infinities, too, in any order
+        final double[][] points = PixelDecimator.decimate(
+                new double[]{0.9, 0.1, 0.6, 0.5, 0.2},
+                new double[]{4, 1, Double.POSITIVE_INFINITY, NaN, 2}, 0, 1, 1);
+        // the lowest point is the first one, and the highest the last one
+        assertArrayEquals(new double[]{0.1, 0.5, 0.9}, points[0], 0);
+        assertArrayEquals(new double[]{1, NaN, 4}, points[1], 0);
+    }
+
+    @Test
+    public void gapAtTheEdgeOfAColumnBreaksTheLineToTheNext() {
+        final double[][] points = PixelDecimator.decimate(new double[]{0.1, 0.9, 1.1, 1.2},
+                new double[]{1, NaN, NaN, 2}, 0, 2, 2);
+        assertArrayEquals(new double[]{0.1, 0.9, 1.2}, points[0], 0);
+        assertArrayEquals(new double[]{1, NaN, 2}, points[1], 0);
+    }
+
+    @Test
+    public void noLineIsJoinedAcrossAGap() {
+        // sqrt has no value left of 0, and there is a pole at 0.5
+        final int n = 10000;
+        final double[] x = new double[n];
+        final double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = -1 + 2.0 * i / (n - 1);
+            y[i] = Math.sqrt(x[i]);
+        }
+        x[n / 2] = 0.5;
+        y[n / 2] = Double.POSITIVE_INFINITY;
+        final double[][] points = PixelDecimator.decimate(x, y, -1, 1, 100);
+        // a NaN separates the finite points left of each gap from those right
+        // of it
+        int nans = Double.isNaN(points[1][0]) ? 1 : 0;
+        for (int i = 1; i < points[0].length; i++) {
+            assertTrue(points[0][i - 1] <= points[0][i]);
+            final boolean left = points[0][i - 1] < 0.5;
+            if (!Double.isNaN(points[1][i]) && !Double.isNaN(points[1][i - 1]))
+                assertEquals("joined across the pole at " + points[0][i], left,
+                        points[0][i] < 0.5);
+            if (Double.isNaN(points[1][i]))
+                nans++;
+        }
+        assertEquals(2, nans);
+    }
+}
@@ -0,0 +1,99 @@
+package javaxtools.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompileServiceTest {
+    private static final String PACKAGE_NAME = "service.test";
+
+    private CharSequenceCompiler<Object> compiler;
+    private CompileService<Object> service;
+
+    @Before
+    public void setUp() {
+        compiler = new CharSequenceCompiler<>(getClass().getClassLoader(), null, 1);
+        // one worker, and a window long enough to batch all requests
+        service = new CompileService<>(compiler, 64, 16, 200, TimeUnit.MILLISECONDS, 1);
+    }
+
+    @After
+    public void tearDown() {
+        service.shutdown();
+        compiler.close();
+    }
+
+    @Test
+    public void timedOutBatchFailsOnceWithTheTimeout() throws Exception {
+        compiler.setTimeout(1, TimeUnit.MILLISECONDS);
+        final List<CompletableFuture<Class<Object>>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            futures.add(submit("Slow" + i, longExpression(20000)));
+        CharSequenceCompilerException first = null;
+        for (CompletableFuture<Class<Object>> future : futures) {
+            final CharSequenceCompilerException e = failure(future);
+            assertTrue(e.toString(), e instanceof CharSequenceCompilerTimeoutException);
+            if (first == null)
+                first = e;
+            // the exception of the batch, not one per retried request
+            assertSame(first, e);
+        }
+    }
+
+    @Test
+    public void tooLongSourceFailsWithItsMessage() throws Exception {
+        compiler.setMaxSourceLength(1000);
+        final CompletableFuture<Class<Object>> tooLong = submit("TooLong", longExpression(200));
+        final CompletableFuture<Class<Object>> fine = submit("Fine", "1");
+        final CharSequenceCompilerException e = failure(tooLong);
+        assertTrue(e.toString(), e instanceof CharSequenceCompilerLimitException);
+        assertTrue(e.getMessage(), e.getMessage().startsWith("Source too long"));
+        assertEquals(PACKAGE_NAME + ".Fine", fine.get().getName());
+    }
+
+    @Test
+    public void batchesStayWithinTheMaximumSourceLength() throws Exception {
+        // each source fits, but not all of them together
+        compiler.setMaxSourceLength(500);
+        final List<CompletableFuture<Class<Object>>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            futures.add(submit("Short" + i, Integer.toString(i)));
+        for (int i = 0; i < futures.size(); i++)
+            assertEquals(PACKAGE_NAME + ".Short" + i, futures.get(i).get().getName());
+    }
+
+    private CompletableFuture<Class<Object>> submit(final String name, final String expression) {
+        return service.submit(PACKAGE_NAME + '.' + name, "package " + PACKAGE_NAME
+                + ";\npublic class " + name + " {\n  public static double f(double x) { return "
+                + expression + "; }\n}\n", CompileService.Priority.BATCH);
+    }
+
+    private static String longExpression(final int terms) {
+        final StringBuilder expression = new StringBuilder("x");
+        for (int i = 0; i < terms; i++)
+            expression.append(" + x * ").append(i);
+        return expression.toString();
+    }
+
+    private static CharSequenceCompilerException failure(
+            final CompletableFuture<Class<Object>> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            return (CharSequenceCompilerException) e.getCause();
+        }
+        fail("compiled");
+        return null;
+    }
+}
@@ -0,0 +1,102 @@
+package javaxtools.compiler;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CompiledClassCacheTest {
+    private static final String A = "cache.test.A";
+    private static final String B = "cache.test.B";
+
+    private static final String A_SOURCE = "package cache.test;\n"
+            + "public class A { public static int value() { return 1; } }\n";
+    private static final String B_SOURCE = "package cache.test;\n"
+            + "public class B { public int value() { return A.value() + 1; } }\n";
+
+    private CompiledClassCache cache;
+    private CharSequenceCompiler<Object> compiler;
+
+    @Before
+    public void setUp() {
+        cache = new CompiledClassCache(16);
+        compiler = newCompiler();
+    }
+
+    @After
+    public void tearDown() {
+        compiler.close();
+    }
+
+    private CharSequenceCompiler<Object> newCompiler() {
+        final CharSequenceCompiler<Object> result = new CharSequenceCompiler<>(
+                getClass().getClassLoader(), null);
+        result.setCache(cache);
+        return result;
+    }
+
+    @Test
+    public void failureIsRetriedOnceTheMissingClassIsCompiled() throws Exception {
+        try {
+            compiler.compile(sources(B, B_SOURCE), null);
+            fail("B compiled without A");
+        } catch (CharSequenceCompilerException expected) {
+            // A is missing
+        }
+        compiler.compile(sources(A, A_SOURCE), null);
+        assertEquals(B, compiler.compile(sources(B, B_SOURCE), null).get(B).getName());
+    }
+
+    @Test
+    public void instancesDoNotShareResults() throws Exception {
+        final CharSequenceCompiler<Object> other = newCompiler();
+        try {
+            final Class<?> mine = compiler.compile(sources(A, A_SOURCE), null).get(A);
+            final Class<?> theirs = other.compile(sources(A, A_SOURCE), null).get(A);
+            assertNotSame(mine, theirs);
+            assertSame(theirs, other.loadClass(A));
+            assertEquals(2, cache.getMissCount());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void isolatedResultIsNotServedInSharedMode() throws Exception {
+        compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.ISOLATED);
+        final Class<?> isolated = compiler.compile(sources(A, A_SOURCE), null).get(A);
+        compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.SHARED);
+        final Class<?> shared = compiler.compile(sources(A, A_SOURCE), null).get(A);
+        assertNotSame(isolated, shared);
+        assertSame(shared, compiler.loadClass(A));
+        // and a later compilation sees it
+        compiler.compile(sources(B, B_SOURCE), null);
+    }
+
+    @Test
+    public void sharedResultIsNotServedInIsolatedMode() throws Exception {
+        final Class<?> shared = compiler.compile(sources(A, A_SOURCE), null).get(A);
+        compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.ISOLATED);
+        final Class<?> isolated = compiler.compile(sources(A, A_SOURCE), null).get(A);
+        assertNotSame(shared, isolated);
+        assertNotSame(compiler.getClassLoader(), isolated.getClassLoader());
+    }
+
+    @Test
+    public void repeatedSourceIsAHit() throws Exception {
+        final Class<?> first = compiler.compile(sources(A, A_SOURCE), null).get(A);
+        assertSame(first, compiler.compile(sources(A, A_SOURCE), null).get(A));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    private static Map<String, CharSequence> sources(final String name, final String source) {
+        return Collections.<String, CharSequence>singletonMap(name, source);
+    }
+}
@@ -0,0 +1,147 @@
+package javaxtools.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Several threads compile into one {@link CharSequenceCompiler}, alternating
+ * valid classes, each of which uses the previous one of its thread, and
+ * classes with an error of their own.
+ */
+public class ConcurrentCompileTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 12;
+    private static final String PACKAGE_NAME = "concurrent.test";
+
+    private CharSequenceCompiler<Object> compiler;
+
+    @Before
+    public void setUp() {
+        compiler = new CharSequenceCompiler<>(getClass().getClassLoader(), null, 4);
+    }
+
+    @After
+    public void tearDown() {
+        compiler.close();
+    }
+
+    @Test
+    public void closedCompilerCompilesNothing() throws Exception {
+        compiler.close();
+        final String name = PACKAGE_NAME + ".Closed";
+        final String source = "package " + PACKAGE_NAME + "; public class Closed { }";
+        try {
+            compiler.compile(name, source, null);
+            fail("compiled after close()");
+        } catch (IllegalStateException expected) {
+            // no more can be compiled
+        }
+        try {
+            compiler.validate(name, source);
+            fail("validated after close()");
+        } catch (IllegalStateException expected) {
+            // nor validated
+        }
+        try {
+            compiler.warmUp();
+            fail("warmed up after close()");
+        } catch (IllegalStateException expected) {
+            // nor warmed up
+        }
+    }
+
+    @Test
+    public void noLostClassesAndNoCrossTalk() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int round = 0; round < ROUNDS; round++) {
+                            compileGood(thread, round);
+                            compileBad(thread, round);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures)
+                future.get(5, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+        // every class is still there, and linked to its predecessor
+        for (int t = 0; t < THREADS; t++) {
+            for (int round = 0; round < ROUNDS; round++) {
+                final Class<?> c = compiler.loadClass(PACKAGE_NAME + '.' + goodName(t, round));
+                assertEquals(value(t, round), c.getMethod("value").invoke(null));
+            }
+        }
+    }
+
+    private void compileGood(final int thread, final int round) throws Exception {
+        final String name = goodName(thread, round);
+        final String body = round == 0 ? Integer.toString(value(thread, 0))
+                : goodName(thread, round - 1) + ".value() + 1";
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final Class<?> c = compiler.compile(PACKAGE_NAME + '.' + name, "package " + PACKAGE_NAME
+                + ";\npublic class " + name + " {\n  public static int value() { return " + body
+                + "; }\n}\n", diagnostics);
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+            assertFalse(diagnostic.toString(), diagnostic.getKind() == Diagnostic.Kind.ERROR);
+        assertEquals(value(thread, round), c.getMethod("value").invoke(null));
+    }
+
+    private void compileBad(final int thread, final int round) {
+        final String name = "Bad_" + thread + '_' + round;
+        final String missing = "missing_" + thread + '_' + round;
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try {
+            compiler.compile(PACKAGE_NAME + '.' + name, "package " + PACKAGE_NAME
+                    + ";\npublic class " + name + " {\n  public static int value() { return "
+                    + missing + "; }\n}\n", diagnostics);
+            fail(name + " compiled");
+        } catch (CharSequenceCompilerException e) {
+            assertTrue(e.getClassNames().contains(PACKAGE_NAME + '.' + name));
+        }
+        assertFalse(diagnostics.getDiagnostics().isEmpty());
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            assertTrue(diagnostic.toString(), diagnostic.getSource().getName()
+                    .endsWith(name + ".java"));
+            assertTrue(diagnostic.toString(), diagnostic.getMessage(null).contains(missing));
+        }
+    }
+
+    private static String goodName(final int thread, final int round) {
+        return "Good_" + thread + '_' + round;
+    }
+
+    private static int value(final int thread, final int round) {
+        return thread * 1000 + round;
+    }
+}
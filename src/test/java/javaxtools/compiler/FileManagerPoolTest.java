@@ -0,0 +1,67 @@
+package javaxtools.compiler;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class FileManagerPoolTest {
+    private FileManagerPool pool;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        pool = new FileManagerPool(ToolProvider.getSystemJavaCompiler(), null, 1);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        pool.close();
+    }
+
+    @Test
+    public void closeWakesWaitingThreads() throws Exception {
+        final CachingFileManager borrowed = pool.acquire();
+        final Future<CachingFileManager> waiting = executor.submit(() -> pool.acquire());
+        try {
+            waiting.get(300, TimeUnit.MILLISECONDS);
+            fail("acquired a second file manager from a pool of one");
+        } catch (TimeoutException expected) {
+            // it waits for the borrowed one
+        }
+        pool.close();
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            fail("acquired a file manager from a closed pool");
+        } catch (ExecutionException e) {
+            assertEquals(IOException.class, e.getCause().getClass());
+        }
+        pool.release(borrowed);
+    }
+
+    @Test
+    public void waitTimesOut() throws Exception {
+        final CachingFileManager borrowed = pool.acquire();
+        assertNull(pool.acquire(TimeUnit.MILLISECONDS.toNanos(250)));
+        pool.release(borrowed);
+        assertSame(borrowed, pool.acquire(TimeUnit.MILLISECONDS.toNanos(250)));
+        pool.release(borrowed);
+    }
+}
@@ -0,0 +1,91 @@
+package javaxtools.compiler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * A class which uses a compile-time constant of another has its value inlined.
+ * Where it is used as a case label, javac keeps no reference to the other
+ * class, not even since Java 9; the class is compiled again all the same when
+ * the constant changes.
+ */
+public class InlinedConstantTest {
+    private static final String A = "constant.test.A";
+    private static final String B = "constant.test.B";
+
+    // returns A.K
+    private static final String B_SOURCE = "package constant.test;\n"
+            + "public class B { public static int value() {\n"
+            + "  for (int i = 0; ; i++) { switch (i) { case A.K: return i; } }\n"
+            + "} }\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static String aSource(final int k, final String more) {
+        return "package constant.test;\n"
+                + "public class A { public static final int K = " + k + "; " + more + "}\n";
+    }
+
+    @Test
+    public void incrementalCompilationRecompilesUsersOfAChangedConstant() throws Exception {
+        final CharSequenceCompiler<Object> compiler = new CharSequenceCompiler<>(
+                getClass().getClassLoader(), null);
+        try {
+            compiler.setIncremental(true);
+            final Map<String, CharSequence> sources = new HashMap<>();
+            sources.put(A, aSource(1, ""));
+            sources.put(B, B_SOURCE);
+            final Class<?> first = compiler.compile(sources, null).get(B);
+            assertEquals(1, value(first));
+
+            // a change which leaves the constants alone recompiles A only
+            sources.put(A, aSource(1, "static void m() { } "));
+            assertSame(first, compiler.compile(sources, null).get(B));
+
+            sources.put(A, aSource(2, "static void m() { } "));
+            assertEquals(2, value(compiler.compile(sources, null).get(B)));
+        } finally {
+            compiler.close();
+        }
+    }
+
+    @Test
+    public void persistentCacheDoesNotServeAnOutdatedConstant() throws Exception {
+        final PersistentClassCache cache = new PersistentClassCache(folder.getRoot().toPath());
+        assertEquals(1, compileWith(cache, 1));
+        assertEquals(1, compileWith(cache, 1));
+        assertEquals(2, cache.getHitCount());
+        // a new compiler, as after a restart, in which A has changed
+        assertEquals(2, compileWith(cache, 2));
+        assertEquals(2, cache.getHitCount());
+    }
+
+    /**
+     * Compile A with K = <var>k</var>, then B, with a new compiler.
+     *
+     * @return the value B returns
+     */
+    private int compileWith(final PersistentClassCache cache, final int k) throws Exception {
+        final CharSequenceCompiler<Object> compiler = new CharSequenceCompiler<>(
+                getClass().getClassLoader(), null);
+        try {
+            compiler.setPersistentCache(cache);
+            compiler.compile(A, aSource(k, ""), null);
+            return value(compiler.compile(B, B_SOURCE, null));
+        } finally {
+            compiler.close();
+        }
+    }
+
+    private static int value(final Class<?> c) throws Exception {
+        return (Integer) c.getMethod("value").invoke(null);
+    }
+}
@@ -0,0 +1,97 @@
+package javaxtools.compiler;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * Classes compiled in {@link CharSequenceCompiler.DefinitionMode#ISOLATED}
+ * mode, and their class loaders, become unreachable once the caller drops
+ * them, while the compiler itself stays in use.
+ */
+public class IsolatedUnloadingTest {
+    private static final int COMPILATIONS = 500;
+    private static final String PACKAGE_NAME = "isolated.test";
+
+    private CharSequenceCompiler<Callable<Integer>> compiler;
+
+    @Before
+    public void setUp() {
+        compiler = new CharSequenceCompiler<>(getClass().getClassLoader(), null);
+        compiler.setDefinitionMode(CharSequenceCompiler.DefinitionMode.ISOLATED);
+    }
+
+    @After
+    public void tearDown() {
+        compiler.close();
+    }
+
+    @Test
+    public void droppedClassesAreCollected() throws Exception {
+        final List<WeakReference<Class<?>>> classes = new ArrayList<>();
+        final List<WeakReference<ClassLoader>> loaders = new ArrayList<>();
+        for (int i = 0; i < COMPILATIONS; i++)
+            compileAndRun(i, classes, loaders);
+        awaitCollection(classes, loaders);
+        for (int i = 0; i < COMPILATIONS; i++) {
+            assertEquals("class " + i + " is still reachable", null, classes.get(i).get());
+            assertEquals("loader " + i + " is still reachable", null, loaders.get(i).get());
+        }
+        // the compiler is still usable, and shares nothing with them
+        final Class<Callable<Integer>> c = compile(COMPILATIONS);
+        assertNotSame(compiler.getClassLoader(), c.getClassLoader());
+        assertEquals(Integer.valueOf(COMPILATIONS), c.getConstructor().newInstance().call());
+    }
+
+    /**
+     * Compile and run class <var>i</var>, and keep only weak references to
+     * it and to its class loader.
+     */
+    private void compileAndRun(final int i, final List<WeakReference<Class<?>>> classes,
+                               final List<WeakReference<ClassLoader>> loaders) throws Exception {
+        final Class<Callable<Integer>> c = compile(i);
+        assertNotSame(compiler.getClassLoader(), c.getClassLoader());
+        assertEquals(Integer.valueOf(i), c.getConstructor().newInstance().call());
+        classes.add(new WeakReference<Class<?>>(c));
+        loaders.add(new WeakReference<>(c.getClassLoader()));
+    }
+
+    private Class<Callable<Integer>> compile(final int i) throws Exception {
+        final String name = "Isolated" + i;
+        return compiler.compile(PACKAGE_NAME + '.' + name, "package " + PACKAGE_NAME + ";\n"
+                + "public class " + name + " implements java.util.concurrent.Callable<Integer> {\n"
+                + "  public Integer call() { return " + i + "; }\n"
+                + "}\n", null);
+    }
+
+    /**
+     * Collect garbage until the last of the references is cleared, or give
+     * up after a while.
+     */
+    private static void awaitCollection(final List<WeakReference<Class<?>>> classes,
+                                        final List<WeakReference<ClassLoader>> loaders)
+            throws InterruptedException {
+        for (int attempt = 0; attempt < 50; attempt++) {
+            if (cleared(classes) && cleared(loaders))
+                return;
+            System.gc();
+            Thread.sleep(20);
+        }
+    }
+
+    private static boolean cleared(final List<? extends WeakReference<?>> references) {
+        for (WeakReference<?> reference : references) {
+            if (reference.get() != null)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,74 @@
+package javaxtools.compiler;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class PersistentClassCacheTest {
+    private static final String NAME = "persistent.test.A";
+    private static final String SOURCE = "package persistent.test;\n"
+            + "public class A { public static int value() { return 7; } }\n";
+
+    // the magic number and the SHA-256 key which start each file
+    private static final int HEADER = 4 + 32;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void corruptLengthIsAMiss() throws Exception {
+        corruptLength(0x7FFFFFF0);
+    }
+
+    @Test
+    public void negativeLengthIsAMiss() throws Exception {
+        corruptLength(-2);
+    }
+
+    /**
+     * Store a compilation, overwrite the length of the first name in its file
+     * with <var>length</var>, and compile again.
+     */
+    private void corruptLength(final int length) throws Exception {
+        final PersistentClassCache cache = new PersistentClassCache(folder.getRoot().toPath());
+        assertEquals(7, compileWith(cache));
+        final Path file = onlyFile(cache);
+        final byte[] bytes = Files.readAllBytes(file);
+        // one entry, dependency or class file, whose name has that length
+        ByteBuffer.wrap(bytes, HEADER, 8).putInt(1).putInt(length);
+        Files.write(file, bytes);
+
+        assertEquals(7, compileWith(cache));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    private int compileWith(final PersistentClassCache cache) throws Exception {
+        final CharSequenceCompiler<Object> compiler = new CharSequenceCompiler<>(
+                getClass().getClassLoader(), null);
+        try {
+            compiler.setPersistentCache(cache);
+            return (Integer) compiler.compile(NAME, SOURCE, null).getMethod("value").invoke(null);
+        } finally {
+            compiler.close();
+        }
+    }
+
+    private static Path onlyFile(final PersistentClassCache cache) throws Exception {
+        try (Stream<Path> files = Files.walk(cache.getDirectory())) {
+            final List<Path> classFiles = files.filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+            assertEquals(classFiles.toString(), 1, classFiles.size());
+            return classFiles.get(0);
+        }
+    }
+}